@@ -0,0 +1,47 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.Code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a generated program consisting mostly of conditions and jumps.
+ * Run with "-prof gc" to see the allocations per compilation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BranchBenchmark {
+
+  private static final int METHODS = 2000;
+
+  private String source;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder("program Branches\n  int[] a;\n{\n");
+    for (int m = 0; m < METHODS; m++) {
+      sb.append("  int m").append(m).append("(int x, int y) int i, s; {\n");
+      sb.append("    while (i < x) {\n");
+      for (int k = 0; k < 10; k++) {
+        sb.append("      if (x > ").append(k).append(" && y != i || s == ").append(m % 7).append(") s++;\n");
+        sb.append("      else if (i >= y) { s--; if (s < 0) break; }\n");
+      }
+      sb.append("      i++;\n");
+      sb.append("    }\n");
+      sb.append("    return s;\n");
+      sb.append("  }\n");
+    }
+    sb.append("  void main () {\n    print(m0(3, 4));\n  }\n}\n");
+    source = sb.toString();
+  }
+
+  @Benchmark
+  public Code compile() {
+    return Programs.compile(source);
+  }
+}
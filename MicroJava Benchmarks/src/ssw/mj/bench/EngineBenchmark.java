@@ -0,0 +1,55 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.Interpreter;
+import ssw.mj.impl.Code;
+import ssw.mj.vm.RegisterMachine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs programs on the stack interpreter, on the register machine and
+ * tiered, starting in the interpreter. The time of the register machine
+ * includes the translation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+
+  @Param({"stack", "register", "tiered"})
+  public String engine;
+
+  @Param({"Arithmetic.mj", "Counters.mj", "TextProcessing.mj"})
+  public String program;
+
+  private byte[] code;
+  private int mainpc;
+  private int dataSize;
+
+  @Setup
+  public void compile() {
+    Code c = Programs.compile(Programs.source(program));
+    code = Programs.bytes(c);
+    mainpc = c.mainpc;
+    dataSize = c.dataSize;
+  }
+
+  @Benchmark
+  public String run() {
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    if (engine.equals("register")) {
+      new RegisterMachine(code, mainpc, dataSize, io).run();
+    } else {
+      Interpreter interpreter = new Interpreter(code, mainpc, dataSize, io, false);
+      if (engine.equals("tiered")) {
+        interpreter.setTiering(Interpreter.CALL_THRESHOLD, Interpreter.BACK_EDGE_THRESHOLD, null);
+      }
+      interpreter.run();
+    }
+    return io.getOutput();
+  }
+}
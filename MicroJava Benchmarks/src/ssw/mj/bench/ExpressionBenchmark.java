@@ -0,0 +1,47 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.Code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a generated program consisting mostly of large expressions over
+ * locals, globals, fields and array elements. Run with "-prof gc" to see
+ * the allocations per compilation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpressionBenchmark {
+
+  private static final int METHODS = 2000;
+
+  private String source;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder("program Expressions\n");
+    sb.append("  class P { int x, y; int[] a; }\n  int g; int[] v; P p;\n{\n");
+    for (int m = 0; m < METHODS; m++) {
+      sb.append("  int m").append(m).append("(int a, int b) int c, d; {\n");
+      for (int k = 0; k < 10; k++) {
+        sb.append("    c = (a + b * ").append(k + 2).append(" - g) * (p.x + v[a % 4] - p.a[b + 1]) / (d + 1) % 97;\n");
+        sb.append("    d += -c * (p.y - 3) + v[c - a] * v[d + ").append(k).append("] - (a * b + c) * 2;\n");
+        sb.append("    p.a[c % 8] = p.x * p.y + g * (c + d) - v[0];\n");
+      }
+      sb.append("    return c + d;\n");
+      sb.append("  }\n");
+    }
+    sb.append("  void main () {\n    print(m0(3, 4));\n  }\n}\n");
+    source = sb.toString();
+  }
+
+  @Benchmark
+  public Code compile() {
+    return Programs.compile(source);
+  }
+}
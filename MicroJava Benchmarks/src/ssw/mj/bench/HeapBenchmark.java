@@ -0,0 +1,48 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.Interpreter;
+import ssw.mj.impl.Code;
+import ssw.mj.vm.ByteArrayHeap;
+import ssw.mj.vm.Heap;
+import ssw.mj.vm.IntArrayHeap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs text processing programs on the packed int heap and on the byte heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeapBenchmark {
+
+  @Param({"int", "byte"})
+  public String heap;
+
+  @Param({"TextProcessing.mj"})
+  public String program;
+
+  private byte[] code;
+  private int mainpc;
+  private int dataSize;
+
+  @Setup
+  public void compile() {
+    Code c = Programs.compile(Programs.source(program));
+    code = Programs.bytes(c);
+    mainpc = c.mainpc;
+    dataSize = c.dataSize;
+  }
+
+  @Benchmark
+  public String run() {
+    Heap h = heap.equals("byte") ? new ByteArrayHeap(Interpreter.heapSize) : new IntArrayHeap(Interpreter.heapSize);
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    new Interpreter(code, mainpc, dataSize, io, false, h).run();
+    return io.getOutput();
+  }
+}
@@ -0,0 +1,71 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.IncrementalCompiler;
+import ssw.mj.opt.Optimizer;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a generated program of about 100000 lines in which one method
+ * changes between two versions, as a whole and with the incremental
+ * compiler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncrementalBenchmark {
+
+  private static final int METHODS = 5000;
+
+  @Param({"full", "incremental"})
+  public String mode;
+
+  private final String[] versions = new String[2];
+  private IncrementalCompiler compiler;
+  private int next;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder("program Big\n");
+    for (int g = 0; g < 40; g++) {
+      sb.append("  int g").append(g).append(";\n");
+    }
+    sb.append("{\n");
+    for (int m = 0; m < METHODS; m++) {
+      sb.append("  int m").append(m).append("(int a, int b) int i, s; {\n");
+      sb.append("    i = 0; s = a;\n");
+      sb.append("    while (i < b) {\n");
+      for (int k = 0; k < 12; k++) {
+        sb.append("      s = s + i * ").append((m + k) % 50 + 1).append(" - g").append((m * 7 + k) % 40).append(";\n");
+      }
+      sb.append("      i++;\n");
+      sb.append("    }\n");
+      if (m > 0) {
+        sb.append("    s = s + m").append(m * 31 % m).append("(s, 2);\n");
+      }
+      sb.append("    return s;\n");
+      sb.append("  }\n");
+    }
+    sb.append("  void main () {\n    print(m").append(METHODS - 1).append("(1, 3));\n  }\n}\n");
+    versions[0] = sb.toString();
+    String edited = "int m" + METHODS / 2 + "(int a, int b) int i, s; {\n    i = 0;";
+    versions[1] = versions[0].replace(edited, edited.replace("i = 0;", "i = 1;"));
+    compiler = new IncrementalCompiler(EnumSet.noneOf(Optimizer.Pass.class), 0, false);
+    compiler.compile(versions[0]);
+  }
+
+  @Benchmark
+  public Code compile() {
+    next = 1 - next;
+    if (mode.equals("full")) {
+      return Programs.compile(versions[next]);
+    }
+    return compiler.compile(versions[next]);
+  }
+}
@@ -0,0 +1,57 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.Interpreter;
+import ssw.mj.impl.Code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs programs compiled with and without the compact instructions.
+ * {@link #main} prints the code sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstructionBenchmark {
+
+  private static final String[] PROGRAMS = {"TextProcessing.mj", "Counters.mj"};
+
+  @Param({"false", "true"})
+  public boolean compact;
+
+  @Param({"TextProcessing.mj", "Counters.mj"})
+  public String program;
+
+  private byte[] code;
+  private int mainpc;
+  private int dataSize;
+
+  @Setup
+  public void compile() {
+    Code c = Programs.compile(Programs.source(program), compact);
+    code = Programs.bytes(c);
+    mainpc = c.mainpc;
+    dataSize = c.dataSize;
+  }
+
+  @Benchmark
+  public String run() {
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    new Interpreter(code, mainpc, dataSize, io, false).run();
+    return io.getOutput();
+  }
+
+  public static void main(String[] args) {
+    for (String program : PROGRAMS) {
+      String source = Programs.source(program);
+      int plain = Programs.compile(source, false).pc;
+      int compact = Programs.compile(source, true).pc;
+      System.out.printf("%-20s %5d bytes, compact %5d bytes (%.1f%%)%n", program, plain, compact,
+              100.0 * (compact - plain) / plain);
+    }
+  }
+}
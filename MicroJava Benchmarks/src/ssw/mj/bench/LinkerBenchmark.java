@@ -0,0 +1,77 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Linker;
+import ssw.mj.impl.ObjectModule;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a small program that uses a few methods of a large generated
+ * library: as one source with the library pasted in, and against the
+ * library compiled once before, linked with and without stripping the
+ * methods never called.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LinkerBenchmark {
+
+  private static final int METHODS = 1000;
+
+  private String library, program;
+  private ObjectModule module;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder();
+    for (int m = 0; m < METHODS; m++) {
+      sb.append("  int lib").append(m).append("(int x) int i, s; {\n");
+      sb.append("    while (i < x) { s = s + i * ").append(m).append(" % 7; if (s > 100) s -= 3; i++; }\n");
+      sb.append("    calls++;\n");
+      sb.append("    return s;\n");
+      sb.append("  }\n");
+    }
+    library = sb.toString();
+    program = "  void main () int i; {\n    while (i < 10) { print(lib" + (METHODS / 2) + "(i) + lib7(i)); i++; }\n"
+            + "    print(calls);\n  }\n";
+
+    Parser parser = new Parser(new Scanner(new StringReader("program Lib\n  int calls;\n{\n" + library + "}\n")));
+    parser.module = true;
+    parser.parse();
+    module = ObjectModule.of(parser);
+  }
+
+  @Benchmark
+  public Code whole() {
+    return Programs.compile("program Whole\n  int calls;\n{\n" + library + program + "}\n");
+  }
+
+  @Benchmark
+  public Code linked() throws Linker.LinkException {
+    return link(false);
+  }
+
+  @Benchmark
+  public Code linkedStripped() throws Linker.LinkException {
+    return link(true);
+  }
+
+  private Code link(boolean strip) throws Linker.LinkException {
+    Parser parser = new Parser(new Scanner(new StringReader("program Linked {\n" + program + "}\n")));
+    module.declare(parser.tab);
+    parser.module = true;
+    parser.parse();
+    Linker linker = new Linker(List.of(ObjectModule.of(parser), module));
+    linker.strip = strip;
+    return linker.link();
+  }
+}
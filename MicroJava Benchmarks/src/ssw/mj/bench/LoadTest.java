@@ -0,0 +1,150 @@
+package ssw.mj.bench;
+
+import ssw.mj.impl.Code;
+import ssw.mj.vm.ProgramExecutor;
+import ssw.mj.vm.StreamIO;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for the {@link ProgramExecutor}: starts many programs at once,
+ * each reading its numbers from a stream that delivers one line per delay
+ * like a slow network connection, and prints the metrics every second.
+ * <p>
+ * Usage: LoadTest [programs] [delay ms] [sink delay us]
+ * <p>
+ * Defaults are 100000 programs, 10 ms per input line and no sink delay.
+ * With virtual threads all programs are in flight at the same time, which
+ * needs a heap of about 3 GB (-Xmx3g) because every VM has its own stacks.
+ */
+public final class LoadTest {
+
+  private static final String SOURCE = "program Sum" + "\n" + //
+          "{" + "\n" + //
+          "  void main ()" + "\n" + //
+          "    int x, s;" + "\n" + //
+          "  {" + "\n" + //
+          "    read(x);" + "\n" + //
+          "    while (x != 0) { s += x; read(x); }" + "\n" + //
+          "    print(s);" + "\n" + //
+          "  }" + "\n" + //
+          "}";
+
+  private static final int LINES = 5; // input lines per program, the last one is 0
+
+  private LoadTest() {
+  }
+
+  /**
+   * Input that blocks for the given delay before every line.
+   */
+  private static final class DelayedInput extends InputStream {
+    private final byte[] text;
+    private final long delayNanos;
+    private int pos;
+
+    DelayedInput(String text, long delayNanos) {
+      this.text = text.getBytes(StandardCharsets.US_ASCII);
+      this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos == text.length) {
+        return -1;
+      }
+      LockSupport.parkNanos(delayNanos);
+      int n = 0;
+      while (n < len && pos < text.length) {
+        b[off + n++] = text[pos];
+        if (text[pos++] == '\n') {
+          break;
+        }
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Sink that checks the program output and optionally slows writes down.
+   */
+  private static final class CheckingSink extends OutputStream {
+    private final StringBuilder out = new StringBuilder();
+    private final long delayNanos;
+
+    CheckingSink(long delayNanos) {
+      this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public void write(int b) {
+      out.append((char) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (delayNanos > 0) {
+        LockSupport.parkNanos(delayNanos);
+      }
+      for (int i = 0; i < len; i++) {
+        out.append((char) b[off + i]);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int programs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    long delay = TimeUnit.MILLISECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 10);
+    long sinkDelay = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 0);
+
+    Code code = Programs.compile(SOURCE);
+    byte[] bytes = Programs.bytes(code);
+    AtomicLong wrong = new AtomicLong();
+
+    try (ProgramExecutor executor = new ProgramExecutor(64)) {
+      System.out.println((executor.virtual() ? "virtual" : "platform") + " threads, " + programs + " programs");
+      Thread reporter = new Thread(() -> {
+        while (!Thread.currentThread().isInterrupted()) {
+          LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+          System.out.println(executor.metrics());
+        }
+      });
+      reporter.setDaemon(true);
+      reporter.start();
+
+      CompletableFuture<?>[] results = new CompletableFuture<?>[programs];
+      for (int i = 0; i < programs; i++) {
+        StringBuilder input = new StringBuilder();
+        int sum = 0;
+        for (int line = 1; line < LINES; line++) {
+          input.append(i + line).append('\n');
+          sum += i + line;
+        }
+        input.append("0\n");
+        String expected = String.valueOf(sum);
+        CheckingSink sink = new CheckingSink(sinkDelay);
+        StreamIO io = new StreamIO(new DelayedInput(input.toString(), delay), sink, 64);
+        results[i] = executor.submit(bytes, code.mainpc, code.dataSize, io).thenRun(() -> {
+          if (!sink.out.toString().equals(expected)) {
+            wrong.incrementAndGet();
+          }
+        });
+      }
+      CompletableFuture.allOf(results).exceptionally(t -> null).join();
+      reporter.interrupt();
+      System.out.println("done: " + executor.metrics() + ", " + wrong.get() + " wrong outputs");
+    }
+  }
+}
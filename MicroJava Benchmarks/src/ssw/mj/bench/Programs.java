@@ -0,0 +1,77 @@
+package ssw.mj.bench;
+
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers to compile the benchmark programs.
+ */
+final class Programs {
+
+  private Programs() {
+  }
+
+  /**
+   * Reads the MicroJava source stored as class path resource.
+   */
+  static String source(String resource) {
+    try (InputStream in = Programs.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalArgumentException("resource " + resource + " not found");
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Compiles the source and fails if there are compilation errors.
+   */
+  static Code compile(String source) {
+    return compile(new StringReader(source));
+  }
+
+  static Code compile(Reader source) {
+    return compile(source, false);
+  }
+
+  /**
+   * Compiles the source, with the compact instructions if compact is set.
+   */
+  static Code compile(String source, boolean compact) {
+    return compile(new StringReader(source), compact);
+  }
+
+  static Code compile(Reader source, boolean compact) {
+    return compile(new Scanner(source), compact);
+  }
+
+  /**
+   * Compiles the tokens delivered by scanner.
+   */
+  static Code compile(Scanner scanner, boolean compact) {
+    Parser parser = new Parser(scanner);
+    parser.code.compact = compact;
+    parser.parse();
+    if (scanner.errors.numErrors() > 0) {
+      throw new IllegalStateException(scanner.errors.dump());
+    }
+    return parser.code;
+  }
+
+  /**
+   * Code buffer trimmed to the generated code.
+   */
+  static byte[] bytes(Code code) {
+    return code.toByteArray();
+  }
+}
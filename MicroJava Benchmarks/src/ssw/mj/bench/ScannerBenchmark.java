@@ -0,0 +1,65 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.ParallelScanner;
+import ssw.mj.impl.Scanner;
+import ssw.mj.scanner.Token;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits generated sources into tokens: mostly keywords, mostly
+ * identifiers, and a mix like in real programs, with the scanner and with
+ * the parallel scanner. Run with "-prof gc" to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+
+  private static final int LINES = 50000;
+
+  @Param({"keywords", "identifiers", "mixed"})
+  public String input;
+
+  private String source;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      switch (input) {
+        case "keywords" -> sb.append("if while else return break read print new void class final program\n");
+        case "identifiers" -> sb.append("counter index total value").append(i % 100)
+                .append(" ifx whilst elsewhere returned breaks reader printer newer voids\n");
+        default -> sb.append("    if (count").append(i % 10).append(" >= limit) { total = total + values[i] * 2; }")
+                .append(" else return sum(list, ").append(i).append(");\n");
+      }
+    }
+    source = sb.toString();
+  }
+
+  @Benchmark
+  public int scan() {
+    Scanner scanner = new Scanner(new StringReader(source));
+    int n = 0;
+    while (scanner.next().kind != Token.Kind.eof) {
+      n++;
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int scanParallel() {
+    Scanner scanner = new ParallelScanner(source);
+    int n = 0;
+    while (scanner.next().kind != Token.Kind.eof) {
+      n++;
+    }
+    return n;
+  }
+}
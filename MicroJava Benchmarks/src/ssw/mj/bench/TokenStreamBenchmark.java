@@ -0,0 +1,65 @@
+package ssw.mj.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Scanner;
+import ssw.mj.impl.StreamScanner;
+import ssw.mj.impl.TokenStream;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a generated program with the parser reading Token objects from
+ * the scanner, reading a token stream scanned first, and reading a token
+ * stream scanned once before (as when parsing again). Run with "-prof gc"
+ * to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenStreamBenchmark {
+
+  private static final int METHODS = 2000;
+
+  private String source;
+  private TokenStream tokens;
+
+  @Setup
+  public void generate() {
+    StringBuilder sb = new StringBuilder("program Tokens\n  int[] a; int n;\n{\n");
+    for (int m = 0; m < METHODS; m++) {
+      sb.append("  int m").append(m).append("(int x, int y) int i, s; {\n");
+      sb.append("    while (i < x) {\n");
+      for (int k = 0; k < 10; k++) {
+        sb.append("      s = s + a[i] * ").append(k).append(" - (x + y) % 7; /* step ").append(k).append(" */\n");
+        sb.append("      if (s > y && i != ").append(m % 5).append(") s -= 2; else n++;\n");
+      }
+      sb.append("      i++;\n");
+      sb.append("    }\n");
+      sb.append("    return s;\n");
+      sb.append("  }\n");
+    }
+    sb.append("  void main () {\n    a = new int[10];\n    print(m0(3, 4));\n  }\n}\n");
+    source = sb.toString();
+    tokens = TokenStream.of(new Scanner(new StringReader(source)));
+  }
+
+  @Benchmark
+  public Code tokens() {
+    return Programs.compile(source);
+  }
+
+  @Benchmark
+  public Code stream() {
+    return Programs.compile(new StreamScanner(TokenStream.of(new Scanner(new StringReader(source)))), false);
+  }
+
+  @Benchmark
+  public Code scannedStream() {
+    return Programs.compile(new StreamScanner(tokens), false);
+  }
+}
@@ -1,46 +1,161 @@
 package ssw.mj;
 
+import ssw.mj.impl.Code;
+import ssw.mj.impl.IncrementalCompiler;
+import ssw.mj.impl.Linker;
+import ssw.mj.impl.ObjectModule;
+import ssw.mj.impl.ParallelScanner;
 import ssw.mj.impl.Parser;
 import ssw.mj.impl.Scanner;
+import ssw.mj.opt.Inliner;
+import ssw.mj.opt.Optimizer;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 /**
  * <code>Compiler</code> is the driver for the MicroJava-Compiler.
  * <p>
  * Execute<br>
- * <code>java ssw.mj.Compiler &lt;<i>MJ-Source-Filename</i>&gt;</code><br>
- * to start compilation.
+ * <code>java ssw.mj.Compiler &lt;<i>MJ-Source-Filename</i>&gt; [<i>Module-Filenames</i>] [-O]</code><br>
+ * to start compilation. <code>-O</code> enables all optimizations,
+ * <code>-Odce</code> only the dead code elimination, <code>-Ojump</code>
+ * only the jump threading, <code>-Olicm</code> only the loop invariant code
+ * motion, <code>-Otail</code> only the tail call elimination.
+ * <code>-Oinline[=n]</code> inlines called methods of at most n bytes of
+ * code, <code>-Ocompact</code> uses the compact instructions.
+ * <code>-watch</code> compiles again whenever the file changes, reusing
+ * the unchanged methods (see {@link IncrementalCompiler}).
+ * <code>-parallel</code> scans the source in parallel chunks (see
+ * {@link ParallelScanner}), which can only pay off for large sources on
+ * machines with several processors.
+ * <p>
+ * <code>-module</code> compiles a library into a module file (.mjo), whose
+ * methods and global variables other programs can use. A program is
+ * compiled with the module files it uses, classes used by a module must
+ * come from one listed before it. It is linked with them into one object
+ * file (see {@link Linker}), <code>-strip</code> leaves out the methods
+ * that are never called. The optimizations are applied when linking.
  */
 public class Compiler {
 
-  private static String objFileName(String s) {
+  private static String objFileName(String s, String ext) {
     int i = s.lastIndexOf('.');
     if (i < 0) {
-      return s + ".obj";
+      return s + ext;
     }
-    return s.substring(0, i) + ".obj";
+    return s.substring(0, i) + ext;
   }
 
   public static void main(String[] args) {
-    // --- get the filename
-    if (args.length != 1) {
-      System.out.println("usage: java Compiler filename.mj");
+    // --- get the filename and options
+    String inFilename = null;
+    EnumSet<Optimizer.Pass> optimizations = EnumSet.noneOf(Optimizer.Pass.class);
+    int inlineLimit = 0;
+    boolean compact = false;
+    boolean watch = false;
+    boolean module = false;
+    boolean strip = false;
+    boolean parallel = false;
+    List<String> moduleFilenames = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.equals("-O")) {
+        optimizations = EnumSet.allOf(Optimizer.Pass.class);
+        inlineLimit = Inliner.DEFAULT_LIMIT;
+        compact = true;
+      } else if (arg.equals("-Ocompact")) {
+        compact = true;
+      } else if (arg.equals("-Oinline")) {
+        inlineLimit = Inliner.DEFAULT_LIMIT;
+      } else if (arg.startsWith("-Oinline=") && arg.substring(9).matches("\\d{1,5}")) {
+        inlineLimit = Integer.parseInt(arg.substring(9));
+      } else if (arg.equals("-Otail")) {
+        optimizations.add(Optimizer.Pass.TailCalls);
+      } else if (arg.equals("-Odce")) {
+        optimizations.add(Optimizer.Pass.DeadCode);
+      } else if (arg.equals("-Ojump")) {
+        optimizations.add(Optimizer.Pass.JumpThreading);
+      } else if (arg.equals("-Olicm")) {
+        optimizations.add(Optimizer.Pass.LoopInvariants);
+      } else if (arg.equals("-watch")) {
+        watch = true;
+      } else if (arg.equals("-module")) {
+        module = true;
+      } else if (arg.equals("-strip")) {
+        strip = true;
+      } else if (arg.equals("-parallel")) {
+        parallel = true;
+      } else if (arg.endsWith(".mjo") && !arg.startsWith("-")) {
+        moduleFilenames.add(arg);
+      } else if (inFilename == null && !arg.startsWith("-")) {
+        inFilename = arg;
+      } else {
+        inFilename = null;
+        break;
+      }
+    }
+    boolean linked = module || !moduleFilenames.isEmpty();
+    if (inFilename == null || watch && (linked || parallel)) {
+      System.out.println("usage: java Compiler filename.mj [-O | -Odce | -Ojump | -Olicm | -Otail | -Oinline[=n] | -Ocompact] [-parallel | -watch]");
+      System.out.println("       java Compiler filename.mj [modules.mjo] [-module] [-strip] [-parallel] [-O...]");
+      return;
+    }
+    String outFilename = objFileName(inFilename, ".obj");
+    if (watch) {
+      try {
+        watch(inFilename, outFilename, new IncrementalCompiler(optimizations, inlineLimit, compact));
+      } catch (IOException ex) {
+        System.out.println("I/O Error: " + ex.getMessage());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
       return;
     }
-    String inFilename = args[0];
-    String outFilename = objFileName(inFilename);
 
     try {
-      Scanner scanner = new Scanner(new BufferedReader(new FileReader(inFilename)));
+      Scanner scanner = parallel ? new ParallelScanner(new String(Files.readAllBytes(Path.of(inFilename))))
+              : new Scanner(new BufferedReader(new FileReader(inFilename)));
 
       System.out.println("-----------------------------------");
       System.out.println("Parsing file " + inFilename);
 
+      List<ObjectModule> modules = new ArrayList<>();
+      for (String name : moduleFilenames) {
+        modules.add(ObjectModule.read(Path.of(name)));
+      }
       Parser parser = new Parser(scanner);
+      for (ObjectModule m : modules) {
+        m.declare(parser.tab);
+      }
+      if (!linked) {
+        parser.optimizations.addAll(optimizations);
+      }
+      parser.module = module;
+      parser.code.inlineLimit = inlineLimit;
+      parser.code.compact = compact;
       parser.parse();
       if (scanner.errors.numErrors() == 0) {
-        parser.code.write(new BufferedOutputStream(new FileOutputStream(outFilename)));
+        if (module) {
+          ObjectModule.of(parser).write(Path.of(objFileName(inFilename, ".mjo")));
+        } else if (linked) {
+          modules.add(0, ObjectModule.of(parser));
+          Linker linker = new Linker(modules);
+          linker.strip = strip;
+          linker.optimizations.addAll(optimizations);
+          try {
+            linker.link().write(Path.of(outFilename));
+          } catch (Linker.LinkException ex) {
+            System.out.println("Link error: " + ex.getMessage());
+            return;
+          }
+        } else {
+          parser.code.write(Path.of(outFilename));
+        }
       }
 
       if (scanner.errors.numErrors() > 0) {
@@ -53,4 +168,32 @@ public class Compiler {
       System.out.println("I/O Error: " + ex.getMessage());
     }
   }
+
+  /**
+   * Compiles the file whenever it was modified, until the program is
+   * stopped.
+   */
+  private static void watch(String inFilename, String outFilename, IncrementalCompiler compiler)
+          throws IOException, InterruptedException {
+    Path in = Path.of(inFilename);
+    FileTime compiled = null;
+    while (true) {
+      FileTime modified = Files.getLastModifiedTime(in);
+      if (!modified.equals(compiled)) {
+        compiled = modified;
+        long start = System.nanoTime();
+        Code code = compiler.compile(new String(Files.readAllBytes(in)));
+        long time = (System.nanoTime() - start) / 1_000_000;
+        if (compiler.errors().numErrors() == 0) {
+          code.write(Path.of(outFilename));
+          System.out.println("Compiled " + inFilename + " in " + time + " ms, "
+                  + compiler.parsedMethods() + " methods parsed.");
+        } else {
+          System.out.println(compiler.errors().dump());
+          System.out.println(compiler.errors().numErrors() + " errors.");
+        }
+      }
+      Thread.sleep(200);
+    }
+  }
 }
@@ -1,8 +1,7 @@
 package ssw.mj;
 
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 public class Errors {
   public static class PanicMode extends Error {
@@ -81,53 +80,132 @@ public class Errors {
     CANNOT_ASSIGN_TO("cannot store to operand kind {0}"),
     INVALID_METH_RETURN_TYPE("methods may only return int or char");
 
+    private static final Message[] VALUES = values();
+
     private final String msg;
+    private final int nParams;
 
     private Message(String msg) {
       this.msg = msg;
+      nParams = msg.contains("{0}") ? 1 : 0;
     }
 
     public String format(Object... params) {
-      if (params.length != (msg.contains("{0}") ? 1 : 0)) {
+      check(params);
+      return MessageFormat.format(msg, params);
+    }
+
+    private void check(Object[] params) {
+      if (params.length != nParams) {
         throw new Error("incorrect number of error message parameters");
       }
-      return MessageFormat.format(msg, params);
     }
   }
 
   /**
-   * List of error messages.
+   * Default for {@link #limit}.
    */
-  private final List<String> errors;
+  public static final int DEFAULT_LIMIT = 1000;
 
   /**
-   * Initialization (must be called before compilation).
+   * Maximum number of errors kept for dump() and the accessors. Further
+   * errors are only counted.
    */
-  public Errors() {
-    errors = new ArrayList<>();
-  }
+  public int limit = DEFAULT_LIMIT;
 
   /**
-   * Add a new error message to the list of errors.
+   * Line, column and message ordinal of each kept error.
+   */
+  private int[] records = new int[3 * 8];
+
+  /**
+   * Message parameter of each kept error, null if the message has none.
+   */
+  private Object[] params = new Object[8];
+
+  private int numErrors, numKept;
+
+  /**
+   * Add a new error message to the list of errors. The message is only
+   * formatted when it is needed.
    */
   public void error(int line, int col, Message msg, Object... msgParams) {
-    errors.add("-- line " + line + " col " + col + ": " + msg.format(msgParams));
+    msg.check(msgParams);
+    numErrors++;
+    if (numKept >= limit) {
+      return;
+    }
+    if (numKept == params.length) {
+      records = Arrays.copyOf(records, records.length * 2);
+      params = Arrays.copyOf(params, params.length * 2);
+    }
+    records[3 * numKept] = line;
+    records[3 * numKept + 1] = col;
+    records[3 * numKept + 2] = msg.ordinal();
+    params[numKept++] = msg.nParams == 0 ? null : msgParams[0];
   }
 
   /**
    * Returns the number of errors.
    */
   public int numErrors() {
-    return errors.size();
+    return numErrors;
+  }
+
+  /**
+   * Number of errors that were kept, at most limit.
+   */
+  public int numKept() {
+    return numKept;
+  }
+
+  // ----- kept error i, 0 <= i < numKept()
+
+  public int line(int i) {
+    return records[3 * kept(i)];
+  }
+
+  public int col(int i) {
+    return records[3 * kept(i) + 1];
+  }
+
+  public Message message(int i) {
+    return Message.VALUES[records[3 * kept(i) + 2]];
   }
 
   /**
-   * String representation for JUnit test cases.
+   * Parameters of the message of error i.
+   */
+  public Object[] params(int i) {
+    Object param = params[kept(i)];
+    return param == null && message(i).nParams == 0 ? new Object[0] : new Object[]{param};
+  }
+
+  /**
+   * Formatted error i as in dump().
+   */
+  public String format(int i) {
+    return "-- line " + line(i) + " col " + col(i) + ": " + message(i).format(params(i));
+  }
+
+  private int kept(int i) {
+    if (i < 0 || i >= numKept) {
+      throw new IndexOutOfBoundsException("error " + i + " of " + numKept);
+    }
+    return i;
+  }
+
+  /**
+   * String representation for JUnit test cases. Errors beyond the limit
+   * are summarized in a last line.
    */
   public String dump() {
     StringBuilder sb = new StringBuilder();
-    for (String error : errors) {
-      sb.append(error).append("\n");
+    for (int i = 0; i < numKept; i++) {
+      sb.append(format(i)).append("\n");
+    }
+    if (numErrors > numKept) {
+      sb.append("-- ").append(numErrors - numKept).append(" more errors\n");
     }
     return sb.toString();
   }
@@ -1,6 +1,7 @@
 // MicroJava Virtual Machine
 // -------------------------
-// Syntax: java ssw.mj.Run fileName [-debug]
+// Syntax: java ssw.mj.Run fileName [-debug] [-byteheap | -offheap] [-heapsize words] [-snapshot file]
+//         java ssw.mj.Run -restore file [-debug] [-byteheap | -offheap] [-heapsize words]
 // ===========================================================================
 // by Hanspeter Moessenboeck, 2002-10-28
 // edited by Albrecht Woess, 2002-10-30
@@ -8,24 +9,41 @@ package ssw.mj;
 
 import ssw.mj.impl.Code;
 import ssw.mj.impl.Code.OpCode;
+import ssw.mj.vm.Heap;
+import ssw.mj.vm.IntArrayHeap;
+import ssw.mj.vm.RegisterMachine;
+import ssw.mj.vm.Snapshot;
+import ssw.mj.vm.Verifier;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 public class Interpreter {
 
   private final boolean debug; // debug output on or off
   private final byte[] code; // code array
   private final int[] data; // global data
-  private final int[] heap; // dynamic heap
+  private final Heap heap; // dynamic heap
   private final int[] stack; // expression stack
   private final int[] local; // method stack
   private final int startPC; // address of main() method
+  private final Verifier verifier;
+  private final boolean verified; // code passed the verifier, stack checks can be skipped
   private int pc; // program counter
   private int fp, sp; // frame pointer, stack pointer on method stack
   private int esp; // expression stack pointer
   private int free; // next free heap address
-  private static final int heapSize = 100000, // size of the heap in words
-          mStackSize = 4000, // size of the method stack in words
+  private Path snapshotFile; // snapshot is written before the first input instruction
+  private RegisterMachine tier2; // runs hot methods, null without tiered execution
+  private int callThreshold, backEdgeThreshold; // promotion thresholds per method
+  private int[] calls, backEdges; // profile per method, indexed by the address of its enter
+  private boolean[] hot; // promoted methods, indexed by the address of their enter
+  private PrintStream tierLog;
+  public static final int CALL_THRESHOLD = 1000, BACK_EDGE_THRESHOLD = 10000; // defaults for tiered execution
+  public static final int heapSize = 100000; // default size of the heap in words
+  private static final int mStackSize = 4000, // size of the method stack in words
           eStackSize = 30; // size of the expression stack in words
 
   private void write(String s, int len) {
@@ -98,11 +116,15 @@ public class Interpreter {
   private final IO io;
 
   public Interpreter(byte[] code, int startPC, int dataSize, IO io, boolean debug) {
+    this(code, startPC, dataSize, io, debug, new IntArrayHeap(heapSize));
+  }
+
+  public Interpreter(byte[] code, int startPC, int dataSize, IO io, boolean debug, Heap heap) {
     this.code = code;
     this.startPC = startPC;
     this.io = io;
     this.debug = debug;
-    heap = new int[heapSize]; // fixed sized heap
+    this.heap = heap; // fixed sized heap
     data = new int[dataSize]; // global data as specified in
     // classfile
     stack = new int[eStackSize]; // expression stack
@@ -111,18 +133,179 @@ public class Interpreter {
     sp = 0;
     esp = 0;
     free = 1; // no block should start at address 0
+    pc = startPC;
+
+    verifier = new Verifier(code, startPC, dataSize);
+    verified = verifier.verify() && verifier.maxStackDepth() <= eStackSize;
+    if (debug && !verified) {
+      System.out.println("-- code not verified, running with stack checks: "
+              + (verifier.error() != null ? verifier.error() : "unbounded expression stack"));
+    }
+  }
+
+  /**
+   * Creates an interpreter that continues at the state saved in a snapshot
+   * file. The heap must be empty and at least as large as the saved one.
+   */
+  public static Interpreter restore(Path file, IO io, boolean debug, Heap heap) throws IOException {
+    Snapshot s = Snapshot.load(file, heap, eStackSize, mStackSize);
+    Interpreter r = new Interpreter(s.code, s.startPC, s.data.length, io, debug, heap);
+    System.arraycopy(s.data, 0, r.data, 0, s.data.length);
+    System.arraycopy(s.stack, 0, r.stack, 0, s.esp);
+    System.arraycopy(s.local, 0, r.local, 0, s.sp);
+    r.pc = s.pc;
+    r.fp = s.fp;
+    r.sp = s.sp;
+    r.esp = s.esp;
+    r.free = s.free;
+    return r;
+  }
+
+  /**
+   * Requests a snapshot of the VM state, written to file right before the
+   * first read or bread instruction is executed. Programs that set up
+   * their tables before reading input can then be restored in their ready
+   * state. Output written before the snapshot is not part of it.
+   */
+  public void setSnapshot(Path file) {
+    snapshotFile = file;
+  }
+
+  /**
+   * Enables tiered execution. Calls and loop back edges are counted per
+   * method. A method that was called callThreshold times or whose loops
+   * jumped back backEdgeThreshold times is promoted: from then on its calls
+   * run on a {@link RegisterMachine}, together with everything it calls,
+   * and the interpreter continues after the call when it returns. Running
+   * activations of a promoted method move to the register machine at
+   * their next back edge. Transitions are reported to log if it is not
+   * null. Tiered execution is only possible for verified code and is not
+   * used in debug mode or while a snapshot is pending: methods promoted
+   * meanwhile are only run on the register machine after it was taken.
+   */
+  public void setTiering(int callThreshold, int backEdgeThreshold, PrintStream log) {
+    if (!verified || debug) {
+      return;
+    }
+    this.callThreshold = callThreshold;
+    this.backEdgeThreshold = backEdgeThreshold;
+    tierLog = log;
+    calls = new int[code.length];
+    backEdges = new int[code.length];
+    hot = new boolean[code.length];
+    tier2 = new RegisterMachine(code, startPC, verifier, data, heap, io);
+  }
+
+  /**
+   * Runs the called method on the register machine if it is hot. Returns
+   * false if the interpreter has to execute the call.
+   */
+  private boolean callTier2(int adr) {
+    if (snapshotFile != null) {
+      // interpreted until the snapshot is taken, even if promoted by its loops
+      calls[adr]++;
+      return false;
+    }
+    if (!hot[adr]) {
+      if (++calls[adr] < callThreshold) {
+        return false;
+      }
+      promote(adr, calls[adr] + " calls");
+    }
+    Verifier.Method m = verifier.methodAt(adr);
+    esp -= m.nPars;
+    tier2.setFree(free);
+    int result = tier2.invoke(adr, stack, esp);
+    free = tier2.free();
+    if (m.resultSize > 0) {
+      push(result);
+    }
+    return true;
+  }
+
+  /**
+   * Counts a jump back to the loop header target for the method containing
+   * it. Returns true if the method is hot, so that the running activation
+   * can be replaced.
+   */
+  private boolean backEdge(int target) {
+    int adr = verifier.methodOf(target);
+    if (!hot[adr] && ++backEdges[adr] == backEdgeThreshold) {
+      promote(adr, backEdges[adr] + " back edges");
+    }
+    return hot[adr] && snapshotFile == null;
+  }
+
+  /**
+   * Moves the running activation to the register machine, which continues
+   * at the loop header pc with the current locals and expression stack
+   * (on-stack replacement). When the method returns there, its frame is
+   * removed as by exit and return. Returns true if the main method
+   * returned, which ends the program.
+   */
+  private boolean replace() {
+    int adr = verifier.methodOf(pc);
+    if (tierLog != null) {
+      tierLog.println("-- on-stack replacement: method at " + adr + " at loop " + pc);
+    }
+    tier2.setFree(free);
+    int result = tier2.resume(adr, pc, local, fp, stack, esp);
+    free = tier2.free();
+    esp -= verifier.stackDepth(pc);
+    sp = fp;
+    fp = POP();
+    if (sp == 0) {
+      return true;
+    }
+    pc = POP();
+    if (verifier.methodAt(adr).resultSize > 0) {
+      push(result);
+    }
+    return false;
+  }
+
+  private void promote(int adr, String reason) {
+    hot[adr] = true;
+    if (tierLog != null) {
+      tierLog.println("-- tier up: method at " + adr + " after " + reason);
+    }
+  }
+
+  /**
+   * Writes the current state to the requested snapshot file, so that the
+   * instruction at pc is the first one executed after restore.
+   */
+  private void saveSnapshot(int pc) {
+    Snapshot s = new Snapshot();
+    s.code = code;
+    s.startPC = startPC;
+    s.pc = pc;
+    s.fp = fp;
+    s.sp = sp;
+    s.esp = esp;
+    s.free = free;
+    s.data = data;
+    s.stack = stack;
+    s.local = local;
+    try {
+      s.save(snapshotFile, heap);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    snapshotFile = null;
   }
 
   // ----- expression stack
+  // bounds are only checked for unverified code, the verifier proved them otherwise
   private void push(int val) throws IllegalStateException {
-    if (esp == eStackSize) {
+    if (!verified && esp == eStackSize) {
       throw new IllegalStateException("expression stack overflow");
     }
     stack[esp++] = val;
   }
 
   private int pop() throws IllegalStateException {
-    if (esp == 0) {
+    if (!verified && esp == 0) {
       throw new IllegalStateException("expression stack underflow");
     }
     return stack[--esp];
@@ -180,29 +363,12 @@ public class Interpreter {
     int adr = free;
     free += ((size + 3) >> 2); // skip to next free adr
     // (>> 2 to convert byte to word)
-    if (free > heapSize) {
+    if (free > heap.size() || free < 0) { // free < 0 on overflow of huge heaps
       throw new IllegalStateException("heap overflow");
     }
     return adr;
   }
 
-  /**
-   * Retrieve byte n from val. Byte 0 is MSB
-   */
-  private static byte getByte(int val, int n) {
-    return (byte) (val << (8 * n) >>> 24);
-  }
-
-  /**
-   * Replace byte n in val by b
-   */
-  private static int setByte(int val, int n, byte b) {
-    int delta = (3 - n) * 8;
-    int mask = ~(255 << delta); // mask all 1 except on chosen byte
-    int by = (b & 255) << delta;
-    return (val & mask) ^ by;
-  }
-
   /**
    * Read int from standard input stream
    */
@@ -242,7 +408,6 @@ public class Interpreter {
   public void run() throws IllegalStateException {
     Code.OpCode op;
     int adr, val, val2, off, idx, len, i;
-    pc = startPC;
 
     if (debug) { // header for debug output
       System.out.println();
@@ -298,7 +463,7 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          push(heap[adr + next2(true)]);
+          push(heap.get(adr + next2(true)));
           break;
         case putfield:
           val = pop();
@@ -306,7 +471,7 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          heap[adr + next2(true)] = val;
+          heap.put(adr + next2(true), val);
           break;
 
         // load constants
@@ -378,7 +543,7 @@ public class Interpreter {
           } else {
             adr = alloc(len * 4 + 4);
           }
-          heap[adr] = len;
+          heap.put(adr, len);
           push(adr + 1); // skip length field of array
           break;
 
@@ -389,11 +554,11 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          len = heap[adr - 1];
+          len = heap.get(adr - 1);
           if (idx < 0 || idx >= len) {
             throw new IllegalStateException("index out of bounds");
           }
-          push(heap[adr + idx]);
+          push(heap.get(adr + idx));
           break;
         case astore:
           val = pop();
@@ -402,7 +567,7 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          len = heap[adr - 1];
+          len = heap.get(adr - 1);
           if (debug) {
             System.out.println("\nArraylength = " + len);
             System.out.println("Address = " + adr);
@@ -412,7 +577,7 @@ public class Interpreter {
           if (idx < 0 || idx >= len) {
             throw new IllegalStateException("index out of bounds");
           }
-          heap[adr + idx] = val;
+          heap.put(adr + idx, val);
           break;
         case baload:
           idx = pop();
@@ -420,11 +585,11 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          len = heap[adr - 1];
+          len = heap.get(adr - 1);
           if (idx < 0 || idx >= len) {
             throw new IllegalStateException("index out of bounds");
           }
-          push(getByte(heap[adr + idx / 4], idx % 4));
+          push(heap.getByte(adr, idx));
           break;
         case bastore:
           val = pop();
@@ -433,19 +598,18 @@ public class Interpreter {
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          len = heap[adr - 1];
+          len = heap.get(adr - 1);
           if (idx < 0 || idx >= len) {
             throw new IllegalStateException("index out of bounds");
           }
-          heap[adr + idx / 4] = setByte(heap[adr + idx / 4], idx % 4,
-                  (byte) val);
+          heap.putByte(adr, idx, (byte) val);
           break;
         case arraylength:
           adr = pop();
           if (adr == 0) {
             throw new IllegalStateException("null reference used");
           }
-          push(heap[adr - 1]);
+          push(heap.get(adr - 1));
           break;
 
         // stack manipulation
@@ -470,6 +634,9 @@ public class Interpreter {
         case jmp:
           off = next2(true);
           pc += off - 3;
+          if (off < 0 && tier2 != null && backEdge(pc) && replace()) {
+            return; // main finished on the register machine
+          }
           break;
 
         case jeq:
@@ -506,12 +673,18 @@ public class Interpreter {
           }
           if (cond) {
             pc += off - 3;
+            if (off < 0 && tier2 != null && backEdge(pc) && replace()) {
+              return; // main finished on the register machine
+            }
           }
           break;
 
         // method calls
         case call:
           off = next2(true);
+          if (tier2 != null && callTier2(pc - 3 + off)) {
+            break;
+          }
           PUSH(pc);
           pc += off - 3;
           break;
@@ -542,6 +715,9 @@ public class Interpreter {
 
         // I/O
         case read:
+          if (snapshotFile != null) {
+            saveSnapshot(pc - 1);
+          }
           push(readInt());
           break;
 
@@ -553,6 +729,9 @@ public class Interpreter {
           write(s, len);
           break;
         case bread:
+          if (snapshotFile != null) {
+            saveSnapshot(pc - 1);
+          }
           push(io.read());
           break;
         case bprint:
@@ -563,6 +742,38 @@ public class Interpreter {
         case nop:
           // nothing to do
           break;
+
+        // compact instructions
+        case bipush:
+          push(next(true));
+          break;
+        case sipush:
+          push(next2(true));
+          break;
+        case load_4:
+        case load_5:
+        case load_6:
+        case load_7:
+          push(local[fp + op.code() - Code.OpCode.load_4.code() + 4]);
+          break;
+        case store_4:
+        case store_5:
+        case store_6:
+        case store_7:
+          local[fp + op.code() - Code.OpCode.store_4.code() + 4] = pop();
+          break;
+        case incstatic:
+          adr = next2(true);
+          data[adr] += next2(true);
+          break;
+        case incfield:
+          adr = pop();
+          if (adr == 0) {
+            throw new IllegalStateException("null reference used");
+          }
+          adr += next2(true);
+          heap.put(adr, heap.get(adr) + next2(true));
+          break;
         case trap:
           throw new IllegalStateException("trap(" + next(true) + ")");
         default:
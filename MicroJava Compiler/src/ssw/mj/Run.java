@@ -1,20 +1,46 @@
 // MicroJava Virtual Machine
 // -------------------------
-// Syntax: java ssw.mj.Run fileName [-debug]
+// Syntax: java ssw.mj.Run fileName [-debug] [-byteheap | -offheap] [-heapsize words] [-snapshot file]
+//         java ssw.mj.Run fileName -tiered[=calls,backedges] [-tierlog] [-byteheap | -offheap] [-heapsize words]
+//         java ssw.mj.Run fileName -regvm [-byteheap | -offheap] [-heapsize words]
+//         java ssw.mj.Run -restore file [-debug] [-byteheap | -offheap] [-heapsize words]
 // ===========================================================================
 // by Hanspeter Moessenboeck, 2002-10-28
 // edited by Albrecht Woess, 2002-10-30
 package ssw.mj;
 
+import ssw.mj.vm.ByteArrayHeap;
+import ssw.mj.vm.DirectHeap;
+import ssw.mj.vm.Heap;
+import ssw.mj.vm.IntArrayHeap;
+import ssw.mj.vm.RegisterMachine;
+
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class Run {
 
   // ----- VM internals
-  static Interpreter load(String name, boolean debug) throws IOException {
+  static Interpreter load(String name, boolean debug, Heap heap) throws IOException {
+    Program p = read(name);
+    return new Interpreter(p.code, p.startPC, p.dataSize, Interpreter.ConsoleIO, debug, heap);
+  }
+
+  /**
+   * Loads the object file for the register machine.
+   */
+  static RegisterMachine loadRegisterMachine(String name, Heap heap) throws IOException {
+    Program p = read(name);
+    return new RegisterMachine(p.code, p.startPC, p.dataSize, Interpreter.ConsoleIO, heap);
+  }
+
+  private record Program(byte[] code, int startPC, int dataSize) {
+  }
+
+  private static Program read(String name) throws IOException {
     int codeSize;
     byte[] sig = new byte[2];
     DataInputStream in = new DataInputStream(new FileInputStream(name));
@@ -42,25 +68,112 @@ public class Run {
     in.read(code, 0, codeSize);
     in.close();
 
-    return new Interpreter(code, startPC, dataSize, Interpreter.ConsoleIO, debug);
+    return new Program(code, startPC, dataSize);
   }
 
   public static void main(String[] args) {
     String fileName = null;
     boolean debug = false;
-    for (String arg : args) {
+    String heapKind = "int";
+    int heapSize = Interpreter.heapSize;
+    String snapshotName = null;
+    String restoreName = null;
+    boolean regvm = false;
+    boolean tiered = false, tierLog = false;
+    boolean invalid = false;
+    int callThreshold = Interpreter.CALL_THRESHOLD, backEdgeThreshold = Interpreter.BACK_EDGE_THRESHOLD;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
       if (arg.equals("-debug")) {
         debug = true;
+      } else if (arg.equals("-byteheap")) {
+        heapKind = "byte";
+      } else if (arg.equals("-offheap")) {
+        heapKind = "direct";
+      } else if (arg.equals("-heapsize") && i + 1 < args.length) {
+        String size = args[++i];
+        if (size.matches("\\d{1,9}")) {
+          heapSize = Integer.parseInt(size);
+        } else {
+          invalid = true;
+        }
+      } else if (arg.equals("-snapshot") && i + 1 < args.length) {
+        snapshotName = args[++i];
+      } else if (arg.equals("-restore") && i + 1 < args.length) {
+        restoreName = args[++i];
+      } else if (arg.equals("-regvm")) {
+        regvm = true;
+      } else if (arg.equals("-tiered")) {
+        tiered = true;
+      } else if (arg.startsWith("-tiered=")) {
+        tiered = true;
+        if (arg.matches("-tiered=\\d{1,9},\\d{1,9}")) {
+          callThreshold = Integer.parseInt(arg.substring(8, arg.indexOf(',')));
+          backEdgeThreshold = Integer.parseInt(arg.substring(arg.indexOf(',') + 1));
+        } else {
+          invalid = true;
+        }
+      } else if (arg.equals("-tierlog")) {
+        tierLog = true;
       } else {
         fileName = arg;
       }
     }
-    if (fileName == null) {
-      System.out.println("Syntax: java ssw.mj.Run filename [-debug]");
+    if (invalid || fileName == null && restoreName == null || regvm && (debug || snapshotName != null || restoreName != null)
+            || tiered && (regvm || debug || snapshotName != null || restoreName != null)) {
+      System.out.println("Syntax: java ssw.mj.Run filename [-debug] [-byteheap | -offheap] [-heapsize words] [-snapshot file]");
+      System.out.println("        java ssw.mj.Run filename -tiered[=calls,backedges] [-tierlog] [-byteheap | -offheap] [-heapsize words]");
+      System.out.println("        java ssw.mj.Run filename -regvm [-byteheap | -offheap] [-heapsize words]");
+      System.out.println("        java ssw.mj.Run -restore file [-debug] [-byteheap | -offheap] [-heapsize words]");
+      return;
+    }
+    if (restoreName != null) {
+      fileName = restoreName;
+    }
+    Heap heap;
+    try {
+      heap = switch (heapKind) {
+        case "byte" -> new ByteArrayHeap(heapSize);
+        case "direct" -> new DirectHeap(heapSize);
+        default -> new IntArrayHeap(heapSize);
+      };
+    } catch (IllegalArgumentException e) {
+      System.out.println("-- invalid heap size " + heapSize + ": " + e.getMessage());
       return;
     }
     try {
-      Interpreter r = load(fileName, debug);
+      if (regvm) {
+        RegisterMachine m;
+        try {
+          m = loadRegisterMachine(fileName, heap);
+        } catch (IllegalArgumentException e) {
+          // the translator rejects the code
+          System.out.println("-- cannot run " + fileName + " on the register machine: " + e.getMessage());
+          return;
+        }
+        long startTime = System.currentTimeMillis();
+        m.run();
+        System.out.print("\nCompletion took " + (System.currentTimeMillis() - startTime) + " ms");
+        return;
+      }
+      Interpreter r;
+      if (restoreName != null) {
+        try {
+          r = Interpreter.restore(Path.of(restoreName), Interpreter.ConsoleIO, debug, heap);
+        } catch (IllegalArgumentException e) {
+          // the saved heap does not fit
+          System.out.println("-- cannot restore " + restoreName + ": " + e.getMessage());
+          return;
+        }
+      } else {
+        r = load(fileName, debug, heap);
+      }
+      if (snapshotName != null) {
+        r.setSnapshot(Path.of(snapshotName));
+      }
+      if (tiered) {
+        r.setTiering(callThreshold, backEdgeThreshold, tierLog ? System.err : null);
+      }
 
       long startTime = System.currentTimeMillis();
       r.run();
@@ -0,0 +1,103 @@
+package ssw.mj.cfg;
+
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maximal sequence of instructions that is only entered at its first and
+ * only left after its last instruction.
+ */
+public final class BasicBlock {
+
+  /**
+   * Index of the block in {@link ControlFlowGraph#blocks()}, blocks are
+   * numbered in code order.
+   */
+  public final int id;
+
+  /**
+   * Address of the first instruction.
+   */
+  public final int start;
+
+  /**
+   * Address after the last instruction.
+   */
+  public int end;
+
+  /**
+   * Address of the last instruction.
+   */
+  public int last;
+
+  /**
+   * Opcode of the last instruction.
+   */
+  public OpCode lastOp;
+
+  /**
+   * Successor if the end of the block is reached without a jump, null after
+   * jmp, return and trap.
+   */
+  public BasicBlock fallThrough;
+
+  /**
+   * Target of the jump ending the block, null if there is none.
+   */
+  public BasicBlock target;
+
+  public final List<BasicBlock> preds = new ArrayList<>();
+  public final List<BasicBlock> succs = new ArrayList<>(2);
+
+  /**
+   * Immediate dominator, null for the entry block and unreachable blocks.
+   */
+  public BasicBlock idom;
+
+  /**
+   * Innermost loop containing the block, null if there is none.
+   */
+  public Loop loop;
+
+  /**
+   * Position in reverse postorder, -1 if the block is unreachable.
+   */
+  int rpo = -1;
+
+  BasicBlock(int id, int start) {
+    this.id = id;
+    this.start = start;
+  }
+
+  public boolean reachable() {
+    return rpo >= 0;
+  }
+
+  /**
+   * Number of loops containing the block.
+   */
+  public int loopDepth() {
+    return loop == null ? 0 : loop.depth;
+  }
+
+  /**
+   * True if this block dominates b, i.e. every path from the entry to b
+   * passes this block. A block dominates itself.
+   */
+  public boolean dominates(BasicBlock b) {
+    if (!reachable() || !b.reachable()) {
+      return false;
+    }
+    while (b != null && b.rpo > rpo) {
+      b = b.idom;
+    }
+    return b == this;
+  }
+
+  @Override
+  public String toString() {
+    return "B" + id + "[" + start + ".." + end + ")";
+  }
+}
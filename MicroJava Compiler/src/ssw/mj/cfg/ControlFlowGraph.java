@@ -0,0 +1,332 @@
+package ssw.mj.cfg;
+
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.symtab.Obj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Control flow graph of one compiled method. The method starts with the
+ * enter instruction at its address and extends up to the next enter or the
+ * end of the code. Blocks, edges, dominators and loops are computed in a
+ * few linear passes over the instructions.
+ */
+public final class ControlFlowGraph {
+
+  public final byte[] code;
+
+  /**
+   * Address of the enter instruction of the method.
+   */
+  public final int adr;
+
+  /**
+   * Address after the last instruction of the method.
+   */
+  public final int end;
+
+  private final List<BasicBlock> blocks = new ArrayList<>();
+  private final List<BasicBlock> rpo = new ArrayList<>();
+  private final List<Loop> loops = new ArrayList<>();
+
+  private ControlFlowGraph(byte[] code, int adr, int end) {
+    this.code = code;
+    this.adr = adr;
+    this.end = end;
+  }
+
+  /**
+   * Builds the graph of the method meth.
+   */
+  public static ControlFlowGraph build(Code code, Obj meth) {
+    return build(code.toByteArray(), code.pc, meth.adr);
+  }
+
+  /**
+   * Builds the graph of the method whose enter instruction is at adr, where
+   * codeSize is the length of the valid code in the buffer.
+   */
+  public static ControlFlowGraph build(byte[] code, int codeSize, int adr) {
+    if (adr < 0 || adr >= codeSize || OpCode.get(code[adr]) != OpCode.enter) {
+      throw new IllegalArgumentException("no enter instruction at " + adr);
+    }
+    int pc = adr;
+    do {
+      OpCode op = OpCode.get(code[pc]);
+      if (op == null) {
+        throw new IllegalArgumentException("illegal opcode at " + pc);
+      }
+      if (op == OpCode.enter && pc != adr) {
+        break;
+      }
+      pc += op.size();
+    } while (pc < codeSize);
+    if (pc > codeSize) {
+      throw new IllegalArgumentException("truncated instruction at end of code");
+    }
+    ControlFlowGraph cfg = new ControlFlowGraph(code, adr, pc);
+    cfg.buildBlocks();
+    cfg.computeOrder();
+    cfg.computeDominators();
+    cfg.computeLoops();
+    return cfg;
+  }
+
+  /**
+   * Target of the jump instruction at pc.
+   */
+  public static int jumpTarget(byte[] code, int pc) {
+    return pc + (short) (((code[pc + 1] & 0xff) << 8) | (code[pc + 2] & 0xff));
+  }
+
+  public static boolean isJump(OpCode op) {
+    return switch (op) {
+      case jmp, jeq, jne, jlt, jle, jgt, jge -> true;
+      default -> false;
+    };
+  }
+
+  public BasicBlock entry() {
+    return blocks.get(0);
+  }
+
+  /**
+   * All blocks in code order, including unreachable ones.
+   */
+  public List<BasicBlock> blocks() {
+    return Collections.unmodifiableList(blocks);
+  }
+
+  /**
+   * Reachable blocks in reverse postorder.
+   */
+  public List<BasicBlock> reversePostorder() {
+    return Collections.unmodifiableList(rpo);
+  }
+
+  /**
+   * All loops, outer loops before the loops nested in them.
+   */
+  public List<Loop> loops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Block containing the instruction at pc, or null if pc is outside the method.
+   */
+  public BasicBlock blockAt(int pc) {
+    if (pc < adr || pc >= end) {
+      return null;
+    }
+    int lo = 0, hi = blocks.size() - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (blocks.get(mid).start <= pc) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return blocks.get(lo);
+  }
+
+  // ----- construction
+
+  private void buildBlocks() {
+    int len = end - adr;
+    boolean[] start = new boolean[len + 1];
+    boolean[] leader = new boolean[len + 1];
+    leader[0] = true;
+    for (int pc = adr; pc < end; ) {
+      OpCode op = OpCode.get(code[pc]);
+      start[pc - adr] = true;
+      int next = pc + op.size();
+      if (isJump(op)) {
+        int target = jumpTarget(code, pc);
+        if (target < adr || target >= end) {
+          throw new IllegalArgumentException("jump out of method at " + pc);
+        }
+        leader[target - adr] = true;
+        leader[next - adr] = true;
+      } else if (op == OpCode.return_ || op == OpCode.trap) {
+        leader[next - adr] = true;
+      }
+      pc = next;
+    }
+
+    BasicBlock[] byPc = new BasicBlock[len];
+    BasicBlock b = null;
+    for (int pc = adr; pc < end; ) {
+      OpCode op = OpCode.get(code[pc]);
+      if (leader[pc - adr]) {
+        b = new BasicBlock(blocks.size(), pc);
+        blocks.add(b);
+        byPc[pc - adr] = b;
+      }
+      b.last = pc;
+      b.lastOp = op;
+      pc += op.size();
+      b.end = pc;
+    }
+
+    for (int i = 0; i < blocks.size(); i++) {
+      b = blocks.get(i);
+      BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+      if (isJump(b.lastOp)) {
+        int target = jumpTarget(code, b.last);
+        if (!start[target - adr]) {
+          throw new IllegalArgumentException("jump into instruction at " + b.last);
+        }
+        b.target = byPc[target - adr];
+      }
+      if (b.lastOp != OpCode.jmp && b.lastOp != OpCode.return_ && b.lastOp != OpCode.trap) {
+        if (next == null) {
+          throw new IllegalArgumentException("control falls off the end of the method at " + b.last);
+        }
+        b.fallThrough = next;
+      }
+      if (b.fallThrough != null) {
+        link(b, b.fallThrough);
+      }
+      if (b.target != null && b.target != b.fallThrough) {
+        link(b, b.target);
+      }
+    }
+  }
+
+  private static void link(BasicBlock from, BasicBlock to) {
+    from.succs.add(to);
+    to.preds.add(from);
+  }
+
+  /**
+   * Numbers the reachable blocks in reverse postorder (iterative depth-first search).
+   */
+  private void computeOrder() {
+    int n = blocks.size();
+    BasicBlock[] post = new BasicBlock[n];
+    int postCount = 0;
+    boolean[] visited = new boolean[n];
+    BasicBlock[] stack = new BasicBlock[n];
+    int[] nextSucc = new int[n];
+    int sp = 0;
+    stack[sp++] = entry();
+    visited[0] = true;
+    while (sp > 0) {
+      BasicBlock b = stack[sp - 1];
+      if (nextSucc[b.id] < b.succs.size()) {
+        BasicBlock s = b.succs.get(nextSucc[b.id]++);
+        if (!visited[s.id]) {
+          visited[s.id] = true;
+          stack[sp++] = s;
+        }
+      } else {
+        sp--;
+        post[postCount++] = b;
+      }
+    }
+    for (int i = postCount - 1; i >= 0; i--) {
+      post[i].rpo = rpo.size();
+      rpo.add(post[i]);
+    }
+  }
+
+  /**
+   * Iterative algorithm of Cooper, Harvey and Kennedy; converges in two
+   * passes over the blocks for the structured code generated by the compiler.
+   */
+  private void computeDominators() {
+    BasicBlock entry = entry();
+    entry.idom = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < rpo.size(); i++) {
+        BasicBlock b = rpo.get(i);
+        BasicBlock idom = null;
+        for (BasicBlock p : b.preds) {
+          if (p.idom != null) {
+            idom = idom == null ? p : intersect(p, idom);
+          }
+        }
+        if (idom != b.idom) {
+          b.idom = idom;
+          changed = true;
+        }
+      }
+    }
+    entry.idom = null;
+  }
+
+  private static BasicBlock intersect(BasicBlock a, BasicBlock b) {
+    while (a != b) {
+      while (a.rpo > b.rpo) {
+        a = a.idom;
+      }
+      while (b.rpo > a.rpo) {
+        b = b.idom;
+      }
+    }
+    return a;
+  }
+
+  private void computeLoops() {
+    Loop[] byHeader = new Loop[blocks.size()];
+    for (BasicBlock b : rpo) {
+      for (BasicBlock h : b.succs) {
+        if (h.dominates(b)) {
+          if (byHeader[h.id] == null) {
+            byHeader[h.id] = new Loop(h);
+            loops.add(byHeader[h.id]);
+          }
+          byHeader[h.id].latches.add(b);
+        }
+      }
+    }
+
+    int[] mark = new int[blocks.size()];
+    BasicBlock[] work = new BasicBlock[blocks.size()];
+    int stamp = 0;
+    for (Loop loop : loops) {
+      stamp++;
+      mark[loop.header.id] = stamp;
+      loop.blocks.add(loop.header);
+      int n = 0;
+      for (BasicBlock latch : loop.latches) {
+        if (mark[latch.id] != stamp) {
+          mark[latch.id] = stamp;
+          loop.blocks.add(latch);
+          work[n++] = latch;
+        }
+      }
+      while (n > 0) {
+        for (BasicBlock p : work[--n].preds) {
+          if (p.reachable() && mark[p.id] != stamp) {
+            mark[p.id] = stamp;
+            loop.blocks.add(p);
+            work[n++] = p;
+          }
+        }
+      }
+    }
+
+    // larger loops first, so every block ends up in its innermost loop
+    loops.sort(Comparator.comparingInt((Loop l) -> -l.blocks.size()));
+    for (Loop loop : loops) {
+      loop.parent = loop.header.loop;
+      if (loop.parent != null) {
+        loop.parent.children.add(loop);
+        loop.depth = loop.parent.depth + 1;
+      } else {
+        loop.depth = 1;
+      }
+      for (BasicBlock b : loop.blocks) {
+        b.loop = loop;
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package ssw.mj.cfg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Natural loop: the header and all blocks that reach one of its back edges
+ * without passing the header. Loops sharing a header are merged.
+ */
+public final class Loop {
+
+  public final BasicBlock header;
+
+  /**
+   * Blocks ending with a back edge to the header.
+   */
+  public final List<BasicBlock> latches = new ArrayList<>();
+
+  /**
+   * All blocks of the loop including those of nested loops, header first.
+   */
+  public final List<BasicBlock> blocks = new ArrayList<>();
+
+  /**
+   * Directly enclosing loop, null for outermost loops.
+   */
+  public Loop parent;
+
+  public final List<Loop> children = new ArrayList<>();
+
+  /**
+   * Nesting depth, 1 for outermost loops.
+   */
+  public int depth;
+
+  Loop(BasicBlock header) {
+    this.header = header;
+  }
+
+  public boolean contains(BasicBlock b) {
+    for (Loop l = b.loop; l != null; l = l.parent) {
+      if (l == this) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "Loop(" + header + ", " + blocks.size() + " blocks, depth " + depth + ")";
+  }
+}
@@ -0,0 +1,112 @@
+package ssw.mj.codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Growable byte storage for generated code. The bytes are kept in pages of
+ * fixed size, so growing never copies code generated earlier, and pages
+ * are written out as they are without building one large array.
+ */
+public final class CodeBuffer {
+
+  public static final int PAGE_BITS = 16, // log2 of the page size
+          PAGE_SIZE = 1 << PAGE_BITS,
+          PAGE_MASK = PAGE_SIZE - 1;
+
+  private byte[][] pages = new byte[4][];
+  private int nPages;
+
+  /**
+   * Byte at pos, or 0 if nothing was stored there.
+   */
+  public byte get(int pos) {
+    int p = pos >>> PAGE_BITS;
+    return p < nPages ? pages[p][pos & PAGE_MASK] : 0;
+  }
+
+  public void set(int pos, int x) {
+    int p = pos >>> PAGE_BITS;
+    if (p >= nPages) {
+      allocate(p);
+    }
+    pages[p][pos & PAGE_MASK] = (byte) x;
+  }
+
+  /**
+   * Stores bytes[from..to) at pos.
+   */
+  public void set(int pos, byte[] bytes, int from, int to) {
+    while (from < to) {
+      int p = pos >>> PAGE_BITS;
+      if (p >= nPages) {
+        allocate(p);
+      }
+      int n = Math.min(to - from, PAGE_SIZE - (pos & PAGE_MASK));
+      System.arraycopy(bytes, from, pages[p], pos & PAGE_MASK, n);
+      pos += n;
+      from += n;
+    }
+  }
+
+  /**
+   * Copies the bytes [from..to) into a new array.
+   */
+  public byte[] copy(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    int pos = from;
+    while (pos < to) {
+      int p = pos >>> PAGE_BITS;
+      int n = Math.min(to - pos, PAGE_SIZE - (pos & PAGE_MASK));
+      if (p < nPages) {
+        System.arraycopy(pages[p], pos & PAGE_MASK, bytes, pos - from, n);
+      }
+      pos += n;
+    }
+    return bytes;
+  }
+
+  /**
+   * Writes the first size bytes page by page.
+   */
+  public void write(OutputStream os, int size) throws IOException {
+    for (int p = 0; p < nPages && p << PAGE_BITS < size; p++) {
+      os.write(pages[p], 0, Math.min(PAGE_SIZE, size - (p << PAGE_BITS)));
+    }
+  }
+
+  /**
+   * Writes header followed by the first size bytes with gathering writes.
+   * The pages are wrapped, not copied.
+   */
+  public void write(GatheringByteChannel ch, ByteBuffer header, int size) throws IOException {
+    int n = (size + PAGE_MASK) >>> PAGE_BITS;
+    if (n > nPages) {
+      allocate(n - 1); // zero filled like the tail of the last page
+    }
+    ByteBuffer[] buffers = new ByteBuffer[n + 1];
+    buffers[0] = header;
+    for (int p = 0; p < n; p++) {
+      buffers[p + 1] = ByteBuffer.wrap(pages[p], 0, Math.min(PAGE_SIZE, size - (p << PAGE_BITS)));
+    }
+    int first = 0;
+    while (first < buffers.length) {
+      ch.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) {
+        first++;
+      }
+    }
+  }
+
+  private void allocate(int page) {
+    if (page >= pages.length) {
+      pages = Arrays.copyOf(pages, Math.max(pages.length * 2, page + 1));
+    }
+    while (nPages <= page) {
+      pages[nPages++] = new byte[PAGE_SIZE];
+    }
+  }
+}
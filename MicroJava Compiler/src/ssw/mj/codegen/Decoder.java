@@ -32,7 +32,7 @@ public class Decoder {
   }
 
   public String decode(Code code) {
-    return decode(code.buf, 0, code.pc);
+    return decode(code.toByteArray(), 0, code.pc);
   }
 
   public String decode(byte[] buf, int off, int len) {
@@ -57,16 +57,19 @@ public class Decoder {
 
     return switch (opCode) {
       // Operations without parameters in the code buffer
-      case load_0, load_1, load_2, load_3, store_0, store_1, store_2, store_3, const_0, const_1, const_2, const_3, const_4, const_5, const_m1, add, sub, mul, div, rem, neg, shl, shr, aload, astore, baload, bastore, arraylength, pop, dup, dup2, exit, return_, read, print, bread, bprint ->
+      case load_0, load_1, load_2, load_3, store_0, store_1, store_2, store_3, const_0, const_1, const_2, const_3, const_4, const_5, const_m1, add, sub, mul, div, rem, neg, shl, shr, aload, astore, baload, bastore, arraylength, pop, dup, dup2, exit, return_, read, print, bread, bprint,
+              load_4, load_5, load_6, load_7, store_4, store_5, store_6, store_7 ->
               opCode.cleanName();
       // Operations with one 1 byte parameter in the code buffer
-      case load, store, newarray, trap -> opCode.cleanName() + " " + getAndMove();
+      case load, store, newarray, trap, bipush -> opCode.cleanName() + " " + getAndMove();
       // Operations with one 2 byte parameter in the code buffer
-      case getstatic, putstatic, getfield, putfield, new_ -> opCode.cleanName() + " " + getAndMove2();
+      case getstatic, putstatic, getfield, putfield, new_, sipush -> opCode.cleanName() + " " + getAndMove2();
       // Operations with one 4 byte parameter in the code buffer
       case const_ -> opCode.cleanName() + " " + getAndMove4();
       // Operations with two 1 byte parameters in the code buffer
       case inc, enter -> opCode.cleanName() + " " + getAndMove() + ", " + getAndMove();
+      // Operations with two 2 byte parameters in the code buffer
+      case incstatic, incfield -> opCode.cleanName() + " " + getAndMove2() + ", " + getAndMove2();
       // Operations with a jump distance as a parameter in the code buffer
       case jmp, jeq, jne, jlt, jle, jgt, jge, call -> opCode.cleanName() + " " + jumpDist();
       default -> "--error--";
@@ -2,20 +2,19 @@ package ssw.mj.codegen;
 
 import ssw.mj.impl.Code;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public final class Label {
 
   /**
-   * Jump destination address.
+   * Jump destination address, -1 while undefined.
    */
-  private int adr;
+  private int adr = -1;
 
   /**
-   * List of unresolved forward jumps
+   * Address of the last unresolved forward jump, -1 if there is none. The
+   * jumps form a chain through the code: the placeholder of each one holds
+   * the distance back to the previous one, 0 at the first.
    */
-  private List<Integer> fixupList;
+  private int chain = -1;
 
   /**
    * The code buffer this Label belongs to.
@@ -24,7 +23,6 @@ public final class Label {
 
   public Label(Code code) {
     this.code = code;
-    fixupList = new ArrayList<>();
   }
 
   /**
@@ -35,10 +33,13 @@ public final class Label {
       // jump destination already known
       code.put2(adr - (code.pc - 1));
     } else {
-      // remember address to patch
-      fixupList.add(code.pc);
-      // insert place holder
-      code.put2(0);
+      // link placeholder into the chain
+      int dist = chain < 0 ? 0 : code.pc - chain;
+      if (dist > 0xffff) {
+        throw new IllegalStateException("jump distance too large at " + (code.pc - 1));
+      }
+      chain = code.pc;
+      code.put2(dist);
     }
   }
 
@@ -51,15 +52,18 @@ public final class Label {
       throw new IllegalStateException("label defined twice");
     }
 
-    for (int pos : fixupList) {
+    int pos = chain;
+    while (pos >= 0) {
+      int dist = (code.get(pos) & 0xff) << 8 | code.get(pos + 1) & 0xff;
       code.put2(pos, code.pc - (pos - 1));
+      pos = dist == 0 ? -1 : pos - dist;
     }
 
-    fixupList = null;
+    chain = -1;
     adr = code.pc;
   }
 
   private boolean isDefined() {
-    return fixupList == null;
+    return adr >= 0;
   }
 }
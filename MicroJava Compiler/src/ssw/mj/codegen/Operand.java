@@ -1,14 +1,11 @@
 package ssw.mj.codegen;
 
-import ssw.mj.impl.Code;
 import ssw.mj.impl.Code.CompOp;
 import ssw.mj.impl.Parser;
 import ssw.mj.impl.Tab;
 import ssw.mj.symtab.Obj;
 import ssw.mj.symtab.Struct;
 
-import java.util.EnumSet;
-
 import static ssw.mj.Errors.Message.NO_OPERAND;
 
 public class Operand {
@@ -44,18 +41,55 @@ public class Operand {
    */
   public Obj obj;
   /**
-   * Only for Cond: Target for true jumps.
+   * Only for Cond: Target for true jumps, null until a jump needs it.
    */
   public Label tLabel;
   /**
-   * Only for Cond: Target for false jumps.
+   * Only for Cond: Target for false jumps, null until a jump needs it.
    */
   public Label fLabel;
 
+  /**
+   * Constructor for operands that are set later, see the set methods.
+   */
+  public Operand() {
+    kind = Kind.None;
+  }
+
   /**
    * Constructor for named objects: constants, variables, methods
    */
   public Operand(Obj o, Parser parser) {
+    set(o, parser);
+  }
+
+  /**
+   * Constructor for compare operations
+   */
+  public Operand(CompOp op) {
+    set(op);
+  }
+
+  /**
+   * Constructor for stack operands
+   */
+  public Operand(Struct type) {
+    set(type);
+  }
+
+  /**
+   * Constructor for integer constants
+   */
+  public Operand(int x) {
+    set(x);
+  }
+
+  /**
+   * Makes this a named object like the constructor and returns it. The
+   * parser reuses operands this way instead of allocating new ones.
+   */
+  public Operand set(Obj o, Parser parser) {
+    clear();
     type = o.type;
     val = o.val;
     adr = o.adr;
@@ -78,41 +112,46 @@ public class Operand {
         kind = Kind.None;
         parser.error(NO_OPERAND);
     }
+    return this;
   }
 
-  /**
-   * Constructor for compare operations
-   */
-  public Operand(CompOp op, Code code) {
-    this(code);
+  public Operand set(CompOp op) {
+    clear();
     this.kind = Kind.Cond;
     this.op = op;
+    return this;
   }
 
-  public Operand(Code code) {
-    tLabel = new Label(code);
-    fLabel = new Label(code);
-  }
-
-  /**
-   * Constructor for stack operands
-   */
-  public Operand(Struct type) {
+  public Operand set(Struct type) {
+    clear();
     this.kind = Kind.Stack;
     this.type = type;
+    return this;
   }
 
-  /**
-   * Constructor for integer constants
-   */
-  public Operand(int x) {
+  public Operand set(int x) {
+    clear();
     kind = Kind.Con;
     type = Tab.intType;
     val = x;
+    return this;
+  }
+
+  private void clear() {
+    type = null;
+    val = 0;
+    adr = 0;
+    op = null;
+    obj = null;
+    tLabel = null;
+    fLabel = null;
   }
 
   public boolean canBeAssignedTo() {
-    return EnumSet.of(Kind.Local, Kind.Static, Kind.Fld, Kind.Elem).contains(kind);
+    return switch (kind) {
+      case Local, Static, Fld, Elem -> true;
+      default -> false;
+    };
   }
 
   @Override
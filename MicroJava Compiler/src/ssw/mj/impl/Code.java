@@ -1,13 +1,19 @@
 package ssw.mj.impl;
 
+import ssw.mj.codegen.CodeBuffer;
 import ssw.mj.codegen.Label;
 import ssw.mj.codegen.Operand;
+import ssw.mj.opt.Inliner;
+import ssw.mj.symtab.Obj;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
 
 import static ssw.mj.Errors.Message.*;
 
@@ -71,7 +77,21 @@ public final class Code {
     bread,
     bprint,
     trap,
-    nop;
+    nop,
+    bipush,
+    sipush,
+    load_4,
+    load_5,
+    load_6,
+    load_7,
+    store_4,
+    store_5,
+    store_6,
+    store_7,
+    incstatic,
+    incfield;
+
+    private static final OpCode[] VALUES = values();
 
     public int code() {
       return ordinal() + 1;
@@ -85,11 +105,24 @@ public final class Code {
       return name;
     }
 
+    /**
+     * Size of the instruction in bytes (opcode plus operands).
+     */
+    public int size() {
+      return switch (this) {
+        case load, store, newarray, trap, bipush -> 2;
+        case getstatic, putstatic, getfield, putfield, new_, inc, enter, jmp, jeq, jne, jlt, jle, jgt, jge, call,
+                sipush -> 3;
+        case const_, incstatic, incfield -> 5;
+        default -> 1;
+      };
+    }
+
     public static OpCode get(int code) {
-      if (code < 1 || code > values().length) {
+      if (code < 1 || code > VALUES.length) {
         return null;
       }
-      return values()[code - 1];
+      return VALUES[code - 1];
     }
   }
 
@@ -142,7 +175,7 @@ public final class Code {
   /**
    * Code buffer
    */
-  public byte[] buf;
+  private CodeBuffer buf;
 
   /**
    * Program counter. Indicates next free byte in code buffer.
@@ -159,21 +192,54 @@ public final class Code {
    */
   public int dataSize;
 
+  /**
+   * Largest body of a called method in bytes that methodCall copies to the
+   * call site instead of calling it, 0 to never inline (set by parser).
+   */
+  public int inlineLimit;
+
+  /**
+   * Use the compact instructions bipush, sipush, load_4..7, store_4..7,
+   * incstatic and incfield (set by parser).
+   */
+  public boolean compact;
+
   /**
    * According parser.
    */
   private final Parser parser;
 
+  /**
+   * Address of the enter instruction and declared locals of the method
+   * being compiled. Inlined methods use the locals behind them.
+   */
+  private int methodAdr = -1, methodLocals;
+
+  /**
+   * Reused for the constant of an increment that needs an assignment.
+   */
+  private final Operand constant = new Operand();
+
   // ----- initialization
 
   public Code(Parser p) {
     parser = p;
-    buf = new byte[100];
+    buf = new CodeBuffer();
     pc = 0;
     mainpc = -1;
     dataSize = 0;
   }
 
+  /**
+   * Code of a program linked from modules (see {@link Linker}).
+   */
+  Code(byte[] code, int dataSize, int mainpc) {
+    this(null);
+    replace(code, code.length);
+    this.dataSize = dataSize;
+    this.mainpc = mainpc;
+  }
+
   // ----- code storage management
 
   public void put(OpCode code) {
@@ -181,10 +247,7 @@ public final class Code {
   }
 
   public void put(int x) {
-    if (pc == buf.length) {
-      buf = Arrays.copyOf(buf, buf.length * 2);
-    }
-    buf[pc++] = (byte) x;
+    buf.set(pc++, x);
   }
 
   public void put2(int x) {
@@ -197,6 +260,14 @@ public final class Code {
     put2(x);
   }
 
+  /**
+   * Appends code generated earlier.
+   */
+  void put(byte[] bytes) {
+    buf.set(pc, bytes, 0, bytes.length);
+    pc += bytes.length;
+  }
+
   public void put2(int pos, int x) {
     int oldpc = pc;
     pc = pos;
@@ -205,29 +276,60 @@ public final class Code {
   }
 
   public int get(int pos) {
-    return buf[pos];
+    return buf.get(pos);
+  }
+
+  /**
+   * Copy of the code [from..to).
+   */
+  public byte[] copy(int from, int to) {
+    return buf.copy(from, to);
+  }
+
+  /**
+   * Copy of the whole code.
+   */
+  public byte[] toByteArray() {
+    return buf.copy(0, pc);
+  }
+
+  /**
+   * Replaces the code by the first size bytes of code (used by the
+   * optimizer).
+   */
+  public void replace(byte[] code, int size) {
+    buf = new CodeBuffer();
+    buf.set(0, code, 0, size);
+    pc = size;
+  }
+
+  /**
+   * Object file header: "MJ", code size, data size and start address.
+   */
+  private ByteBuffer header() {
+    return ByteBuffer.allocate(14).put((byte) 'M').put((byte) 'J')
+            .putInt(pc).putInt(dataSize).putInt(mainpc).flip();
   }
 
   /**
    * Write the code buffer to the output stream.
    */
   public void write(OutputStream os) throws IOException {
-    int codeSize = pc;
-
-    ByteArrayOutputStream header = new ByteArrayOutputStream();
-    DataOutputStream headerWriter = new DataOutputStream(header);
-    headerWriter.writeByte('M');
-    headerWriter.writeByte('J');
-    headerWriter.writeInt(codeSize);
-    headerWriter.writeInt(dataSize);
-    headerWriter.writeInt(mainpc);
-    headerWriter.close();
-
-    os.write(header.toByteArray());
-
-    os.write(buf, 0, codeSize);
-    os.flush();
-    os.close();
+    DataOutputStream out = new DataOutputStream(os);
+    out.write(header().array());
+    buf.write(out, pc);
+    out.flush();
+    out.close();
+  }
+
+  /**
+   * Write the code buffer to the file with gathering writes, without
+   * copying the code.
+   */
+  public void write(Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      buf.write(ch, header(), pc);
+    }
   }
 
   // ======================================================
@@ -251,8 +353,12 @@ public final class Code {
           case 2 -> put(OpCode.load_2);
           case 3 -> put(OpCode.load_3);
           default -> {
-            put(OpCode.load);
-            put(x.adr);
+            if (compact && x.adr < 8) {
+              put(OpCode.load_4.code() + x.adr - 4);
+            } else {
+              put(OpCode.load);
+              put(x.adr);
+            }
           }
         }
         break;
@@ -287,12 +393,31 @@ public final class Code {
       put(OpCode.inc);
       put(x.adr);
       put(n);
+    } else if (compact && x.kind == Operand.Kind.Static && n == (short) n){
+      put(OpCode.incstatic);
+      put2(x.adr);
+      put2(n);
+    } else if (compact && x.kind == Operand.Kind.Fld && n == (short) n){
+      put(OpCode.incfield);
+      put2(x.adr);
+      put2(n);
     } else {
 
-      assign(x, new Operand(n));
+      assign(x, constant.set(n));
     }
   }
 
+  /**
+   * True if inc can increment x by n with a single instruction.
+   */
+  public boolean canInc(Operand x, int n) {
+    return switch (x.kind) {
+      case Local -> -128 <= n && n < 128;
+      case Static, Fld -> compact && n == (short) n;
+      default -> false;
+    };
+  }
+
   /**
    * Generate an assignment x = y.
    */
@@ -306,8 +431,12 @@ public final class Code {
           case 2 -> put(OpCode.store_2);
           case 3 -> put(OpCode.store_3);
           default -> {
-            put(OpCode.store);
-            put(x.adr);
+            if (compact && x.adr < 8) {
+              put(OpCode.store_4.code() + x.adr - 4);
+            } else {
+              put(OpCode.store);
+              put(x.adr);
+            }
           }
         }
         break;
@@ -345,8 +474,16 @@ public final class Code {
       case 4 -> put(OpCode.const_4);
       case 5 -> put(OpCode.const_5);
       default -> {
-        put(OpCode.const_);
-        put4(n);
+        if (compact && n == (byte) n) {
+          put(OpCode.bipush);
+          put(n);
+        } else if (compact && n == (short) n) {
+          put(OpCode.sipush);
+          put2(n);
+        } else {
+          put(OpCode.const_);
+          put4(n);
+        }
       }
     }
   }
@@ -379,12 +516,43 @@ public final class Code {
     if (x.obj == parser.tab.ordObj || x.obj == parser.tab.chrObj);
     else if (x.obj == parser.tab.lenObj){
       put(OpCode.arraylength);
-    } else {
+    } else if (!inline(x.obj)) {
       put(OpCode.call);
       put2(x.obj.adr - (pc - 1));
     }
   }
 
+  /**
+   * Method entry. Inlined calls extend the locals of this method.
+   */
+  public void enter(int nPars, int nLocals) {
+    methodAdr = pc;
+    methodLocals = nLocals;
+    put(OpCode.enter);
+    put(nPars);
+    put(nLocals);
+  }
+
+  /**
+   * Copies the code of meth to pc if it is small enough and not recursive.
+   * Methods of other modules have no code here.
+   */
+  private boolean inline(Obj meth) {
+    if (inlineLimit <= 0 || methodAdr < 0 || meth.adr < 0 || meth.adr == methodAdr || parser.scanner.errors.numErrors() > 0) {
+      return false;
+    }
+    // the callee is expanded from a copy of its first bytes, shifted to 0
+    int end = Math.min(pc, meth.adr + OpCode.enter.size() + inlineLimit + OpCode.const_.size() + 1);
+    byte[] callee = buf.copy(meth.adr, end);
+    byte[] body = Inliner.expand(callee, callee.length, 0, pc - meth.adr, methodLocals, inlineLimit);
+    if (body == null) {
+      return false;
+    }
+    buf.set(methodAdr + 2, Math.max(buf.get(methodAdr + 2), methodLocals + Inliner.locals(callee, 0)));
+    put(body);
+    return true;
+  }
+
   /**
    * Unconditional jump.
    */
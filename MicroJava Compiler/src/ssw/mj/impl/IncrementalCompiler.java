@@ -0,0 +1,627 @@
+package ssw.mj.impl;
+
+import ssw.mj.Errors;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.opt.Optimizer;
+import ssw.mj.scanner.Token;
+import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Scope;
+import ssw.mj.symtab.Struct;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static ssw.mj.scanner.Token.Kind.*;
+
+/**
+ * Compiles successive versions of a program and reuses the work done for
+ * the previous version. The source is split into units: the header
+ * ("program", the global declarations and the "{" before the methods),
+ * one unit per method and the final "}". The source range, the tokens and
+ * the declared objects of every unit are kept, for methods also their
+ * code before optimization.
+ * <p>
+ * A new version is compared with the previous one as text and only the
+ * units touching the changed range are scanned again. A global declaration
+ * or a method is parsed again if its tokens changed or if it mentions a
+ * name whose declaration changed: a global with a different address,
+ * value or type, a class, a method with a different signature and, when
+ * inlining, a method with different code. The code of the other methods is
+ * copied and only their call offsets are relinked; global addresses are
+ * not, a method using a global that moved is parsed again. The code is the
+ * same as {@link Parser} generates for the whole source. Sources with
+ * errors are compiled by the parser as a whole, so the errors are the same
+ * as well.
+ */
+public final class IncrementalCompiler {
+
+  private final EnumSet<Optimizer.Pass> optimizations;
+  private final int inlineLimit;
+  private final boolean compact;
+
+  // last version, units is null if it was not compiled in units
+  private String source;
+  private List<Unit> units;
+
+  private Code code;
+  private Errors errors;
+  private int parsedMethods;
+
+  private enum Part {
+    HEADER, METHOD, END
+  }
+
+  /**
+   * A part of the source. The units cover the source without gaps: a unit
+   * starts at its first token and extends to the first token of the next.
+   */
+  private static final class Unit {
+    final Part part;
+    int start, end;
+    final List<Token> tokens;
+    final Set<String> names; // identifiers used
+    String name; // method name
+    List<Decl> decls; // global declarations of the header
+    Obj meth;
+    byte[] code; // code of the method before optimization
+    int adr; // address of code
+
+    Unit(Part part, List<Token> tokens) {
+      this.part = part;
+      this.tokens = tokens;
+      names = names(tokens);
+    }
+  }
+
+  /**
+   * A declaration of constants, global variables or a class in the header.
+   */
+  private static final class Decl {
+    final List<Token> tokens;
+    final Set<String> names;
+    List<Obj> objs;
+    int nVars; // global variables declared before
+    int dataSize; // increase of Code.dataSize
+
+    Decl(List<Token> tokens) {
+      this.tokens = tokens;
+      names = names(tokens);
+    }
+  }
+
+  /**
+   * Delivers the tokens of one unit to the parser.
+   */
+  private static final class Replay extends Scanner {
+    private List<Token> tokens;
+    private int pos;
+
+    Replay() {
+      super(Reader.nullReader());
+    }
+
+    void reset(List<Token> tokens) {
+      this.tokens = tokens;
+      pos = 0;
+    }
+
+    @Override
+    public Token next() {
+      if (pos < tokens.size()) {
+        return tokens.get(pos++);
+      }
+      Token last = tokens.get(tokens.size() - 1);
+      return new Token(eof, last.line, last.col);
+    }
+  }
+
+  public IncrementalCompiler(EnumSet<Optimizer.Pass> optimizations, int inlineLimit, boolean compact) {
+    this.optimizations = EnumSet.copyOf(optimizations);
+    this.inlineLimit = inlineLimit;
+    this.compact = compact;
+  }
+
+  /**
+   * Compiles a version of the program and returns its code, which is
+   * valid until the next call.
+   */
+  public Code compile(String src) {
+    parsedMethods = 0;
+    if (units != null && src.equals(source)) {
+      return code;
+    }
+    if (units == null || !update(src)) {
+      units = null;
+      parsedMethods = 0;
+      if (!update(src)) {
+        full(src);
+      }
+    }
+    return code;
+  }
+
+  /**
+   * Errors of the last compiled version.
+   */
+  public Errors errors() {
+    return errors;
+  }
+
+  /**
+   * Number of methods parsed for the last compiled version.
+   */
+  public int parsedMethods() {
+    return parsedMethods;
+  }
+
+  // ----- compilation in units
+
+  /**
+   * Compiles src in units, based on the units of the last version if
+   * there are any. Returns false if this was not possible.
+   */
+  private boolean update(String src) {
+    List<Unit> next;
+    if (units == null) {
+      next = split(src, 0, src.length(), true, true);
+    } else {
+      int oldLen = source.length();
+      int newLen = src.length();
+      int max = Math.min(oldLen, newLen);
+      int p = 0;
+      while (p < max && source.charAt(p) == src.charAt(p)) {
+        p++;
+      }
+      int s = 0;
+      while (s < max - p && source.charAt(oldLen - 1 - s) == src.charAt(newLen - 1 - s)) {
+        s++;
+      }
+      // units touching the changed range source[p, oldLen - s)
+      int lo = Math.min(p, oldLen - 1);
+      int a = unitAt(lo);
+      int b = unitAt(Math.max(oldLen - s, lo + 1) - 1);
+      int delta = newLen - oldLen;
+      List<Unit> changed = split(src, units.get(a).start, units.get(b).end + delta, a == 0, b == units.size() - 1);
+      if (changed == null) {
+        return false;
+      }
+      next = new ArrayList<>(units.subList(0, a));
+      next.addAll(changed);
+      for (Unit u : units.subList(b + 1, units.size())) {
+        u.start += delta;
+        u.end += delta;
+        next.add(u);
+      }
+    }
+    return next != null && build(src, next);
+  }
+
+  /**
+   * Index of the unit containing pos.
+   */
+  private int unitAt(int pos) {
+    int lo = 0;
+    int hi = units.size() - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (units.get(mid).start <= pos) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Scans src[from, to) and splits the tokens into units, which start with
+   * the header if header is set and end with the final "}" if end is set.
+   * Returns null if there are scanner errors or the tokens do not form
+   * such units.
+   */
+  private static List<Unit> split(String src, int from, int to, boolean header, boolean end) {
+    String text = src.substring(from, to);
+    Scanner scanner = new Scanner(new StringReader(text));
+    List<Token> tokens = new ArrayList<>();
+    for (Token t = scanner.next(); t.kind != eof; t = scanner.next()) {
+      tokens.add(t);
+    }
+    if (scanner.errors.numErrors() > 0 || tokens.isEmpty()) {
+      return null;
+    }
+    List<Integer> lines = new ArrayList<>(); // offsets of line starts in text
+    lines.add(0);
+    for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+      lines.add(i + 1);
+    }
+
+    List<Unit> result = new ArrayList<>();
+    int n = tokens.size();
+    int i = 0;
+    if (header) {
+      if (n < 3 || tokens.get(0).kind != program || tokens.get(1).kind != ident) {
+        return null;
+      }
+      i = 2;
+      while (i < n && tokens.get(i).kind != lbrace) {
+        if (tokens.get(i).kind == class_) {
+          i = closing(tokens, i);
+          if (i < 0) {
+            return null;
+          }
+        }
+        i++;
+      }
+      if (i == n) {
+        return null;
+      }
+      Unit u = new Unit(Part.HEADER, tokens.subList(0, i + 1));
+      u.decls = declarations(u.tokens);
+      if (u.decls == null) {
+        return null;
+      }
+      result.add(u);
+      i++;
+    }
+    while (i < n && !(end && tokens.get(i).kind == rbrace)) {
+      int last = closing(tokens, i);
+      if (last < 0) {
+        return null;
+      }
+      Unit u = new Unit(Part.METHOD, tokens.subList(i, last + 1));
+      for (int k = 1; k < u.tokens.size() && u.name == null; k++) {
+        if (u.tokens.get(k).kind == lpar && u.tokens.get(k - 1).kind == ident) {
+          u.name = u.tokens.get(k - 1).val;
+        }
+      }
+      if (u.name == null) {
+        return null;
+      }
+      result.add(u);
+      i = last + 1;
+    }
+    if (end) {
+      if (i != n - 1) {
+        return null;
+      }
+      result.add(new Unit(Part.END, tokens.subList(i, n)));
+    } else if (i != n || result.isEmpty()) {
+      return null;
+    }
+
+    for (Unit u : result) {
+      Token first = u.tokens.get(0);
+      u.start = u.part == Part.HEADER ? from : from + lines.get(first.line - 1) + first.col - 1;
+    }
+    for (int k = 0; k < result.size(); k++) {
+      result.get(k).end = k + 1 < result.size() ? result.get(k + 1).start : to;
+    }
+    return result;
+  }
+
+  /**
+   * Index of the "}" that closes the first "{" at or after from, or -1.
+   */
+  private static int closing(List<Token> tokens, int from) {
+    int depth = 0;
+    for (int i = from; i < tokens.size(); i++) {
+      Token.Kind kind = tokens.get(i).kind;
+      if (kind == lbrace) {
+        depth++;
+      } else if (kind == rbrace && --depth == 0) {
+        return i;
+      } else if (depth < 0) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Splits the header tokens between "program ident" and "{" into
+   * declarations.
+   */
+  private static List<Decl> declarations(List<Token> header) {
+    List<Decl> decls = new ArrayList<>();
+    int i = 2;
+    while (i < header.size() - 1) {
+      int last = i;
+      if (header.get(i).kind == class_) {
+        last = closing(header, i);
+      } else {
+        while (last < header.size() - 1 && header.get(last).kind != semicolon) {
+          last++;
+        }
+      }
+      if (last < 0 || last == header.size() - 1) {
+        return null;
+      }
+      decls.add(new Decl(header.subList(i, last + 1)));
+      i = last + 1;
+    }
+    return decls;
+  }
+
+  /**
+   * Parses the changed units of next and assembles the code. Returns false
+   * if there were errors or the units cannot be combined with the last
+   * version.
+   */
+  private boolean build(String src, List<Unit> next) {
+    Replay in = new Replay();
+    Parser parser = new Parser(in);
+    parser.optimizations.addAll(optimizations);
+    parser.code.inlineLimit = inlineLimit;
+    parser.code.compact = compact;
+    Scope scope;
+    Set<String> changed = new HashSet<>(); // names whose dependents have to be parsed again
+
+    // previous version
+    Map<String, Decl> oldDecls = new HashMap<>();
+    Map<String, Obj> oldGlobals = new HashMap<>();
+    Map<String, Unit> oldMethods = new HashMap<>();
+    Map<Integer, String> oldAdrs = new HashMap<>();
+    Map<String, Integer> oldOrder = new HashMap<>();
+    if (units != null) {
+      for (Decl d : units.get(0).decls) {
+        oldDecls.putIfAbsent(key(d.tokens), d);
+        for (Obj o : d.objs) {
+          oldGlobals.put(o.name, o);
+        }
+      }
+      for (Unit u : units) {
+        if (u.part == Part.METHOD) {
+          oldMethods.put(u.name, u);
+          oldAdrs.put(u.adr, u.name);
+          oldOrder.put(u.name, oldOrder.size());
+        }
+      }
+    }
+
+    // header
+    Unit header = next.get(0);
+    in.reset(header.tokens.subList(0, 2));
+    Obj progObj = parser.parseProgramHeader();
+    scope = parser.tab.curScope;
+    for (Decl d : header.decls) {
+      int nVars = scope.nVars();
+      Decl old = oldDecls.get(key(d.tokens));
+      if (old != null && old.nVars == nVars && !mentions(d.names, changed)) {
+        for (Obj o : old.objs) {
+          if (scope.findLocal(o.name) != null) {
+            return false;
+          }
+          scope.insert(o);
+        }
+        d.objs = old.objs;
+        d.dataSize = old.dataSize;
+        parser.code.dataSize += old.dataSize;
+      } else {
+        int declared = scope.locals().size();
+        int dataSize = parser.code.dataSize;
+        in.reset(d.tokens);
+        parser.parseGlobalDecl();
+        d.objs = new ArrayList<>(scope.locals().values()).subList(declared, scope.locals().size());
+        d.dataSize = parser.code.dataSize - dataSize;
+        for (Obj o : d.objs) {
+          if (!same(oldGlobals.get(o.name), o)) {
+            changed.add(o.name);
+          }
+        }
+      }
+      d.nVars = nVars;
+    }
+    for (String name : oldGlobals.keySet()) {
+      if (scope.findLocal(name) == null) {
+        changed.add(name);
+      }
+    }
+    in.reset(header.tokens.subList(header.tokens.size() - 1, header.tokens.size()));
+    parser.parseMethodsBegin();
+
+    // methods
+    Set<String> names = new HashSet<>();
+    for (Unit u : next) {
+      if (u.part == Part.METHOD) {
+        names.add(u.name);
+      }
+    }
+    int order = 0;
+    for (String name : oldOrder.keySet()) {
+      if (!names.contains(name)) {
+        changed.add(name);
+      }
+    }
+    boolean moved = false; // a method before has a new address
+    for (Unit u : next) {
+      if (u.part != Part.METHOD) {
+        continue;
+      }
+      Unit old = oldMethods.get(u.name);
+      if (old != null) {
+        int index = oldOrder.get(u.name);
+        if (index < order) {
+          return false; // methods were reordered
+        }
+        order = index;
+      }
+      int adr = parser.code.pc;
+      if (old != null && (u == old || sameTokens(u.tokens, old.tokens))
+              && !mentions(u.names, changed)) {
+        if (scope.findLocal(u.name) != null) {
+          return false;
+        }
+        u.meth = old.meth;
+        u.meth.adr = adr;
+        scope.insert(u.meth);
+        if (u.name.equals("main")) {
+          parser.code.mainpc = adr;
+        }
+        parser.code.put(old.code);
+        if (moved || adr != old.adr) {
+          moved = true;
+          if (!relink(parser.code, scope, adr, old.adr, oldAdrs)) {
+            return false;
+          }
+          u.code = parser.code.copy(adr, parser.code.pc);
+        } else {
+          u.code = old.code;
+        }
+      } else {
+        in.reset(u.tokens);
+        u.meth = parser.parseMethod();
+        parsedMethods++;
+        u.code = parser.code.copy(adr, parser.code.pc);
+        if (old == null || !sameSignature(old.meth, u.meth)
+                || inlineLimit > 0 && !Arrays.equals(old.code, u.code)) {
+          changed.add(u.name);
+        }
+        moved |= old == null || adr != old.adr || u.code.length != old.code.length;
+      }
+      u.adr = adr;
+      if (in.errors.numErrors() > 0) {
+        return false;
+      }
+    }
+
+    in.reset(next.get(next.size() - 1).tokens);
+    parser.parseProgramEnd(progObj);
+    if (in.errors.numErrors() > 0) {
+      return false;
+    }
+    source = src;
+    units = next;
+    code = parser.code;
+    errors = in.errors;
+    return true;
+  }
+
+  /**
+   * Moves the call offsets of the method just copied to adr, which was
+   * at oldAdr in the last version.
+   */
+  private static boolean relink(Code code, Scope scope, int adr, int oldAdr, Map<Integer, String> oldAdrs) {
+    for (int pc = adr; pc < code.pc; pc += OpCode.get(code.get(pc)).size()) {
+      if (code.get(pc) == OpCode.call.code()) {
+        int off = (short) (((code.get(pc + 1) & 0xff) << 8) | (code.get(pc + 2) & 0xff));
+        String name = oldAdrs.get(oldAdr + pc - adr + off);
+        Obj callee = name == null ? null : scope.findLocal(name);
+        if (callee == null) {
+          return false;
+        }
+        code.put2(pc + 1, callee.adr - pc);
+      }
+    }
+    return true;
+  }
+
+  // ----- comparison with the last version
+
+  private static Set<String> names(List<Token> tokens) {
+    Set<String> names = new HashSet<>();
+    for (Token t : tokens) {
+      if (t.kind == ident) {
+        names.add(t.val);
+      }
+    }
+    return names;
+  }
+
+  private static boolean mentions(Set<String> names, Set<String> changed) {
+    if (changed.isEmpty()) {
+      return false;
+    }
+    for (String name : changed) {
+      if (names.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String key(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token t : tokens) {
+      sb.append(t.kind.ordinal()).append(' ').append(t.val).append(' ').append(t.numVal).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static boolean sameTokens(List<Token> a, List<Token> b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.size(); i++) {
+      Token x = a.get(i);
+      Token y = b.get(i);
+      if (x.kind != y.kind || x.numVal != y.numVal || !Objects.equals(x.val, y.val)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * True if code using the global o works with n instead.
+   */
+  private static boolean same(Obj o, Obj n) {
+    return o != null && o.kind == n.kind && o.adr == n.adr && o.val == n.val && o.level == n.level
+            && sameType(o.type, n.type);
+  }
+
+  private static boolean sameSignature(Obj o, Obj n) {
+    if (o.type != n.type || o.nPars != n.nPars) {
+      return false;
+    }
+    List<Obj> op = new ArrayList<>(o.locals.values());
+    List<Obj> np = new ArrayList<>(n.locals.values());
+    for (int i = 0; i < o.nPars; i++) {
+      if (!sameType(op.get(i).type, np.get(i).type)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Classes are the same only if they are the same object, as declarations
+   * parsed again create new ones.
+   */
+  private static boolean sameType(Struct a, Struct b) {
+    return a == b || a.kind == Struct.Kind.Arr && b.kind == Struct.Kind.Arr && sameType(a.elemType, b.elemType);
+  }
+
+  // ----- compilation as a whole
+
+  private void full(String src) {
+    Scanner scanner = new Scanner(new StringReader(src));
+    Parser parser = new Parser(scanner);
+    parser.optimizations.addAll(optimizations);
+    parser.code.inlineLimit = inlineLimit;
+    parser.code.compact = compact;
+    parser.parse();
+    source = null;
+    units = null;
+    code = parser.code;
+    errors = scanner.errors;
+    parsedMethods = 0;
+    for (Obj prog : parser.tab.curScope.locals().values()) {
+      if (prog.kind == Obj.Kind.Prog) {
+        for (Obj o : prog.locals.values()) {
+          if (o.kind == Obj.Kind.Meth) {
+            parsedMethods++;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package ssw.mj.impl;
+
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.opt.Optimizer;
+import ssw.mj.symtab.Obj;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Links modules into one program. The first module is the main program,
+ * the others provide the methods and global variables it imports, except
+ * their main methods. The code of the modules is laid out one after the
+ * other, their global variables as well. The calls and the addresses of
+ * global variables are relocated and the calls of imported methods and the
+ * imported global variables are resolved by name. The classes a module
+ * uses from others must have the same fields as in the module declaring
+ * them. Each module has its own namespace, only an imported name must be
+ * declared by exactly one of the other modules.
+ * <p>
+ * If strip is set, only the methods reachable from main are kept. The
+ * optimizations are applied to the linked program, across modules.
+ */
+public final class Linker {
+
+  /**
+   * The modules cannot be linked: an imported symbol is missing, declared
+   * by several modules or has a different type or class layout than
+   * imported, or the program is too large.
+   */
+  public static final class LinkException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public LinkException(String msg) {
+      super(msg);
+    }
+  }
+
+  /**
+   * Remove the methods that are not reachable from main.
+   */
+  public boolean strip;
+
+  /**
+   * Optimizations applied to the linked code, none by default.
+   */
+  public final EnumSet<Optimizer.Pass> optimizations = EnumSet.noneOf(Optimizer.Pass.class);
+
+  private final List<ObjectModule> modules;
+
+  /**
+   * A module in the linked program.
+   */
+  private static final class Part {
+    final ObjectModule module;
+    int data; // address of the first global variable
+
+    // methods sorted by address, their ends, names and new addresses (-1 if stripped)
+    int[] adrs, ends, newAdrs;
+    String[] names;
+
+    // exported methods, global variables and classes by name
+    final Map<String, ObjectModule.Symbol> exports = new HashMap<>();
+
+    // resolved imports by index: the part of a method, address of a method or global
+    final Map<Integer, Part> importParts = new HashMap<>();
+    final Map<Integer, Integer> importAdrs = new HashMap<>();
+
+    Part(ObjectModule module) {
+      this.module = module;
+    }
+
+    /**
+     * Index of the method at adr, -1 if no method starts there.
+     */
+    int method(int adr) {
+      int m = Arrays.binarySearch(adrs, adr);
+      return m < 0 ? -1 : m;
+    }
+  }
+
+  public Linker(List<ObjectModule> modules) {
+    this.modules = List.copyOf(modules);
+  }
+
+  public Code link() throws LinkException {
+    if (modules.isEmpty()) {
+      throw new LinkException("no modules");
+    }
+    List<Part> parts = new ArrayList<>();
+    int data = 0;
+    for (ObjectModule m : modules) {
+      Part p = new Part(m);
+      p.data = data;
+      data += m.dataSize;
+      methods(p);
+      for (ObjectModule.Symbol s : m.symbols) {
+        if (s.kind() != Obj.Kind.Con && !s.name().equals("main")) {
+          p.exports.put(s.name(), s);
+        }
+      }
+      parts.add(p);
+    }
+    if (data > 0x10000) {
+      throw new LinkException("too many global variables");
+    }
+    for (Part p : parts) {
+      resolve(p, parts);
+    }
+    Part prog = parts.get(0);
+    int main = -1;
+    for (ObjectModule.Symbol s : prog.module.symbols) {
+      if (s.kind() == Obj.Kind.Meth && s.name().equals("main")) {
+        main = prog.method(s.value());
+      }
+    }
+    if (main < 0) {
+      throw new LinkException("main not found in " + prog.module.name);
+    }
+
+    // layout
+    if (strip) {
+      mark(parts, prog, main);
+    }
+    int pc = 0;
+    for (Part p : parts) {
+      for (int m = 0; m < p.adrs.length; m++) {
+        if (!strip || p.newAdrs[m] == 0) {
+          p.newAdrs[m] = pc;
+          pc += p.ends[m] - p.adrs[m];
+        } else {
+          p.newAdrs[m] = -1;
+        }
+      }
+    }
+    byte[] buf = new byte[pc];
+    List<Obj> methods = new ArrayList<>();
+    for (Part p : parts) {
+      for (int m = 0; m < p.adrs.length; m++) {
+        if (p.newAdrs[m] >= 0) {
+          relocate(p, m, buf);
+          Obj meth = new Obj(Obj.Kind.Meth, p.names[m], Tab.noType);
+          meth.adr = p.newAdrs[m];
+          methods.add(meth);
+        }
+      }
+    }
+
+    Code code = new Code(buf, data, prog.newAdrs[main]);
+    if (!optimizations.isEmpty()) {
+      new Optimizer(code, methods).run(optimizations);
+    }
+    return code;
+  }
+
+  /**
+   * Collects the methods of p from its symbols.
+   */
+  private static void methods(Part p) throws LinkException {
+    List<ObjectModule.Symbol> list = new ArrayList<>();
+    for (ObjectModule.Symbol s : p.module.symbols) {
+      if (s.kind() == Obj.Kind.Meth) {
+        list.add(s);
+      }
+    }
+    list.sort((a, b) -> Integer.compare(a.value(), b.value()));
+    int n = list.size();
+    p.adrs = new int[n];
+    p.ends = new int[n];
+    p.newAdrs = new int[n];
+    p.names = new String[n];
+    for (int m = 0; m < n; m++) {
+      p.adrs[m] = list.get(m).value();
+      p.ends[m] = m + 1 < n ? list.get(m + 1).value() : p.module.code.length;
+      p.names[m] = list.get(m).name();
+      if (p.adrs[m] < 0 || p.ends[m] <= p.adrs[m] || p.ends[m] > p.module.code.length) {
+        throw new LinkException("invalid method " + p.names[m] + " in " + p.module.name);
+      }
+    }
+  }
+
+  /**
+   * Finds the symbols imported by p in the other parts.
+   */
+  private static void resolve(Part p, List<Part> parts) throws LinkException {
+    for (ObjectModule.Symbol s : p.module.imports) {
+      Part q = null;
+      for (Part r : parts) {
+        if (r != p && r.exports.containsKey(s.name())) {
+          if (q != null) {
+            throw new LinkException(s.name() + " imported by " + p.module.name + " is declared in "
+                    + q.module.name + " and " + r.module.name);
+          }
+          q = r;
+        }
+      }
+      if (q == null) {
+        throw new LinkException(s.name() + " imported by " + p.module.name + " not found");
+      }
+      ObjectModule.Symbol e = q.exports.get(s.name());
+      if (e.kind() != s.kind() || !e.type().equals(s.type())) {
+        throw new LinkException(s.name() + " in " + q.module.name + " is " + e.kind() + " " + e.type()
+                + ", " + p.module.name + " imports " + s.kind() + " " + s.type());
+      }
+      if (s.kind() == Obj.Kind.Meth) {
+        p.importParts.put(s.value(), q);
+        p.importAdrs.put(s.value(), e.value());
+      } else if (s.kind() == Obj.Kind.Var) {
+        p.importAdrs.put(s.value(), q.data + e.value());
+      }
+    }
+  }
+
+  /**
+   * Marks the methods reachable from main with new address 0, the others
+   * with -1.
+   */
+  private static void mark(List<Part> parts, Part prog, int main) throws LinkException {
+    for (Part p : parts) {
+      Arrays.fill(p.newAdrs, -1);
+    }
+    prog.newAdrs[main] = 0;
+    Deque<Callee> work = new ArrayDeque<>();
+    work.push(new Callee(prog, main));
+    while (!work.isEmpty()) {
+      Callee c = work.pop();
+      Part p = c.part;
+      for (int pc = p.adrs[c.method]; pc < p.ends[c.method]; pc += size(p, pc)) {
+        if (p.module.code[pc] == OpCode.call.code()) {
+          Callee d = callee(p, pc);
+          if (d.part.newAdrs[d.method] < 0) {
+            d.part.newAdrs[d.method] = 0;
+            work.push(d);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies method m of p to its new address and relocates its calls and
+   * global variables.
+   */
+  private void relocate(Part p, int m, byte[] buf) throws LinkException {
+    byte[] code = p.module.code;
+    int adr = p.adrs[m];
+    int newAdr = p.newAdrs[m];
+    System.arraycopy(code, adr, buf, newAdr, p.ends[m] - adr);
+    for (int pc = adr; pc < p.ends[m]; pc += size(p, pc)) {
+      OpCode op = OpCode.get(code[pc]);
+      int at = newAdr + pc - adr;
+      if (op == OpCode.call) {
+        Callee c = callee(p, pc);
+        int off = c.part.newAdrs[c.method] - at;
+        if (off != (short) off) {
+          throw new LinkException("call distance too large at " + at);
+        }
+        put2(buf, at + 1, off);
+      } else if (op == OpCode.getstatic || op == OpCode.putstatic || op == OpCode.incstatic) {
+        int a = get2(code, pc + 1);
+        Integer imported = a >= ObjectModule.IMPORTED ? p.importAdrs.get(a - ObjectModule.IMPORTED) : null;
+        if (a >= ObjectModule.IMPORTED && imported == null) {
+          throw new LinkException("unresolved global variable at " + pc + " in " + p.module.name);
+        }
+        put2(buf, at + 1, imported != null ? imported : p.data + a);
+      }
+    }
+  }
+
+  /**
+   * A method of a part.
+   */
+  private record Callee(Part part, int method) {
+  }
+
+  /**
+   * The method called at pc in p.
+   */
+  private static Callee callee(Part p, int pc) throws LinkException {
+    int target = pc + (short) get2(p.module.code, pc + 1);
+    Part q = p;
+    if (target < 0) {
+      q = p.importParts.get(-1 - target);
+      if (q == null) {
+        throw new LinkException("unresolved call at " + pc + " in " + p.module.name);
+      }
+      target = p.importAdrs.get(-1 - target);
+    }
+    int m = q.method(target);
+    if (m < 0) {
+      throw new LinkException("invalid call at " + pc + " in " + p.module.name);
+    }
+    return new Callee(q, m);
+  }
+
+  private static int size(Part p, int pc) throws LinkException {
+    OpCode op = OpCode.get(p.module.code[pc]);
+    if (op == null) {
+      throw new LinkException("invalid instruction at " + pc + " in " + p.module.name);
+    }
+    return op.size();
+  }
+
+  private static int get2(byte[] code, int pos) {
+    return (code[pos] & 0xff) << 8 | code[pos + 1] & 0xff;
+  }
+
+  private static void put2(byte[] buf, int pos, int x) {
+    buf[pos] = (byte) (x >> 8);
+    buf[pos + 1] = (byte) x;
+  }
+}
@@ -0,0 +1,389 @@
+package ssw.mj.impl;
+
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Struct;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A compiled program that is linked with others by the {@link Linker}: its
+ * code, the constants, global variables, classes and methods it declares
+ * and the methods, global variables and classes of other modules it uses.
+ * The classes are imported with their fields, as the code depends on
+ * their layout.
+ * <p>
+ * The declarations of modules are imported into the universe of a parser
+ * with {@link #declare(Tab)}, the program's own declarations hide them.
+ * The code refers to the k-th imported symbol by an address outside its
+ * own: a call of an imported method jumps to -1 - k, an imported global
+ * variable has the address IMPORTED + k. Copies of the code made by the
+ * inliner keep these references, the linker replaces them.
+ * <p>
+ * Types are written as descriptors: V (no type), I, C, [ and the element
+ * type for arrays and L name ; for classes. Methods have the descriptor
+ * ( parameter types ) return type, classes { name : type ... } with their
+ * fields separated by blanks.
+ */
+public final class ObjectModule {
+
+  /**
+   * Address of the first imported global variable. The parser allows fewer
+   * own global variables.
+   */
+  public static final int IMPORTED = 0x8000;
+
+  /**
+   * A declaration or import: value is the value of a constant, the address
+   * of a global variable or method, or the index of an imported method or
+   * global variable. It is 0 for classes.
+   */
+  public record Symbol(Obj.Kind kind, String name, String type, int value) {
+  }
+
+  public final String name;
+  public final byte[] code;
+
+  /**
+   * Number of own global variables.
+   */
+  public final int dataSize;
+
+  /**
+   * Declarations of the program, main included.
+   */
+  public final List<Symbol> symbols;
+
+  /**
+   * Symbols of other modules used by the code.
+   */
+  public final List<Symbol> imports;
+
+  public ObjectModule(String name, byte[] code, int dataSize, List<Symbol> symbols, List<Symbol> imports) {
+    this.name = name;
+    this.code = code;
+    this.dataSize = dataSize;
+    this.symbols = List.copyOf(symbols);
+    this.imports = List.copyOf(imports);
+  }
+
+  /**
+   * The module compiled by parser, which must have parsed a program without
+   * errors.
+   */
+  public static ObjectModule of(Parser parser) {
+    if (parser.scanner.errors.numErrors() > 0) {
+      throw new IllegalStateException("program has errors");
+    }
+    Obj prog = null;
+    Map<Struct, String> classes = new HashMap<>();
+    for (Obj o : parser.tab.curScope.locals().values()) {
+      if (o.kind == Obj.Kind.Prog) {
+        prog = o;
+      } else if (o.kind == Obj.Kind.Type && o.type.kind == Struct.Kind.Class) {
+        classes.put(o.type, o.name);
+      }
+    }
+    for (Obj o : prog.locals.values()) {
+      if (o.kind == Obj.Kind.Type) {
+        classes.put(o.type, o.name);
+      }
+    }
+
+    List<Symbol> symbols = new ArrayList<>();
+    int nVars = 0;
+    Set<Struct> own = new HashSet<>();
+    Set<Struct> used = new LinkedHashSet<>(); // classes used by the code
+    for (Obj o : prog.locals.values()) {
+      String type = o.kind == Obj.Kind.Meth ? descriptor(o, classes)
+              : o.kind == Obj.Kind.Type ? fields(o.type, classes) : descriptor(o.type, classes);
+      symbols.add(new Symbol(o.kind, o.name, type, o.kind == Obj.Kind.Con ? o.val : o.adr));
+      if (o.kind == Obj.Kind.Var) {
+        nVars++;
+      } else if (o.kind == Obj.Kind.Type) {
+        own.add(o.type);
+      }
+      uses(o, used);
+    }
+
+    // the imports the code refers to, by index
+    Code code = parser.code;
+    List<Obj> imported = parser.tab.imports;
+    Map<Integer, Symbol> imports = new TreeMap<>();
+    for (int pc = 0; pc < code.pc; pc += OpCode.get(code.get(pc)).size()) {
+      int k = switch (OpCode.get(code.get(pc))) {
+        case call -> -1 - (pc + (short) operand(code, pc));
+        case getstatic, putstatic, incstatic -> operand(code, pc) - IMPORTED;
+        default -> -1;
+      };
+      if (k >= 0 && !imports.containsKey(k)) {
+        Obj o = imported.get(k);
+        String type = o.kind == Obj.Kind.Meth ? descriptor(o, classes) : descriptor(o.type, classes);
+        imports.put(k, new Symbol(o.kind, o.name, type, k));
+        uses(o, used);
+      }
+    }
+    List<Symbol> list = new ArrayList<>(imports.values());
+    for (Struct clazz : used) {
+      if (!own.contains(clazz)) {
+        list.add(new Symbol(Obj.Kind.Type, classes.get(clazz), fields(clazz, classes), 0));
+      }
+    }
+    // a declaration line with several variables counts once in dataSize
+    return new ObjectModule(prog.name, code.toByteArray(), Math.max(code.dataSize, nVars), symbols, list);
+  }
+
+  /**
+   * Adds the classes in the type of o to used, for methods also those in
+   * the types of their parameters and local variables.
+   */
+  private static void uses(Obj o, Set<Struct> used) {
+    uses(o.type, used);
+    if (o.kind == Obj.Kind.Meth) {
+      for (Obj local : o.locals.values()) {
+        uses(local.type, used);
+      }
+    }
+  }
+
+  /**
+   * Adds the classes in type to used, with the classes of their fields.
+   */
+  private static void uses(Struct type, Set<Struct> used) {
+    if (type.kind == Struct.Kind.Arr) {
+      uses(type.elemType, used);
+    } else if (type.kind == Struct.Kind.Class && used.add(type)) {
+      for (Obj f : type.fields.values()) {
+        uses(f.type, used);
+      }
+    }
+  }
+
+  private static int operand(Code code, int pc) {
+    return (code.get(pc + 1) & 0xff) << 8 | code.get(pc + 2) & 0xff;
+  }
+
+  // ----- descriptors
+
+  private static String descriptor(Struct type, Map<Struct, String> classes) {
+    return switch (type.kind) {
+      case None -> "V";
+      case Int -> "I";
+      case Char -> "C";
+      case Arr -> "[" + descriptor(type.elemType, classes);
+      case Class -> {
+        String name = classes.get(type);
+        if (name == null) {
+          throw new IllegalStateException("class without name: " + type);
+        }
+        yield "L" + name + ";";
+      }
+    };
+  }
+
+  private static String descriptor(Obj meth, Map<Struct, String> classes) {
+    StringBuilder sb = new StringBuilder("(");
+    int i = 0;
+    for (Obj par : meth.locals.values()) {
+      if (i++ == meth.nPars) {
+        break;
+      }
+      sb.append(descriptor(par.type, classes));
+    }
+    return sb.append(')').append(descriptor(meth.type, classes)).toString();
+  }
+
+  private static String fields(Struct clazz, Map<Struct, String> classes) {
+    StringBuilder sb = new StringBuilder("{");
+    for (Obj f : clazz.fields.values()) {
+      if (sb.length() > 1) {
+        sb.append(' ');
+      }
+      sb.append(f.name).append(':').append(descriptor(f.type, classes));
+    }
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Reads the types of a descriptor one after the other. Class names are
+   * looked up in the current scope of tab.
+   */
+  private static final class Descriptor {
+    private final String s;
+    private final Tab tab;
+    private int pos;
+
+    Descriptor(String s, Tab tab) {
+      this.s = s;
+      this.tab = tab;
+    }
+
+    boolean at(char c) {
+      if (pos < s.length() && s.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    Struct type() {
+      char c = s.charAt(pos++);
+      switch (c) {
+        case 'V':
+          return Tab.noType;
+        case 'I':
+          return Tab.intType;
+        case 'C':
+          return Tab.charType;
+        case '[':
+          return new Struct(type());
+        case 'L':
+          int end = s.indexOf(';', pos);
+          Obj o = tab.find(s.substring(pos, end));
+          pos = end + 1;
+          return o.kind == Obj.Kind.Type ? o.type : Tab.noType;
+        default:
+          throw new IllegalArgumentException("invalid descriptor " + s);
+      }
+    }
+
+    String name() {
+      int end = s.indexOf(':', pos);
+      String name = s.substring(pos, end);
+      pos = end + 1;
+      return name;
+    }
+  }
+
+  /**
+   * Declares the symbols of this module in the universe of tab, except main.
+   * Classes used by them must be declared first, by this module or by one
+   * declared before.
+   */
+  public void declare(Tab tab) {
+    Map<Symbol, Obj> classes = new LinkedHashMap<>();
+    for (Symbol s : symbols) {
+      if (s.kind == Obj.Kind.Type) {
+        classes.put(s, tab.insert(Obj.Kind.Type, s.name, new Struct(Struct.Kind.Class)));
+      }
+    }
+    for (Map.Entry<Symbol, Obj> e : classes.entrySet()) {
+      Descriptor d = new Descriptor(e.getKey().type, tab);
+      d.at('{');
+      tab.openScope();
+      tab.openScope();
+      while (!d.at('}')) {
+        d.at(' ');
+        String field = d.name();
+        tab.insert(Obj.Kind.Var, field, d.type());
+      }
+      e.getValue().type.fields = tab.curScope.locals();
+      tab.closeScope();
+      tab.closeScope();
+    }
+    for (Symbol s : symbols) {
+      Descriptor d = new Descriptor(s.type, tab);
+      switch (s.kind) {
+        case Con -> tab.insert(Obj.Kind.Con, s.name, d.type()).val = s.value;
+        case Var -> {
+          Obj o = tab.insert(Obj.Kind.Var, s.name, d.type());
+          o.level = 0;
+          o.adr = IMPORTED + tab.imports.size();
+          tab.imports.add(o);
+        }
+        case Meth -> {
+          if (!s.name.equals("main")) {
+            d.at('(');
+            List<Struct> pars = new ArrayList<>();
+            while (!d.at(')')) {
+              pars.add(d.type());
+            }
+            Obj meth = tab.insert(Obj.Kind.Meth, s.name, d.type());
+            tab.openScope();
+            tab.openScope();
+            for (int i = 0; i < pars.size(); i++) {
+              tab.insert(Obj.Kind.Var, "p" + i, pars.get(i));
+            }
+            meth.locals = tab.curScope.locals();
+            meth.nPars = pars.size();
+            tab.closeScope();
+            tab.closeScope();
+            meth.adr = -1 - tab.imports.size();
+            tab.imports.add(meth);
+          }
+        }
+        default -> {
+        }
+      }
+    }
+  }
+
+  // ----- module files
+
+  /**
+   * Module file: "MM", the name, data size, code size, the code, then the
+   * symbols and the imports, each as kind, name, type and value.
+   */
+  public void write(Path file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeByte('M');
+      out.writeByte('M');
+      out.writeUTF(name);
+      out.writeInt(dataSize);
+      out.writeInt(code.length);
+      out.write(code);
+      write(out, symbols);
+      write(out, imports);
+    }
+  }
+
+  private static void write(DataOutputStream out, List<Symbol> list) throws IOException {
+    out.writeInt(list.size());
+    for (Symbol s : list) {
+      out.writeByte(s.kind.ordinal());
+      out.writeUTF(s.name);
+      out.writeUTF(s.type);
+      out.writeInt(s.value);
+    }
+  }
+
+  public static ObjectModule read(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readByte() != 'M' || in.readByte() != 'M') {
+        throw new IOException(file + " is not a module");
+      }
+      String name = in.readUTF();
+      int dataSize = in.readInt();
+      byte[] code = new byte[in.readInt()];
+      in.readFully(code);
+      List<Symbol> symbols = read(in);
+      return new ObjectModule(name, code, dataSize, symbols, read(in));
+    }
+  }
+
+  private static List<Symbol> read(DataInputStream in) throws IOException {
+    Obj.Kind[] kinds = Obj.Kind.values();
+    int n = in.readInt();
+    List<Symbol> list = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      Obj.Kind kind = kinds[in.readByte()];
+      list.add(new Symbol(kind, in.readUTF(), in.readUTF(), in.readInt()));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,230 @@
+package ssw.mj.impl;
+
+import ssw.mj.scanner.Token;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static ssw.mj.scanner.Token.Kind.eof;
+
+/**
+ * Scans a large source in parallel. The source is split into chunks after
+ * line ends, which are scanned concurrently as if a token began at their
+ * start. A chunk may start inside a comment or a character constant though,
+ * so the chunks are joined one after the other: the scanner state between
+ * two tokens only depends on the number of characters read, so the tokens
+ * of a chunk are right from the first one whose scan started where the
+ * previous token ended. The source before it is scanned again. The tokens
+ * and errors are the same as {@link Scanner} delivers for the whole source.
+ * <p>
+ * The tokens are collected in a {@link TokenStream}. The errors of a token
+ * are reported when the parser gets to it, so they are interleaved with the
+ * parser's errors as well.
+ * <p>
+ * Only the chunks are scanned in parallel, joining them and keeping the
+ * tokens costs about twice as much as scanning on one processor, so the
+ * compiler uses it only when asked to.
+ */
+public final class ParallelScanner extends StreamScanner {
+
+  /**
+   * Default number of characters per chunk.
+   */
+  public static final int CHUNK_SIZE = 1 << 16;
+
+  public ParallelScanner(String source) {
+    this(source, CHUNK_SIZE);
+  }
+
+  public ParallelScanner(String source, int chunkSize) {
+    super(scan(source, chunkSize));
+  }
+
+  /**
+   * Scans source in parallel, in chunks of about chunkSize characters.
+   */
+  public static TokenStream scan(String source, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunk size " + chunkSize);
+    }
+    return new Chunks(source, chunkSize).tokens;
+  }
+
+  /**
+   * The chunks of a source and the tokens joined from them.
+   */
+  private static final class Chunks {
+    private final String source;
+
+    // chunks, offsets[k] is the start of chunks[k]
+    private final Chunk[] chunks;
+    private final int[] offsets;
+
+    private final TokenStream tokens;
+
+    Chunks(String source, int chunkSize) {
+      this.source = source;
+      List<Chunk> list = new ArrayList<>();
+      int start = 0;
+      do {
+        int lf = source.indexOf('\n', start + Math.min(chunkSize - 1, source.length() - start));
+        int end = lf < 0 ? source.length() : lf + 1;
+        list.add(new Chunk(start, end));
+        start = end;
+      } while (start < source.length());
+      chunks = list.toArray(new Chunk[0]);
+      offsets = new int[chunks.length];
+      for (int k = 0; k < chunks.length; k++) {
+        offsets[k] = chunks[k].offset;
+      }
+      // the last chunk is scanned up to the end of file
+      chunks[chunks.length - 1].end = Integer.MAX_VALUE;
+
+      IntStream.range(0, chunks.length).parallel().forEach(k -> chunks[k].scan());
+      tokens = new TokenStream();
+      join();
+    }
+
+    /**
+     * Collects the tokens of the chunks in order, scanning again where the
+     * scan of a chunk went wrong.
+     */
+    private void join() {
+      int line = 1;
+      for (Chunk c : chunks) {
+        c.line = line;
+        line += c.lines;
+      }
+      int pos = 1; // state before the first token: one character read
+      while (true) {
+        Chunk c = chunks[chunk(pos)];
+        int j = Arrays.binarySearch(c.starts, 0, c.tokens.size(), pos);
+        if (j >= 0) {
+          // in step with the chunk, take the rest of its tokens
+          tokens.addAll(c.tokens, j, c.line - 1);
+          if (tokens.kind(tokens.size() - 1) == eof) {
+            return;
+          }
+          pos = c.pos;
+        } else {
+          pos = rescan(pos);
+          if (pos < 0) {
+            return;
+          }
+        }
+      }
+    }
+
+    /**
+     * Scans the source after its first pos characters until the scan gets in
+     * step with a chunk. Returns the position where it did or -1 at the end of
+     * file.
+     */
+    private int rescan(int pos) {
+      int q = pos - 1; // ch of the scanner at pos
+      Chunk c = chunks[chunk(pos)];
+      int to = Math.min(q, source.length());
+      int line = c.line + lineEnds(c.offset, to);
+      int col = q - (source.lastIndexOf('\n', to - 1) + 1);
+      Scanner s = new Scanner(reader(q), q, line, col);
+      s.errors.limit = Integer.MAX_VALUE;
+
+      while (true) {
+        int e = s.errors.numErrors();
+        Token t = s.next();
+        tokens.add(t, s.tokenPos(), s.errors, e);
+        if (t.kind == eof) {
+          return -1;
+        }
+        pos = s.pos();
+        c = chunks[chunk(pos)];
+        if (Arrays.binarySearch(c.starts, 0, c.tokens.size(), pos) >= 0) {
+          return pos;
+        }
+      }
+    }
+
+    /**
+     * Index of the chunk where a token scanned after pos characters starts.
+     */
+    private int chunk(int pos) {
+      int k = Arrays.binarySearch(offsets, pos - 1);
+      return k >= 0 ? k : -k - 2;
+    }
+
+    /**
+     * Number of line ends in the source from offset from to offset to.
+     */
+    private int lineEnds(int from, int to) {
+      int n = 0;
+      for (int i = source.indexOf('\n', from); i >= 0 && i < to; i = source.indexOf('\n', i + 1)) {
+        n++;
+      }
+      return n;
+    }
+
+    private Reader reader(int offset) {
+      StringReader r = new StringReader(source);
+      try {
+        r.skip(offset);
+      } catch (IOException e) {
+        // not thrown by an open StringReader
+        throw new UncheckedIOException(e);
+      }
+      return r;
+    }
+
+    /**
+     * Part of the source from offset to end, which starts after a line end.
+     * Its tokens are the ones whose scan starts in the chunk, scanned as if
+     * one started at offset. Their lines are counted from 1.
+     */
+    private final class Chunk {
+      final int offset;
+      int end;
+
+      // number of line ends in the chunk, first line of the chunk
+      int lines, line;
+
+      final TokenStream tokens = new TokenStream();
+
+      // pos() of the scanner before each token, after the last one
+      int[] starts;
+      int pos;
+
+      Chunk(int offset, int end) {
+        this.offset = offset;
+        this.end = end;
+        // programs have a token every few characters
+        starts = new int[16 + (end - offset) / 4];
+      }
+
+      void scan() {
+        lines = lineEnds(offset, Math.min(end, source.length()));
+        Scanner s = new Scanner(reader(offset), offset, 1, 0);
+        s.errors.limit = Integer.MAX_VALUE;
+        pos = s.pos();
+        // stop where the scan of the next chunk starts
+        while (pos <= end) {
+          if (tokens.size() == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+          }
+          starts[tokens.size()] = pos;
+          int e = s.errors.numErrors();
+          Token t = s.next();
+          tokens.add(t, s.tokenPos(), s.errors, e);
+          pos = s.pos();
+          if (t.kind == eof) {
+            break;
+          }
+        }
+      }
+    }
+  }
+}
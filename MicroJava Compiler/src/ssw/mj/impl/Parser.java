@@ -3,10 +3,12 @@ package ssw.mj.impl;
 import ssw.mj.Errors.Message;
 import ssw.mj.codegen.Label;
 import ssw.mj.codegen.Operand;
+import ssw.mj.opt.Optimizer;
 import ssw.mj.scanner.Token;
 import ssw.mj.symtab.Obj;
 import ssw.mj.symtab.Struct;
 
+import java.util.Arrays;
 import java.util.EnumSet;
 
 import static ssw.mj.Errors.Message.*;
@@ -40,6 +42,15 @@ public final class Parser {
    */
   private Token la;
 
+  /**
+   * Index mode, if the scanner is a StreamScanner: the tokens are read from
+   * its stream and the indices tPos and laPos replace t and la. They are -1
+   * for the pseudo token before the first one.
+   */
+  private final StreamScanner stream;
+  private final TokenStream tokens;
+  private int tPos = -1, laPos = -1;
+
   /**
    * Shortcut to kind attribute of lookahead token (la).
    */
@@ -60,8 +71,20 @@ public final class Parser {
    */
   public final Tab tab;
 
+  /**
+   * Optimizations applied to the code of an error free program, none by default.
+   */
+  public final EnumSet<Optimizer.Pass> optimizations = EnumSet.noneOf(Optimizer.Pass.class);
+
+  /**
+   * Compiles a module for the {@link Linker}, which needs no main method.
+   */
+  public boolean module;
+
   public Parser(Scanner scanner) {
     this.scanner = scanner;
+    stream = scanner instanceof StreamScanner s ? s : null;
+    tokens = stream == null ? null : stream.tokens;
     tab = new Tab(this);
     code = new Code(this);
     // Pseudo token to avoid crash when 1st symbol has scanner error.
@@ -73,12 +96,35 @@ public final class Parser {
    * Reads ahead one symbol.
    */
   private void scan() {
-    t = la;
-    la = scanner.next();
-    sym = la.kind;
+    if (stream != null) {
+      if (laPos < 0) {
+        t = la;
+      }
+      tPos = laPos;
+      laPos = stream.advance();
+      sym = tokens.kind(laPos);
+    } else {
+      t = la;
+      la = scanner.next();
+      sym = la.kind;
+    }
     errorDistance++;
   }
 
+  /**
+   * Spelling of the last recognized token.
+   */
+  private String val() {
+    return tPos >= 0 ? tokens.val(tPos) : t.val;
+  }
+
+  /**
+   * Value of the last recognized token.
+   */
+  private int numVal() {
+    return tPos >= 0 ? tokens.numVal(tPos) : t.numVal;
+  }
+
   /**
    * Verifies symbol and reads ahead.
    */
@@ -95,7 +141,11 @@ public final class Parser {
    */
   public void error(Message msg, Object... msgParams) {
     if (errorDistance >= MIN_ERROR_DISTANCE){
-      scanner.errors.error(la.line, la.col, msg, msgParams);
+      if (laPos >= 0) {
+        scanner.errors.error(tokens.line(laPos), tokens.col(laPos), msg, msgParams);
+      } else {
+        scanner.errors.error(la.line, la.col, msg, msgParams);
+      }
     }
     errorDistance = 0;
   }
@@ -125,14 +175,30 @@ public final class Parser {
   private final EnumSet<Token.Kind> recoverDeclSet = EnumSet.of(final_, ident, class_, rbrace, eof);
   private final EnumSet<Token.Kind> recoverStatementSet = EnumSet.of(if_, while_, break_, return_, read, print, semicolon, eof);
 
+  // Operand records, reused by the next statement once a statement is parsed
+  private Operand[] operands = new Operand[32];
+  private int nOperands;
+
+  /**
+   * Next free operand record, to be initialized with one of its set methods.
+   */
+  private Operand operand() {
+    if (nOperands == operands.length) {
+      operands = Arrays.copyOf(operands, operands.length * 2);
+    }
+    Operand x = operands[nOperands];
+    if (x == null) {
+      x = operands[nOperands] = new Operand();
+    }
+    nOperands++;
+    return x;
+  }
+
   // ---------------------------------
   // One top-down parsing method per production
 
   private void program(){
-    check(program);
-    check(ident);
-    Obj progObj = tab.insert(Obj.Kind.Prog, t.val, Tab.noType);
-    tab.openScope();
+    Obj progObj = programHeader();
     while (true){
       if (sym == final_){
         constDecl();
@@ -146,10 +212,7 @@ public final class Parser {
         recoverDeclaration();
       }
     }
-    if (tab.curScope.nVars() > MAX_GLOBALS){
-      error(TOO_MANY_GLOBALS);
-    }
-    check(lbrace);
+    methodsBegin();
     while (true){
       if (sym == ident || sym == void_) {
         methodDecl();
@@ -159,34 +222,57 @@ public final class Parser {
         recoverMethod();
       }
     }
+    programEnd(progObj);
+  }
+
+  private Obj programHeader(){
+    check(program);
+    check(ident);
+    Obj progObj = tab.insert(Obj.Kind.Prog, val(), Tab.noType);
+    tab.openScope();
+    return progObj;
+  }
+
+  private void methodsBegin(){
+    if (tab.curScope.nVars() > MAX_GLOBALS){
+      error(TOO_MANY_GLOBALS);
+    }
+    check(lbrace);
+  }
+
+  private void programEnd(Obj progObj){
     check(rbrace);
 
     progObj.locals = tab.curScope.locals();
     tab.closeScope();
 
-    if (code.mainpc == -1){
+    if (code.mainpc == -1 && !module){
       error(METH_NOT_FOUND, "main");
     }
+    // code using other modules is optimized by the linker
+    if (!optimizations.isEmpty() && scanner.errors.numErrors() == 0 && tab.imports.isEmpty()){
+      new Optimizer(code, progObj.locals.values()).run(optimizations);
+    }
   }
 
   private void constDecl(){
     check (final_);
     Struct type = type();
     check(ident);
-    Obj constObj = tab.insert(Obj.Kind.Con, t.val, type);
+    Obj constObj = tab.insert(Obj.Kind.Con, val(), type);
     check(assign);
     if (sym == number){
       if (type.kind != Struct.Kind.Int){
         error(CONST_TYPE);
       }
       scan();
-      constObj.val = t.numVal;
+      constObj.val = numVal();
     } else if (sym == charConst){
       if (type.kind != Struct.Kind.Char){
         error(CONST_TYPE);
       }
       scan();
-      constObj.val = t.numVal;
+      constObj.val = numVal();
     } else {
       error(CONST_DECL);
     }
@@ -196,14 +282,14 @@ public final class Parser {
   private void varDecl(){
     Struct type = type();
     check(ident);
-    Obj o = tab.insert(Obj.Kind.Var, t.val, type);
+    Obj o = tab.insert(Obj.Kind.Var, val(), type);
     if (o.level == 0){
       code.dataSize++;
     }
     while (sym == comma){
       scan();
       check(ident);
-      tab.insert(Obj.Kind.Var, t.val, type);
+      tab.insert(Obj.Kind.Var, val(), type);
     }
     check(semicolon);
   }
@@ -211,7 +297,7 @@ public final class Parser {
   private void classDecl(){
     check(class_);
     check(ident);
-    Obj c = tab.insert(Obj.Kind.Type, t.val, new Struct(Struct.Kind.Class));
+    Obj c = tab.insert(Obj.Kind.Type, val(), new Struct(Struct.Kind.Class));
     check(lbrace);
     tab.openScope();
     while (sym == ident){
@@ -225,7 +311,7 @@ public final class Parser {
     check(rbrace);
   }
 
-  private void methodDecl(){
+  private Obj methodDecl(){
     Struct type = Tab.noType;
     if (sym == ident){
       type = type();
@@ -238,7 +324,7 @@ public final class Parser {
       error(INVALID_METH_DECL);
     }
     check(ident);
-    Obj meth = tab.insert(Obj.Kind.Meth, t.val, type);
+    Obj meth = tab.insert(Obj.Kind.Meth, val(), type);
     meth.adr = code.pc;
     check(lpar);
     tab.openScope();
@@ -262,9 +348,7 @@ public final class Parser {
     if (tab.curScope.nVars() > MAX_LOCALS){
       error(TOO_MANY_LOCALS);
     }
-    code.put(OpCode.enter);
-    code.put(meth.nPars);
-    code.put(tab.curScope.nVars());
+    code.enter(meth.nPars, tab.curScope.nVars());
     meth.locals = tab.curScope.locals();
     block(null, type);
     tab.closeScope();
@@ -275,23 +359,24 @@ public final class Parser {
       code.put(OpCode.trap);
       code.put(1);
     }
+    return meth;
   }
 
   private void formPars(){
     Struct type = type();
     check(ident);
-    tab.insert(Obj.Kind.Var, t.val, type);
+    tab.insert(Obj.Kind.Var, val(), type);
     while (sym == comma){
       scan();
       type = type();
       check(ident);
-      tab.insert(Obj.Kind.Var, t.val, type);
+      tab.insert(Obj.Kind.Var, val(), type);
     }
   }
 
   private Struct type(){
     check(ident);
-    Obj o = tab.find(t.val);
+    Obj o = tab.find(val());
     if (o.kind != Obj.Kind.Type){
       error(NO_TYPE);
     }
@@ -320,6 +405,7 @@ public final class Parser {
   }
 
   private void statement(Label endLoop, Struct curMethReturnType){
+    int mark = nOperands; // operands of enclosing statements stay in use
     switch(sym){
       case ident:
         Operand x = designator();
@@ -363,8 +449,8 @@ public final class Parser {
         scan();
         check(lpar);
         Operand c = condition();
-        code.fJump(c.op, c.fLabel);
-        c.tLabel.here();
+        code.fJump(c.op, fLabel(c));
+        here(c.tLabel);
         check(rpar);
         statement(endLoop, curMethReturnType);
         Label endIf = new Label(code);
@@ -384,8 +470,8 @@ public final class Parser {
         Label beginLoop = new Label(code);
         beginLoop.here();
         c = condition();
-        code.fJump(c.op, c.fLabel);
-        c.tLabel.here();
+        code.fJump(c.op, fLabel(c));
+        here(c.tLabel);
         check(rpar);
         statement(c.fLabel, curMethReturnType);
         code.jump(beginLoop);
@@ -429,7 +515,7 @@ public final class Parser {
         } else {
           error(READ_VALUE);
         }
-        code.assign(x, new Operand(Tab.noType));
+        code.assign(x, operand().set(Tab.noType));
         check(rpar);
         check(semicolon);
         break;
@@ -445,7 +531,7 @@ public final class Parser {
         if (sym == comma){
           scan();
           check(number);
-          width = t.numVal;
+          width = numVal();
         } else {
           width = 0;
         }
@@ -467,6 +553,7 @@ public final class Parser {
       default:
         error(INVALID_STAT);
     }
+    nOperands = mark;
   }
 
   private OpCode assignop(){
@@ -544,12 +631,41 @@ public final class Parser {
     check(rpar);
   }
 
+  /**
+   * Target for the true jumps of the condition x, created on first use.
+   */
+  private Label tLabel(Operand x) {
+    if (x.tLabel == null) {
+      x.tLabel = new Label(code);
+    }
+    return x.tLabel;
+  }
+
+  /**
+   * Target for the false jumps of the condition x, created on first use.
+   */
+  private Label fLabel(Operand x) {
+    if (x.fLabel == null) {
+      x.fLabel = new Label(code);
+    }
+    return x.fLabel;
+  }
+
+  /**
+   * Defines lab at the current pc unless no jump was generated to it.
+   */
+  private void here(Label lab) {
+    if (lab != null) {
+      lab.here();
+    }
+  }
+
   private Operand condition(){
     Operand x = condTerm();
     while (sym == or){
-      code.tJump(x.op, x.tLabel);
+      code.tJump(x.op, tLabel(x));
       scan();
-      x.fLabel.here();
+      here(x.fLabel);
       Operand y = condTerm();
       x.fLabel = y.fLabel;
       x.op = y.op;
@@ -560,7 +676,7 @@ public final class Parser {
   private Operand condTerm(){
     Operand x = condFact();
     while (sym == and){
-      code.fJump(x.op, x.fLabel);
+      code.fJump(x.op, fLabel(x));
       scan();
       Operand y = condFact();
       x.op = y.op;
@@ -580,7 +696,7 @@ public final class Parser {
     }
     code.load(l);
     code.load(r);
-    return new Operand(op, code);
+    return operand().set(op);
   }
 
   private Code.CompOp relop(){
@@ -667,7 +783,7 @@ public final class Parser {
           error(NO_INT_OPERAND);
         }
         code.load(x);
-        int exponent = t.numVal;
+        int exponent = numVal();
         if (exponent == 0){
           code.put(OpCode.pop);
           code.put(OpCode.const_1);
@@ -708,17 +824,17 @@ public final class Parser {
         break;
       case number:
         scan();
-        x = new Operand(t.numVal);
+        x = operand().set(numVal());
         break;
       case charConst:
         scan();
-        x = new Operand(t.numVal);
+        x = operand().set(numVal());
         x.type = Tab.charType;
         break;
       case new_:
         scan();
         check(ident);
-        Obj o = tab.find(t.val);
+        Obj o = tab.find(val());
         if (o.kind != Obj.Kind.Type){
           error(NO_TYPE);
         }
@@ -731,7 +847,7 @@ public final class Parser {
           code.load(length);
           code.put(OpCode.newarray);
           Struct type = new Struct(o.type);
-          x = new Operand(type);
+          x = operand().set(type);
           if (o.type == Tab.charType){
             code.put(0);
           } else {
@@ -742,7 +858,7 @@ public final class Parser {
           if (o.type == Tab.intType || o.type == Tab.charType){
             error(NO_CLASS_TYPE);
           }
-          x = new Operand(o.type);
+          x = operand().set(o.type);
           code.put(OpCode.new_);
           code.put2(o.type.nrFields());
         }
@@ -754,14 +870,14 @@ public final class Parser {
         break;
       default:
         error(INVALID_FACT);
-        x = new Operand(tab.noObj, this);
+        x = operand().set(tab.noObj, this);
     }
     return x;
   }
 
   private Operand designator(){
     check(ident);
-    Operand x = new Operand(tab.find(t.val), this);
+    Operand x = operand().set(tab.find(val()), this);
     while (true){
       if (sym == period){
         if (x.type.kind != Struct.Kind.Class){
@@ -770,7 +886,7 @@ public final class Parser {
         scan();
         code.load(x);
         check(ident);
-        Obj obj = tab.findField(t.val, x.type);
+        Obj obj = tab.findField(val(), x.type);
         x.kind = Operand.Kind.Fld;
         x.type = obj.type;
         x.adr = obj.adr;
@@ -853,6 +969,66 @@ public final class Parser {
     } while (!recoverStatementSet.contains(sym));
     errorDistance = 0;
   }
+  // ------------------------------------
+  // Entry points for the IncrementalCompiler, which passes the parts of a
+  // program one at a time. The scanner must deliver eof after each part.
+
+  /**
+   * Parses "program ident" and opens the program scope.
+   */
+  Obj parseProgramHeader(){
+    scan();
+    Obj progObj = programHeader();
+    check(eof);
+    return progObj;
+  }
+
+  /**
+   * Parses one declaration of constants, global variables or a class.
+   */
+  void parseGlobalDecl(){
+    scan();
+    if (sym == final_){
+      constDecl();
+    } else if (sym == ident){
+      varDecl();
+    } else if (sym == class_){
+      classDecl();
+    } else {
+      recoverDeclaration();
+    }
+    check(eof);
+  }
+
+  /**
+   * Parses the "{" that starts the methods.
+   */
+  void parseMethodsBegin(){
+    scan();
+    methodsBegin();
+    check(eof);
+  }
+
+  /**
+   * Parses a method declaration at code.pc and returns the method.
+   */
+  Obj parseMethod(){
+    scan();
+    Obj meth = methodDecl();
+    check(eof);
+    return meth;
+  }
+
+  /**
+   * Parses the "}" that ends the program, closes the program scope and
+   * optimizes the code.
+   */
+  void parseProgramEnd(Obj progObj){
+    scan();
+    programEnd(progObj);
+    check(eof);
+  }
+
   // ------------------------------------
 
   // Private helper methods
@@ -867,11 +1043,11 @@ public final class Parser {
       error(CANNOT_ASSIGN_TO, x.kind.name());
     }
     scan();
-    if (x.kind == Operand.Kind.Local){
+    if (code.canInc(x, n)){
       code.inc(x, n);
     } else {
       code.compoundAssignmentPrepare(x);
-      compoundAssignment(x, new Operand(n), OpCode.add);
+      compoundAssignment(x, operand().set(n), OpCode.add);
     }
   }
 
@@ -897,7 +1073,7 @@ public final class Parser {
     } else {
       code.load(y);
       code.put(calcType);
-      code.assign(x, new Operand(Tab.noType));
+      code.assign(x, operand().set(Tab.noType));
     }
   }
 
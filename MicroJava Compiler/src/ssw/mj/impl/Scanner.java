@@ -5,8 +5,7 @@ import ssw.mj.scanner.Token;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import static ssw.mj.Errors.Message.*;
 import static ssw.mj.scanner.Token.Kind.*;
@@ -22,6 +21,13 @@ public class Scanner {
    */
   private final Reader in;
 
+  /**
+   * Characters read from in but not yet handled: input[inPos..inLen), inLen
+   * is -1 at the end of the input.
+   */
+  private final char[] input = new char[8192];
+  private int inPos, inLen;
+
   /**
    * Lookahead character. (= next (unhandled) character in the input stream)
    */
@@ -37,23 +43,59 @@ public class Scanner {
    */
   private int col;
 
+  /**
+   * Number of characters read from in, ch is at offset pos - 1.
+   */
+  private int pos;
+
+  /**
+   * Offset of the first character of the last token.
+   */
+  private int tokenPos;
+
   /**
    * According errors object.
    */
   public final Errors errors;
 
   public Scanner(Reader r) {
+    this(r, 0, 1, 0);
+  }
+
+  /**
+   * Scanner for the rest of a source whose first pos characters were
+   * already read, ending at line and col. r delivers the characters after
+   * them.
+   */
+  Scanner(Reader r, int pos, int line, int col) {
     // store reader
     in = r;
 
     // initialize error handling support
     errors = new Errors();
 
-    line = 1;
-    col = 0;
+    this.pos = pos;
+    this.line = line;
+    this.col = col;
     nextCh(); // read 1st char into ch, increase col to 1
   }
 
+  /**
+   * Number of characters read so far. The scanner state between two tokens
+   * only depends on it: the same source read up to the same position
+   * yields the same tokens from there on.
+   */
+  int pos() {
+    return pos;
+  }
+
+  /**
+   * Offset of the token returned last.
+   */
+  int tokenPos() {
+    return tokenPos;
+  }
+
   /**
    * Adds error message to the list of errors.
    */
@@ -65,38 +107,93 @@ public class Scanner {
     t.val = null;
   }
 
+  // Character classes of the ASCII characters, see CLASS
+  private static final byte WHITE = 1, // white space as in Character.isWhitespace
+          LETTER = 2,
+          DIGIT = 4,
+          NAME = 8; // letter, digit or '_', may continue a name
+
   /**
-   * Mapping from keyword names to appropriate token codes.
+   * Classes of the characters 0..127. Other characters have none, except
+   * that Character.isWhitespace decides for them whether they are white space.
    */
-  private static final Map<String, Token.Kind> keywords;
+  private static final byte[] CLASS = new byte[128];
 
   static {
-    keywords = new HashMap<>();
-    keywords.put(break_.label(), break_);
-    keywords.put(class_.label(), class_);
-    keywords.put(else_.label(), else_);
-    keywords.put(final_.label(), final_);
-    keywords.put(if_.label(), if_);
-    keywords.put(new_.label(), new_);
-    keywords.put(print.label(), print);
-    keywords.put(program.label(), program);
-    keywords.put(read.label(), read);
-    keywords.put(return_.label(), return_);
-    keywords.put(void_.label(), void_);
-    keywords.put(while_.label(), while_);
+    for (char c = 0; c < 128; c++) {
+      if (Character.isWhitespace(c)) {
+        CLASS[c] |= WHITE;
+      }
+      if ('a' <= c && c <= 'z' || 'A' <= c && c <= 'Z') {
+        CLASS[c] |= LETTER | NAME;
+      }
+      if ('0' <= c && c <= '9') {
+        CLASS[c] |= DIGIT | NAME;
+      }
+    }
+    CLASS['_'] |= NAME;
+  }
+
+  /**
+   * Characters of the name or number being read.
+   */
+  private char[] buf = new char[32];
+
+  /**
+   * Returns the keyword spelled by name[0..len), or ident. Length and first
+   * character select the only keyword it can be, which is then compared.
+   */
+  private static Token.Kind keyword(char[] name, int len) {
+    Token.Kind kind = switch (len) {
+      case 2 -> name[0] == 'i' ? if_ : ident;
+      case 3 -> name[0] == 'n' ? new_ : ident;
+      case 4 -> switch (name[0]) {
+        case 'e' -> else_;
+        case 'r' -> read;
+        case 'v' -> void_;
+        default -> ident;
+      };
+      case 5 -> switch (name[0]) {
+        case 'b' -> break_;
+        case 'c' -> class_;
+        case 'f' -> final_;
+        case 'p' -> print;
+        case 'w' -> while_;
+        default -> ident;
+      };
+      case 6 -> name[0] == 'r' ? return_ : ident;
+      case 7 -> name[0] == 'p' ? program : ident;
+      default -> ident;
+    };
+    if (kind != ident) {
+      String label = kind.label();
+      for (int i = 1; i < len; i++) {
+        if (name[i] != label.charAt(i)) {
+          return ident;
+        }
+      }
+    }
+    return kind;
   }
 
   /**
    * Returns next token. To be used by parser.
    */
   public Token next() {
-    while (Character.isWhitespace(ch)){
+    while (is(ch, WHITE)){
       nextCh();
     }
     Token t = new Token(none, line, col);
+    tokenPos = pos - 1;
+    if (is(ch, LETTER)) {
+      readName(t);
+      return t;
+    }
+    if (is(ch, DIGIT)) {
+      readNumber(t);
+      return t;
+    }
     switch (ch) {
-      case 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z' -> readName(t);
-      case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> readNumber(t);
       case '\'' -> readCharCon(t);
       case '+' -> {
         nextCh();
@@ -260,8 +357,13 @@ public class Scanner {
    * in sync with reading position.
    */
   private void nextCh() {
+    pos++;
     try {
-      ch = (char) in.read();
+      if (inPos == inLen) {
+        inLen = in.read(input, 0, input.length);
+        inPos = 0;
+      }
+      ch = inLen < 0 ? EOF : input[inPos++];
       if (ch == LF){
         line++;
         col = 0;
@@ -274,24 +376,22 @@ public class Scanner {
   }
 
   private void readName(Token t){
-    StringBuilder sb = new StringBuilder();
+    int len = 0;
     do {
-      sb.append(ch);
-      nextCh();
-    } while (isLetter(ch) || isDigit(ch) || ch == '_');
-    t.val = sb.toString();
-    t.kind = keywords.getOrDefault(t.val, ident);
+      len = append(len);
+    } while (is(ch, NAME));
+    t.kind = keyword(buf, len);
+    t.val = t.kind == ident ? new String(buf, 0, len) : t.kind.label();
   }
 
   private void readNumber(Token t){
-    StringBuilder sb = new StringBuilder();
+    int len = 0;
     do {
-      sb.append(ch);
-      nextCh();
-    } while (isDigit(ch));
+      len = append(len);
+    } while (is(ch, DIGIT));
 
     t.kind = number;
-    t.val = sb.toString();
+    t.val = new String(buf, 0, len);
     try {
       t.numVal = Integer.parseInt(t.val);
     } catch(NumberFormatException e){
@@ -299,6 +399,19 @@ public class Scanner {
     }
   }
 
+  /**
+   * Stores ch at buf[len], reads the next character and returns the new
+   * length.
+   */
+  private int append(int len) {
+    if (len == buf.length) {
+      buf = Arrays.copyOf(buf, len * 2);
+    }
+    buf[len] = ch;
+    nextCh();
+    return len + 1;
+  }
+
   private void readCharCon(Token t){
     nextCh();
     t.kind = charConst;
@@ -371,12 +484,14 @@ public class Scanner {
 
   // ...
 
-  private boolean isLetter(char c) {
-    return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z';
-  }
-
-  private boolean isDigit(char c) {
-    return '0' <= c && c <= '9';
+  /**
+   * True if c belongs to the class k.
+   */
+  private static boolean is(char c, byte k) {
+    if (c < 128) {
+      return (CLASS[c] & k) != 0;
+    }
+    return k == WHITE && Character.isWhitespace(c);
   }
 
   // ================================================
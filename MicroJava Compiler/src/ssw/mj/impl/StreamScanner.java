@@ -0,0 +1,41 @@
+package ssw.mj.impl;
+
+import ssw.mj.scanner.Token;
+
+import java.io.Reader;
+
+/**
+ * Delivers the tokens of a {@link TokenStream} as a scanner. The errors of
+ * a token are reported when it is returned. A {@link Parser} reading from
+ * it takes the token attributes from the stream's arrays instead.
+ */
+public class StreamScanner extends Scanner {
+
+  public final TokenStream tokens;
+
+  // index of the token returned next and of its first error
+  private int next, nextError;
+
+  public StreamScanner(TokenStream tokens) {
+    super(Reader.nullReader());
+    this.tokens = tokens;
+  }
+
+  /**
+   * Moves to the next token, reports its errors and returns its index. The
+   * end of file is returned again after the last token, like Scanner does.
+   */
+  int advance() {
+    int i = Math.min(next, tokens.size() - 1);
+    if (next < tokens.size()) {
+      nextError = tokens.report(i, errors, nextError);
+      next++;
+    }
+    return i;
+  }
+
+  @Override
+  public Token next() {
+    return tokens.token(advance());
+  }
+}
@@ -4,6 +4,9 @@ import ssw.mj.symtab.Obj;
 import ssw.mj.symtab.Scope;
 import ssw.mj.symtab.Struct;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static ssw.mj.Errors.Message.*;
 
 public final class Tab {
@@ -30,6 +33,12 @@ public final class Tab {
    */
   private int curLevel = -2;
 
+  /**
+   * Methods and global variables declared by modules (see
+   * {@link ObjectModule#declare(Tab)}), the index is their import number.
+   */
+  final List<Obj> imports = new ArrayList<>();
+
   public Tab(Parser p) {
     parser = p;
     noObj = new Obj(Obj.Kind.Var, "noObj", noType);
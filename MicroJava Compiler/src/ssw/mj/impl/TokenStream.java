@@ -0,0 +1,254 @@
+package ssw.mj.impl;
+
+import ssw.mj.Errors;
+import ssw.mj.scanner.Token;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ssw.mj.scanner.Token.Kind.eof;
+
+/**
+ * The tokens of a source up to and including the end of file, kept in one
+ * array per attribute: kind ordinal, offset, line, col, numVal and the
+ * intern id of val. Equal spellings have the same id, -1 stands for null.
+ * The arrays are split into pages of fixed size, so growing never copies
+ * the tokens scanned earlier. The errors the scanner reported are kept with
+ * the token they belong to.
+ * <p>
+ * A {@link Parser} reads a stream through a {@link StreamScanner}, which
+ * also delivers its tokens as Token objects.
+ */
+public final class TokenStream {
+
+  public static final int PAGE_BITS = 12, // log2 of the tokens per page
+          PAGE_SIZE = 1 << PAGE_BITS,
+          PAGE_MASK = PAGE_SIZE - 1;
+
+  private static final Token.Kind[] KINDS = Token.Kind.values();
+
+  /**
+   * Attributes of the tokens of one page. The first page grows up to
+   * PAGE_SIZE tokens, so short streams stay small.
+   */
+  private static final class Page {
+    final byte[] kind;
+    final int[] offset, line, col, numVal, val;
+
+    Page(int n) {
+      kind = new byte[n];
+      offset = new int[n];
+      line = new int[n];
+      col = new int[n];
+      numVal = new int[n];
+      val = new int[n];
+    }
+
+    Page(Page p, int n) {
+      kind = Arrays.copyOf(p.kind, n);
+      offset = Arrays.copyOf(p.offset, n);
+      line = Arrays.copyOf(p.line, n);
+      col = Arrays.copyOf(p.col, n);
+      numVal = Arrays.copyOf(p.numVal, n);
+      val = Arrays.copyOf(p.val, n);
+    }
+  }
+
+  private Page[] pages = new Page[4];
+  private int size;
+
+  // spellings by intern id
+  private String[] spellings = new String[64];
+  private int nSpellings;
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  /**
+   * Errors reported while scanning, in the order of the tokens, and the
+   * index of the token each one belongs to.
+   */
+  private final Errors errors = new Errors();
+  private int[] errorTokens = new int[8];
+
+  TokenStream() {
+    errors.limit = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Scans the tokens up to the end of file. The error limit of the scanner
+   * is lifted, its errors are recorded with the tokens.
+   */
+  public static TokenStream of(Scanner scanner) {
+    TokenStream tokens = new TokenStream();
+    scanner.errors.limit = Integer.MAX_VALUE;
+    Token t;
+    do {
+      int e = scanner.errors.numErrors();
+      t = scanner.next();
+      tokens.add(t, scanner.tokenPos(), scanner.errors, e);
+    } while (t.kind != eof);
+    return tokens;
+  }
+
+  /**
+   * Number of tokens up to and including the end of file.
+   */
+  public int size() {
+    return size;
+  }
+
+  // ----- token i, 0 <= i < size()
+
+  public Token.Kind kind(int i) {
+    return KINDS[page(i).kind[i & PAGE_MASK]];
+  }
+
+  /**
+   * Offset of the first character of token i in the source.
+   */
+  public int offset(int i) {
+    return page(i).offset[i & PAGE_MASK];
+  }
+
+  public int line(int i) {
+    return page(i).line[i & PAGE_MASK];
+  }
+
+  public int col(int i) {
+    return page(i).col[i & PAGE_MASK];
+  }
+
+  public int numVal(int i) {
+    return page(i).numVal[i & PAGE_MASK];
+  }
+
+  /**
+   * Intern id of the spelling of token i, -1 if it has none.
+   */
+  public int valId(int i) {
+    return page(i).val[i & PAGE_MASK];
+  }
+
+  public String val(int i) {
+    int id = valId(i);
+    return id < 0 ? null : spellings[id];
+  }
+
+  /**
+   * Token i as an object.
+   */
+  public Token token(int i) {
+    Token t = new Token(kind(i), line(i), col(i));
+    t.numVal = numVal(i);
+    t.val = val(i);
+    return t;
+  }
+
+  private Page page(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("token " + i + " of " + size);
+    }
+    return pages[i >>> PAGE_BITS];
+  }
+
+  /**
+   * Reports the errors of token i to errors, starting with the recorded
+   * error e. Returns the first error of the tokens after i.
+   */
+  int report(int i, Errors errors, int e) {
+    for (; e < this.errors.numErrors() && errorTokens[e] <= i; e++) {
+      errors.error(this.errors.line(e), this.errors.col(e), this.errors.message(e), this.errors.params(e));
+    }
+    return e;
+  }
+
+  /**
+   * Appends t and the errors from index from on of scanned, which were
+   * reported while scanning it.
+   */
+  void add(Token t, int offset, Errors scanned, int from) {
+    for (int e = from; e < scanned.numErrors(); e++) {
+      error(scanned.line(e), scanned.col(e), scanned.message(e), scanned.params(e), size);
+    }
+    Page p = room();
+    int k = size & PAGE_MASK;
+    p.kind[k] = (byte) t.kind.ordinal();
+    p.offset[k] = offset;
+    p.line[k] = t.line;
+    p.col[k] = t.col;
+    p.numVal[k] = t.numVal;
+    p.val[k] = id(t.val);
+    size++;
+  }
+
+  /**
+   * Appends the tokens from i on of from and their errors, moved down by
+   * lines.
+   */
+  void addAll(TokenStream from, int i, int lines) {
+    int[] ids = new int[from.nSpellings];
+    for (int k = 0; k < ids.length; k++) {
+      ids[k] = id(from.spellings[k]);
+    }
+    for (int e = 0; e < from.errors.numErrors(); e++) {
+      if (from.errorTokens[e] >= i) {
+        Errors fe = from.errors;
+        error(fe.line(e) + lines, fe.col(e), fe.message(e), fe.params(e), size + from.errorTokens[e] - i);
+      }
+    }
+    for (; i < from.size; i++) {
+      Page fp = from.pages[i >>> PAGE_BITS];
+      int fk = i & PAGE_MASK;
+      Page p = room();
+      int k = size & PAGE_MASK;
+      p.kind[k] = fp.kind[fk];
+      p.offset[k] = fp.offset[fk];
+      p.line[k] = fp.line[fk] + lines;
+      p.col[k] = fp.col[fk];
+      p.numVal[k] = fp.numVal[fk];
+      p.val[k] = fp.val[fk] < 0 ? -1 : ids[fp.val[fk]];
+      size++;
+    }
+  }
+
+  /**
+   * Page with room for token size.
+   */
+  private Page room() {
+    int n = size >>> PAGE_BITS;
+    if (n == pages.length) {
+      pages = Arrays.copyOf(pages, n * 2);
+    }
+    Page p = pages[n];
+    if (p == null) {
+      p = pages[n] = new Page(n == 0 ? 16 : PAGE_SIZE);
+    } else if ((size & PAGE_MASK) == p.kind.length) {
+      p = pages[n] = new Page(p, Math.min(p.kind.length * 2, PAGE_SIZE));
+    }
+    return p;
+  }
+
+  private void error(int line, int col, Errors.Message msg, Object[] params, int token) {
+    int n = errors.numErrors();
+    if (n == errorTokens.length) {
+      errorTokens = Arrays.copyOf(errorTokens, n * 2);
+    }
+    errorTokens[n] = token;
+    errors.error(line, col, msg, params);
+  }
+
+  private int id(String s) {
+    if (s == null) {
+      return -1;
+    }
+    Integer id = ids.putIfAbsent(s, nSpellings);
+    if (id != null) {
+      return id;
+    }
+    if (nSpellings == spellings.length) {
+      spellings = Arrays.copyOf(spellings, nSpellings * 2);
+    }
+    spellings[nSpellings] = s;
+    return nSpellings++;
+  }
+}
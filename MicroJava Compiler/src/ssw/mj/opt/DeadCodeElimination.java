@@ -0,0 +1,115 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.BasicBlock;
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Removes unreachable code: statements after return and break, the exit
+ * or trap appended to methods that always return, and branches of
+ * conditions comparing two constants. Conditional jumps whose operands are
+ * both pushed by constant instructions of the same block are decided at
+ * compile time first, then the blocks reachable from the entry are kept.
+ */
+final class DeadCodeElimination implements Optimizer.MethodPass {
+
+  private static final int NONE = 0, ALWAYS = 1, NEVER = 2; // outcome of a folded branch
+
+  private List<List<Insn>> out; // kept instructions per block, null if unreachable
+  private int[] fold;
+
+  @Override
+  public List<Insn> rewrite(ControlFlowGraph cfg) {
+    Insn[] insns = Optimizer.decode(cfg);
+    List<BasicBlock> blocks = cfg.blocks();
+    out = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+    fold = new int[blocks.size()];
+
+    List<List<Insn>> code = new ArrayList<>();
+    for (BasicBlock b : blocks) {
+      code.add(Optimizer.instructions(insns, cfg, b));
+      fold[b.id] = decide(code.get(b.id));
+    }
+
+    // reachability with folded branches
+    BasicBlock[] work = new BasicBlock[blocks.size()];
+    int n = 0;
+    work[n++] = cfg.entry();
+    out.set(0, code.get(0));
+    while (n > 0) {
+      BasicBlock b = work[--n];
+      for (BasicBlock s : b.succs) {
+        boolean taken = s == b.target && fold[b.id] != NEVER || s == b.fallThrough && fold[b.id] != ALWAYS;
+        if (taken && out.get(s.id) == null) {
+          out.set(s.id, code.get(s.id));
+          work[n++] = s;
+        }
+      }
+    }
+
+    for (BasicBlock b : blocks) {
+      List<Insn> list = out.get(b.id);
+      if (list != null && fold[b.id] != NONE) {
+        list = new ArrayList<>(list.subList(0, list.size() - 3));
+        if (fold[b.id] == ALWAYS) {
+          list.add(new Insn(OpCode.jmp));
+        }
+        out.set(b.id, list);
+      }
+    }
+
+    List<Insn> result = new ArrayList<>();
+    for (BasicBlock b : blocks) {
+      List<Insn> list = out.get(b.id);
+      if (list == null) {
+        continue;
+      }
+      if (!list.isEmpty() && b.target != null && fold[b.id] != NEVER) {
+        list.get(list.size() - 1).target = first(b.target);
+      }
+      result.addAll(list);
+    }
+    return result;
+  }
+
+  /**
+   * First kept instruction at or after the start of the reachable block b.
+   */
+  private Insn first(BasicBlock b) {
+    while (out.get(b.id).isEmpty()) {
+      b = b.fallThrough; // only a branch that is never taken leaves a block empty
+    }
+    return out.get(b.id).get(0);
+  }
+
+  /**
+   * Outcome of the conditional jump ending the block if both operands are constants.
+   */
+  private static int decide(List<Insn> block) {
+    int n = block.size();
+    if (n < 3) {
+      return NONE;
+    }
+    Insn jump = block.get(n - 1);
+    Insn x = block.get(n - 3);
+    Insn y = block.get(n - 2);
+    if (!ControlFlowGraph.isJump(jump.op) || jump.op == OpCode.jmp || !x.isConst() || !y.isConst()) {
+      return NONE;
+    }
+    int a = x.constValue(), b = y.constValue();
+    boolean cond = switch (jump.op) {
+      case jeq -> a == b;
+      case jne -> a != b;
+      case jlt -> a < b;
+      case jle -> a <= b;
+      case jgt -> a > b;
+      case jge -> a >= b;
+      default -> throw new IllegalStateException();
+    };
+    return cond ? ALWAYS : NEVER;
+  }
+}
@@ -0,0 +1,140 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands calls of small methods during code generation. The code of the
+ * called method is copied to the call site: the parameters are popped
+ * from the expression stack into caller locals starting at a given base,
+ * the other locals are set to 0, local accesses are moved by base, and
+ * returns jump to the end of the copy with the result left on the stack.
+ */
+public final class Inliner {
+
+  /**
+   * Size limit in bytes used by -O and -Oinline.
+   */
+  public static final int DEFAULT_LIMIT = 32;
+
+  private static final int MAX_LOCALS = 127;
+
+  private Inliner() {
+  }
+
+  /**
+   * Number of locals of the method at adr.
+   */
+  public static int locals(byte[] code, int adr) {
+    return code[adr + 2];
+  }
+
+  /**
+   * Returns the code replacing a call of the method at adr, to be placed
+   * at address at, or null if the method is recursive, larger than limit
+   * bytes (without enter) or its locals do not fit behind base.
+   */
+  public static byte[] expand(byte[] code, int codeSize, int adr, int at, int base, int limit) {
+    int nPars = code[adr + 1];
+    int nLocals = code[adr + 2];
+    if (base + nLocals > MAX_LOCALS) {
+      return null;
+    }
+    int end = adr + OpCode.enter.size();
+    while (end < codeSize && code[end] != OpCode.enter.code()) {
+      OpCode op = OpCode.get(code[end]);
+      if (op == null || end - adr > limit + OpCode.enter.size()) {
+        return null;
+      }
+      end += op.size();
+    }
+    if (end - adr > limit + OpCode.enter.size()) {
+      return null;
+    }
+
+    Insn[] body = new Insn[end - adr];
+    for (int pc = adr + OpCode.enter.size(); pc < end; pc += body[pc - adr].size()) {
+      Insn i = Insn.decode(code, pc);
+      if (i.op == OpCode.call && i.callee == adr) {
+        return null; // recursive
+      }
+      boolean pair = i.op == OpCode.exit ? pc + 1 < end && code[pc + 1] == OpCode.return_.code()
+              : i.op != OpCode.return_ || code[pc - 1] == OpCode.exit.code();
+      if (!pair) {
+        return null;
+      }
+      body[pc - adr] = i;
+    }
+    for (Insn i : body) {
+      if (i != null && ControlFlowGraph.isJump(i.op)) {
+        int target = ControlFlowGraph.jumpTarget(code, i.pc);
+        if (target <= adr || target >= end || body[target - adr] == null) {
+          return null;
+        }
+        i.target = body[target - adr];
+      }
+    }
+
+    List<Insn> out = new ArrayList<>();
+    for (int n = nPars - 1; n >= 0; n--) {
+      out.add(Insn.store(base + n));
+    }
+    for (int n = nPars; n < nLocals; n++) {
+      out.add(new Insn(OpCode.const_0));
+      out.add(Insn.store(base + n));
+    }
+    Insn exit = new Insn(OpCode.nop); // stands for the end, not emitted
+    Insn[] moved = new Insn[body.length]; // first instruction generated for an original one
+    List<Integer> pending = new ArrayList<>();
+    for (int pc = adr + OpCode.enter.size(); pc < end; pc += body[pc - adr].size()) {
+      Insn i = body[pc - adr];
+      Insn r = switch (i.op) {
+        case exit -> null;
+        case return_ -> pc + 1 == end ? null : Insn.jump(OpCode.jmp, exit);
+        case load -> Insn.load(base + i.a);
+        case load_0, load_1, load_2, load_3 -> Insn.load(base + i.op.code() - OpCode.load_0.code());
+        case load_4, load_5, load_6, load_7 -> Insn.load(base + i.op.code() - OpCode.load_4.code() + 4);
+        case store -> Insn.store(base + i.a);
+        case store_0, store_1, store_2, store_3 -> Insn.store(base + i.op.code() - OpCode.store_0.code());
+        case store_4, store_5, store_6, store_7 -> Insn.store(base + i.op.code() - OpCode.store_4.code() + 4);
+        case inc -> new Insn(OpCode.inc, base + i.a, i.b);
+        default -> i.copy();
+      };
+      pending.add(pc);
+      if (r != null) {
+        for (int p : pending) {
+          moved[p - adr] = r;
+        }
+        pending.clear();
+        out.add(r);
+      }
+    }
+    for (int p : pending) {
+      moved[p - adr] = exit;
+    }
+
+    int size = 0;
+    for (Insn i : out) {
+      if (ControlFlowGraph.isJump(i.op) && i.target != exit) {
+        i.target = moved[i.target.pc - adr];
+      }
+      i.adr = size;
+      size += i.size();
+    }
+    exit.adr = size;
+    byte[] buf = new byte[size];
+    for (Insn i : out) {
+      int offset = 0;
+      if (i.op == OpCode.call) {
+        offset = i.callee - (at + i.adr);
+      } else if (ControlFlowGraph.isJump(i.op)) {
+        offset = i.target.adr - i.adr;
+      }
+      i.emit(buf, offset);
+    }
+    return buf;
+  }
+}
@@ -0,0 +1,181 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code.OpCode;
+
+/**
+ * Decoded instruction of a method that is being rewritten. Jumps refer to
+ * their target instruction, calls to the original address of the called
+ * method, so instructions can be added, moved and removed before the code
+ * is laid out again by the {@link Optimizer}.
+ */
+public final class Insn {
+
+  public final OpCode op;
+
+  /**
+   * Operands: the single operand of load, store, getstatic, putstatic,
+   * getfield, putfield, const, bipush, sipush, new, newarray and trap; slot
+   * and increment of inc; address and increment of incstatic and incfield;
+   * parameters and locals of enter.
+   */
+  public final int a, b;
+
+  /**
+   * Target instruction of a jump.
+   */
+  public Insn target;
+
+  /**
+   * Original address of the method called by a call instruction.
+   */
+  public int callee;
+
+  /**
+   * Original address of the instruction, -1 for new instructions.
+   */
+  public final int pc;
+
+  /**
+   * Address after layout.
+   */
+  int adr;
+
+  private Insn(OpCode op, int a, int b, int pc) {
+    this.op = op;
+    this.a = a;
+    this.b = b;
+    this.pc = pc;
+  }
+
+  public Insn(OpCode op) {
+    this(op, 0, 0, -1);
+  }
+
+  public Insn(OpCode op, int a) {
+    this(op, a, 0, -1);
+  }
+
+  public Insn(OpCode op, int a, int b) {
+    this(op, a, b, -1);
+  }
+
+  /**
+   * New jump instruction to target.
+   */
+  public static Insn jump(OpCode op, Insn target) {
+    Insn i = new Insn(op);
+    i.target = target;
+    return i;
+  }
+
+  /**
+   * New instruction with the same operation and operands.
+   */
+  public Insn copy() {
+    Insn i = new Insn(op, a, b, -1);
+    i.target = target;
+    i.callee = callee;
+    return i;
+  }
+
+  /**
+   * Instruction loading local variable n.
+   */
+  public static Insn load(int n) {
+    return n < 4 ? new Insn(OpCode.get(OpCode.load_0.code() + n)) : new Insn(OpCode.load, n);
+  }
+
+  /**
+   * Instruction storing into local variable n.
+   */
+  public static Insn store(int n) {
+    return n < 4 ? new Insn(OpCode.get(OpCode.store_0.code() + n)) : new Insn(OpCode.store, n);
+  }
+
+  /**
+   * Decodes the instruction at pc. The target of a jump has to be set by
+   * the caller.
+   */
+  public static Insn decode(byte[] code, int pc) {
+    OpCode op = OpCode.get(code[pc]);
+    Insn i = switch (op) {
+      case load, store, trap, bipush -> new Insn(op, code[pc + 1], 0, pc);
+      case newarray -> new Insn(op, code[pc + 1] & 0xff, 0, pc);
+      case getstatic, putstatic, getfield, putfield, new_, sipush -> new Insn(op, get2(code, pc + 1), 0, pc);
+      case incstatic, incfield -> new Insn(op, get2(code, pc + 1), get2(code, pc + 3), pc);
+      case inc, enter -> new Insn(op, code[pc + 1], code[pc + 2], pc);
+      case const_ -> new Insn(op, (get2(code, pc + 1) << 16) | (get2(code, pc + 3) & 0xffff), 0, pc);
+      default -> new Insn(op, 0, 0, pc);
+    };
+    if (op == OpCode.call) {
+      i.callee = ControlFlowGraph.jumpTarget(code, pc);
+    }
+    return i;
+  }
+
+  private static int get2(byte[] code, int pos) {
+    return (short) (((code[pos] & 0xff) << 8) | (code[pos + 1] & 0xff));
+  }
+
+  public int size() {
+    return op.size();
+  }
+
+  /**
+   * Value pushed by a constant instruction.
+   */
+  public int constValue() {
+    return switch (op) {
+      case const_0, const_1, const_2, const_3, const_4, const_5 -> op.code() - OpCode.const_0.code();
+      case const_m1 -> -1;
+      case const_, bipush, sipush -> a;
+      default -> throw new IllegalStateException(op + " is no constant");
+    };
+  }
+
+  public boolean isConst() {
+    return switch (op) {
+      case const_0, const_1, const_2, const_3, const_4, const_5, const_m1, const_, bipush, sipush -> true;
+      default -> false;
+    };
+  }
+
+  /**
+   * Writes the instruction at its layout address. Jump and call offsets
+   * are passed in by the caller.
+   */
+  void emit(byte[] buf, int offset) {
+    int p = adr;
+    buf[p++] = (byte) op.code();
+    switch (op) {
+      case load, store, newarray, trap, bipush -> buf[p] = (byte) a;
+      case getstatic, putstatic, getfield, putfield, new_, sipush -> put2(buf, p, a);
+      case incstatic, incfield -> {
+        put2(buf, p, a);
+        put2(buf, p + 2, b);
+      }
+      case inc, enter -> {
+        buf[p] = (byte) a;
+        buf[p + 1] = (byte) b;
+      }
+      case const_ -> {
+        put2(buf, p, a >> 16);
+        put2(buf, p + 2, a);
+      }
+      case jmp, jeq, jne, jlt, jle, jgt, jge, call -> put2(buf, p, offset);
+      default -> {
+      }
+    }
+  }
+
+  private static void put2(byte[] buf, int pos, int x) {
+    buf[pos] = (byte) (x >> 8);
+    buf[pos + 1] = (byte) x;
+  }
+
+  @Override
+  public String toString() {
+    return (pc >= 0 ? pc + ": " : "") + op.cleanName();
+  }
+}
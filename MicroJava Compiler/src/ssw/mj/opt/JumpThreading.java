@@ -0,0 +1,118 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retargets jumps to the final destination of jmp chains, inverts
+ * conditional jumps over an unconditional one ("jeq L; jmp X; L:" becomes
+ * "jne X; L:"), and removes jumps to the next instruction as well as jumps
+ * that can no longer be reached.
+ */
+final class JumpThreading implements Optimizer.MethodPass {
+
+  private final Map<Insn, Integer> refs = new IdentityHashMap<>(); // number of jumps to an instruction
+
+  @Override
+  public List<Insn> rewrite(ControlFlowGraph cfg) {
+    List<Insn> code = new ArrayList<>();
+    for (Insn i : Optimizer.decode(cfg)) {
+      if (i != null) {
+        code.add(i);
+      }
+    }
+    refs.clear();
+    for (Insn i : code) {
+      if (i.target != null) {
+        i.target = destination(i.target, code.size());
+        refs.merge(i.target, 1, Integer::sum);
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int k = 0; k + 1 < code.size(); k++) {
+        Insn i = code.get(k);
+        Insn next = code.get(k + 1);
+        if (i.op == OpCode.jmp && i.target == next && !refs.containsKey(i)) {
+          // jump to the next instruction
+          unref(i.target);
+          code.remove(k);
+          changed = true;
+        } else if (isConditional(i.op) && next.op == OpCode.jmp && !refs.containsKey(next)
+                && k + 2 < code.size() && i.target == code.get(k + 2)) {
+          // conditional jump over an unconditional one
+          unref(i.target);
+          Insn inverted = Insn.jump(invert(i.op), next.target);
+          replace(code, i, inverted);
+          code.set(k, inverted);
+          code.remove(k + 1);
+          changed = true;
+        } else if (isUnconditional(i.op) && !refs.containsKey(next)) {
+          // next instruction is unreachable
+          if (next.target != null) {
+            unref(next.target);
+          }
+          code.remove(k + 1);
+          changed = true;
+        }
+      }
+    }
+    return code;
+  }
+
+  /**
+   * Final destination when following unconditional jumps, stops at cycles.
+   */
+  private static Insn destination(Insn target, int limit) {
+    for (int n = 0; target.op == OpCode.jmp && target.target != null && n < limit; n++) {
+      target = target.target;
+    }
+    return target;
+  }
+
+  /**
+   * Redirects the jumps to old to replacement.
+   */
+  private void replace(List<Insn> code, Insn old, Insn replacement) {
+    Integer n = refs.remove(old);
+    if (n != null) {
+      for (Insn i : code) {
+        if (i.target == old) {
+          i.target = replacement;
+        }
+      }
+      refs.put(replacement, n);
+    }
+  }
+
+  private void unref(Insn target) {
+    refs.computeIfPresent(target, (t, n) -> n > 1 ? n - 1 : null);
+  }
+
+  private static boolean isConditional(OpCode op) {
+    return ControlFlowGraph.isJump(op) && op != OpCode.jmp;
+  }
+
+  private static boolean isUnconditional(OpCode op) {
+    return op == OpCode.jmp || op == OpCode.return_ || op == OpCode.trap;
+  }
+
+  static OpCode invert(OpCode op) {
+    return switch (op) {
+      case jeq -> OpCode.jne;
+      case jne -> OpCode.jeq;
+      case jlt -> OpCode.jge;
+      case jge -> OpCode.jlt;
+      case jle -> OpCode.jgt;
+      case jgt -> OpCode.jle;
+      default -> throw new IllegalArgumentException(op + " is no conditional jump");
+    };
+  }
+}
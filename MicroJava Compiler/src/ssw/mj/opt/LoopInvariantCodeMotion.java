@@ -0,0 +1,280 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.BasicBlock;
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.cfg.Loop;
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hoists loop invariant expressions out of loops. An expression is a
+ * sequence of at least two instructions of one block that computes a
+ * single value from constants, locals and statics the loop does not
+ * store to, and heap data of a kind the loop does not write. It is
+ * computed once into a new local variable in a preheader placed right
+ * before the loop header, and the sequence in the loop is replaced by a
+ * load of that variable.
+ * <p>
+ * Expressions that can trap (null reference, index out of bounds,
+ * division by zero) are only taken from the header, where nothing that
+ * traps or has a side effect precedes them. The header runs before
+ * every iteration, so such an expression fails at the same point as
+ * before.
+ */
+final class LoopInvariantCodeMotion implements Optimizer.MethodPass {
+
+  private static final int MAX_LOCALS = 127;
+
+  /**
+   * Value on the simulated expression stack: produced by the instructions
+   * start..end of the block, or unknown if start is -1.
+   */
+  private record Value(int start, int end, boolean invariant, boolean traps) {
+    static final Value UNKNOWN = new Value(-1, -1, false, false);
+  }
+
+  /**
+   * Instructions start..end of block that are hoisted into local variable temp.
+   */
+  private record Hoist(BasicBlock block, int start, int end, int temp) {
+  }
+
+  /**
+   * What a loop writes.
+   */
+  private static final class Writes {
+    final Set<Integer> locals = new HashSet<>();
+    final Set<Integer> statics = new HashSet<>();
+    final Set<Integer> fields = new HashSet<>();
+    boolean arrays, bytes, calls;
+  }
+
+  private List<List<Insn>> code; // instructions per block
+  private final Set<Insn> hoisted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  @Override
+  public List<Insn> rewrite(ControlFlowGraph cfg) {
+    Insn[] insns = Optimizer.decode(cfg);
+    List<BasicBlock> blocks = cfg.blocks();
+    code = new ArrayList<>();
+    for (BasicBlock b : blocks) {
+      code.add(new ArrayList<>(Optimizer.instructions(insns, cfg, b)));
+    }
+    hoisted.clear();
+
+    Insn enter = code.get(0).get(0);
+    int nLocals = enter.b;
+    List<Loop> loops = new ArrayList<>(cfg.loops());
+    loops.sort((x, y) -> y.depth - x.depth); // inner loops first
+    Map<Loop, List<Hoist>> hoists = new IdentityHashMap<>();
+    List<Hoist> all = new ArrayList<>();
+    for (Loop loop : loops) {
+      BasicBlock before = loop.header.id > 0 ? blocks.get(loop.header.id - 1) : null;
+      if (before == null || loop.contains(before) && before.fallThrough == loop.header) {
+        continue; // no place for a preheader
+      }
+      List<Hoist> list = new ArrayList<>();
+      Writes writes = writes(loop);
+      List<BasicBlock> body = new ArrayList<>(loop.blocks);
+      body.sort((x, y) -> x.id - y.id);
+      for (BasicBlock b : body) {
+        for (int[] range : candidates(b, loop, writes)) {
+          if (nLocals == MAX_LOCALS) {
+            break;
+          }
+          Hoist h = new Hoist(b, range[0], range[1], nLocals++);
+          for (int k = h.start; k <= h.end; k++) {
+            hoisted.add(code.get(b.id).get(k));
+          }
+          list.add(h);
+        }
+      }
+      if (!list.isEmpty()) {
+        hoists.put(loop, list);
+        all.addAll(list);
+      }
+    }
+    if (all.isEmpty()) {
+      List<Insn> result = new ArrayList<>();
+      for (BasicBlock b : blocks) {
+        result.addAll(code.get(b.id));
+      }
+      return result;
+    }
+
+    // preheaders, built before the loop bodies are changed
+    Map<BasicBlock, List<Insn>> preheaders = new IdentityHashMap<>();
+    for (Map.Entry<Loop, List<Hoist>> e : hoists.entrySet()) {
+      List<Insn> pre = new ArrayList<>();
+      for (Hoist h : e.getValue()) {
+        for (int k = h.start; k <= h.end; k++) {
+          pre.add(code.get(h.block.id).get(k).copy());
+        }
+        pre.add(Insn.store(h.temp));
+      }
+      preheaders.put(e.getKey().header, pre);
+    }
+
+    // replace the expressions by loads, from the back so that indices stay valid
+    all.sort((x, y) -> x.block != y.block ? x.block.id - y.block.id : y.start - x.start);
+    for (Hoist h : all) {
+      List<Insn> list = code.get(h.block.id);
+      list.subList(h.start, h.end + 1).clear();
+      list.add(h.start, Insn.load(h.temp));
+    }
+    code.get(0).set(0, new Insn(OpCode.enter, enter.a, nLocals));
+
+    List<Insn> result = new ArrayList<>();
+    for (BasicBlock b : blocks) {
+      List<Insn> pre = preheaders.get(b);
+      if (pre != null) {
+        result.addAll(pre);
+      }
+      result.addAll(code.get(b.id));
+      if (b.target != null) {
+        Insn jump = code.get(b.id).get(code.get(b.id).size() - 1);
+        pre = preheaders.get(b.target);
+        boolean backEdge = b.target.loop != null && b.target.loop.header == b.target && b.target.loop.contains(b);
+        jump.target = pre != null && !backEdge ? pre.get(0) : code.get(b.target.id).get(0);
+      }
+    }
+    return result;
+  }
+
+  private Writes writes(Loop loop) {
+    Writes w = new Writes();
+    for (BasicBlock b : loop.blocks) {
+      for (Insn i : code.get(b.id)) {
+        switch (i.op) {
+          case store, inc -> w.locals.add(i.a);
+          case store_0, store_1, store_2, store_3 -> w.locals.add(i.op.code() - OpCode.store_0.code());
+          case store_4, store_5, store_6, store_7 -> w.locals.add(i.op.code() - OpCode.store_4.code() + 4);
+          case putstatic, incstatic -> w.statics.add(i.a);
+          case putfield, incfield -> w.fields.add(i.a);
+          case astore -> w.arrays = true;
+          case bastore -> w.bytes = true;
+          case call -> w.calls = true;
+          default -> {
+          }
+        }
+      }
+    }
+    return w;
+  }
+
+  /**
+   * Ranges of maximal invariant expressions in block b worth hoisting.
+   */
+  private List<int[]> candidates(BasicBlock b, Loop loop, Writes w) {
+    List<Insn> list = code.get(b.id);
+    List<int[]> ranges = new ArrayList<>();
+    List<Value> stack = new ArrayList<>();
+    int safePrefix = b == loop.header ? 0 : -1; // instructions of the header before the first unsafe one
+    for (int k = 0; k < list.size(); k++) {
+      Insn i = list.get(k);
+      int pops = pops(i.op);
+      List<Value> operands = new ArrayList<>();
+      for (int n = 0; n < pops; n++) {
+        operands.add(0, stack.isEmpty() ? Value.UNKNOWN : stack.remove(stack.size() - 1));
+      }
+      if (i.op == OpCode.call) {
+        operands.addAll(0, stack); // parameters and values below them stay untouched
+        stack.clear();
+      }
+
+      boolean invariant = invariant(i, w) && !hoisted.contains(i);
+      boolean traps = traps(i.op);
+      int start = k;
+      int expected = k;
+      for (int n = operands.size() - 1; n >= 0 && invariant; n--) {
+        Value v = operands.get(n);
+        invariant = v.invariant && v.end == expected - 1;
+        expected = v.start;
+        start = v.start;
+        traps |= v.traps;
+      }
+      if (invariant && pushes(i.op) == 1) {
+        stack.add(new Value(start, k, true, traps));
+      } else {
+        for (Value v : operands) {
+          addCandidate(ranges, v, safePrefix);
+        }
+        for (int n = 0; n < pushes(i.op); n++) {
+          stack.add(Value.UNKNOWN);
+        }
+      }
+      if (safePrefix == k && !traps(i.op) && !sideEffect(i.op)) {
+        safePrefix = k + 1;
+      }
+    }
+    for (Value v : stack) {
+      addCandidate(ranges, v, safePrefix);
+    }
+    return ranges;
+  }
+
+  private static void addCandidate(List<int[]> ranges, Value v, int safePrefix) {
+    if (v.invariant && v.end > v.start && (!v.traps || v.start <= safePrefix)) {
+      ranges.add(new int[]{v.start, v.end});
+    }
+  }
+
+  private static boolean invariant(Insn i, Writes w) {
+    return switch (i.op) {
+      case const_0, const_1, const_2, const_3, const_4, const_5, const_m1, const_, bipush, sipush,
+              add, sub, mul, div, rem, neg, shl, shr, arraylength -> true;
+      case load -> !w.locals.contains(i.a);
+      case load_0, load_1, load_2, load_3 -> !w.locals.contains(i.op.code() - OpCode.load_0.code());
+      case load_4, load_5, load_6, load_7 -> !w.locals.contains(i.op.code() - OpCode.load_4.code() + 4);
+      case getstatic -> !w.calls && !w.statics.contains(i.a);
+      case getfield -> !w.calls && !w.fields.contains(i.a);
+      case aload -> !w.calls && !w.arrays;
+      case baload -> !w.calls && !w.bytes;
+      default -> false;
+    };
+  }
+
+  private static boolean traps(OpCode op) {
+    return switch (op) {
+      case div, rem, arraylength, getfield, aload, baload, putfield, astore, bastore, newarray, new_, call, trap,
+              incfield -> true;
+      default -> false;
+    };
+  }
+
+  private static boolean sideEffect(OpCode op) {
+    return switch (op) {
+      case store, store_0, store_1, store_2, store_3, store_4, store_5, store_6, store_7, putstatic, inc, incstatic,
+              read, bread, print, bprint -> true;
+      default -> false;
+    };
+  }
+
+  private static int pops(OpCode op) {
+    return switch (op) {
+      case store, store_0, store_1, store_2, store_3, store_4, store_5, store_6, store_7, putstatic, getfield, neg,
+              newarray, arraylength, pop, dup, incfield -> 1;
+      case putfield, add, sub, mul, div, rem, shl, shr, aload, baload, dup2, jeq, jne, jlt, jle, jgt, jge, print, bprint -> 2;
+      case astore, bastore -> 3;
+      default -> 0;
+    };
+  }
+
+  private static int pushes(OpCode op) {
+    return switch (op) {
+      case load, load_0, load_1, load_2, load_3, load_4, load_5, load_6, load_7, getstatic, getfield, const_0,
+              const_1, const_2, const_3, const_4, const_5, const_m1, const_, bipush, sipush, add, sub, mul, div, rem, neg, shl, shr, new_, newarray, aload, baload,
+              arraylength, read, bread -> 1;
+      case dup -> 2;
+      case dup2 -> 4;
+      default -> 0;
+    };
+  }
+}
@@ -0,0 +1,152 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.BasicBlock;
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.symtab.Obj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizes the generated code after parsing. Every pass rewrites the
+ * methods one by one, based on their control flow graph. Afterwards the
+ * code is laid out again: jump and call offsets are recomputed and the
+ * addresses of the methods and main are updated.
+ */
+public final class Optimizer {
+
+  /**
+   * Available passes, run in this order.
+   */
+  public enum Pass {
+    TailCalls, DeadCode, JumpThreading, LoopInvariants
+  }
+
+  /**
+   * Rewrites the code of one method. The returned instructions must start
+   * with the enter instruction of the method.
+   */
+  interface MethodPass {
+    List<Insn> rewrite(ControlFlowGraph cfg);
+  }
+
+  private final Code code;
+  private final List<Obj> methods = new ArrayList<>();
+
+  /**
+   * Creates an optimizer for code, whose methods are declared in decls. The
+   * addresses of these methods are updated by the passes.
+   */
+  public Optimizer(Code code, Collection<Obj> decls) {
+    this.code = code;
+    for (Obj o : decls) {
+      if (o.kind == Obj.Kind.Meth) {
+        methods.add(o);
+      }
+    }
+  }
+
+  public void run(Set<Pass> passes) {
+    if (passes.contains(Pass.TailCalls)) {
+      apply(new TailCallElimination());
+    }
+    if (passes.contains(Pass.DeadCode)) {
+      apply(new DeadCodeElimination());
+    }
+    if (passes.contains(Pass.JumpThreading)) {
+      apply(new JumpThreading());
+    }
+    if (passes.contains(Pass.LoopInvariants)) {
+      apply(new LoopInvariantCodeMotion());
+    }
+  }
+
+  /**
+   * Decodes the instructions of the method into an array indexed by
+   * pc - cfg.adr, with jump targets resolved.
+   */
+  static Insn[] decode(ControlFlowGraph cfg) {
+    Insn[] insns = new Insn[cfg.end - cfg.adr];
+    for (int pc = cfg.adr; pc < cfg.end; pc += insns[pc - cfg.adr].size()) {
+      insns[pc - cfg.adr] = Insn.decode(cfg.code, pc);
+    }
+    for (Insn i : insns) {
+      if (i != null && ControlFlowGraph.isJump(i.op)) {
+        i.target = insns[ControlFlowGraph.jumpTarget(cfg.code, i.pc) - cfg.adr];
+      }
+    }
+    return insns;
+  }
+
+  /**
+   * Instructions of block b in code order.
+   */
+  static List<Insn> instructions(Insn[] insns, ControlFlowGraph cfg, BasicBlock b) {
+    List<Insn> list = new ArrayList<>();
+    for (int pc = b.start; pc < b.end; pc += insns[pc - cfg.adr].size()) {
+      list.add(insns[pc - cfg.adr]);
+    }
+    return list;
+  }
+
+  private List<Integer> methodStarts(byte[] old) {
+    List<Integer> starts = new ArrayList<>();
+    for (int pc = 0; pc < code.pc; pc += OpCode.get(old[pc]).size()) {
+      if (old[pc] == OpCode.enter.code()) {
+        starts.add(pc);
+      }
+    }
+    return starts;
+  }
+
+  private void apply(MethodPass pass) {
+    byte[] old = code.toByteArray();
+    List<Integer> starts = methodStarts(old);
+    List<List<Insn>> bodies = new ArrayList<>();
+    for (int adr : starts) {
+      bodies.add(pass.rewrite(ControlFlowGraph.build(old, code.pc, adr)));
+    }
+
+    Map<Integer, Integer> moved = new HashMap<>();
+    int pc = 0;
+    for (int m = 0; m < bodies.size(); m++) {
+      moved.put(starts.get(m), pc);
+      for (Insn i : bodies.get(m)) {
+        i.adr = pc;
+        pc += i.size();
+      }
+    }
+
+    byte[] buf = new byte[Math.max(pc, 1)];
+    for (List<Insn> body : bodies) {
+      for (Insn i : body) {
+        int offset = 0;
+        if (i.op == OpCode.call) {
+          Integer callee = moved.get(i.callee);
+          if (callee == null) {
+            throw new IllegalStateException("call of unknown method at " + i.pc);
+          }
+          offset = callee - i.adr;
+        } else if (ControlFlowGraph.isJump(i.op)) {
+          offset = i.target.adr - i.adr;
+          if (offset != (short) offset) {
+            throw new IllegalStateException("jump distance too large at " + i.adr);
+          }
+        }
+        i.emit(buf, offset);
+      }
+    }
+
+    code.replace(buf, pc);
+    code.mainpc = moved.getOrDefault(code.mainpc, code.mainpc);
+    for (Obj meth : methods) {
+      meth.adr = moved.getOrDefault(meth.adr, meth.adr);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package ssw.mj.opt;
+
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces calls of the method itself whose result is returned right away
+ * ("call m; exit; return") by a jump to the instruction after enter. The
+ * arguments are popped into the parameters and the other locals are set
+ * to 0 as enter would do, so recursion in tail position runs in a single
+ * frame.
+ */
+final class TailCallElimination implements Optimizer.MethodPass {
+
+  @Override
+  public List<Insn> rewrite(ControlFlowGraph cfg) {
+    Insn[] insns = Optimizer.decode(cfg);
+    List<Insn> code = new ArrayList<>();
+    for (Insn i : insns) {
+      if (i != null) {
+        code.add(i);
+      }
+    }
+    Insn enter = code.get(0);
+    if (code.size() < 2) {
+      return code;
+    }
+    Insn body = code.get(1);
+    List<Insn> result = new ArrayList<>();
+    for (int k = 0; k < code.size(); k++) {
+      Insn i = code.get(k);
+      if (i.op == OpCode.call && i.callee == cfg.adr && k + 2 < code.size()
+              && code.get(k + 1).op == OpCode.exit && code.get(k + 2).op == OpCode.return_) {
+        List<Insn> loop = new ArrayList<>();
+        for (int n = enter.a - 1; n >= 0; n--) {
+          loop.add(Insn.store(n));
+        }
+        for (int n = enter.a; n < enter.b; n++) {
+          loop.add(new Insn(OpCode.const_0));
+          loop.add(Insn.store(n));
+        }
+        loop.add(Insn.jump(OpCode.jmp, body));
+        for (Insn j : code) {
+          if (j.target == i) {
+            j.target = loop.get(0);
+          }
+        }
+        result.addAll(loop);
+      } else {
+        result.add(i);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,67 @@
+package ssw.mj.vm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Heap stored as a byte array. Words are accessed through a big-endian int
+ * view, so the layout is identical to {@link IntArrayHeap}, but elements of
+ * byte arrays are read and written directly without shifting and masking.
+ */
+public final class ByteArrayHeap implements Heap {
+
+  private static final VarHandle WORD =
+          MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+  private final byte[] bytes;
+
+  public ByteArrayHeap(int size) {
+    if (size > Integer.MAX_VALUE / 4) {
+      throw new IllegalArgumentException("heap too large for a byte array: " + size + " words");
+    }
+    bytes = new byte[size * 4];
+  }
+
+  @Override
+  public int size() {
+    return bytes.length >> 2;
+  }
+
+  @Override
+  public int get(int adr) {
+    return (int) WORD.get(bytes, adr << 2);
+  }
+
+  @Override
+  public void put(int adr, int val) {
+    WORD.set(bytes, adr << 2, val);
+  }
+
+  @Override
+  public byte getByte(int adr, int idx) {
+    return bytes[(adr << 2) + idx];
+  }
+
+  @Override
+  public void putByte(int adr, int idx, byte b) {
+    bytes[(adr << 2) + idx] = b;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(bytes, (byte) 0);
+  }
+
+  @Override
+  public void copyTo(int adr, ByteBuffer dst) {
+    dst.put(bytes, adr << 2, dst.remaining() & ~3);
+  }
+
+  @Override
+  public void copyFrom(int adr, ByteBuffer src) {
+    src.get(bytes, adr << 2, src.remaining() & ~3);
+  }
+}
@@ -0,0 +1,105 @@
+package ssw.mj.vm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Heap stored outside of the Java heap in direct byte buffers, so the GC
+ * neither has to zero, promote nor scan it. The heap is split into chunks of
+ * 2^28 bytes, which allows heaps of up to 2^31 words (8 GB).
+ */
+public final class DirectHeap implements Heap {
+
+  private static final int CHUNK_BITS = 28;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS; // bytes per chunk
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int WORD_BITS = CHUNK_BITS - 2;
+  private static final int WORD_MASK = (1 << WORD_BITS) - 1;
+
+  /**
+   * Source for bulk zeroing.
+   */
+  private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(1 << 20);
+
+  private final ByteBuffer[] chunks;
+  private final int size;
+
+  public DirectHeap(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("negative heap size");
+    }
+    this.size = size;
+    long bytes = (long) size << 2;
+    chunks = new ByteBuffer[(int) ((bytes + CHUNK_SIZE - 1) >> CHUNK_BITS)];
+    for (int i = 0; i < chunks.length; i++) {
+      int len = (int) Math.min(CHUNK_SIZE, bytes - ((long) i << CHUNK_BITS));
+      chunks[i] = ByteBuffer.allocateDirect(len).order(ByteOrder.BIG_ENDIAN);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int get(int adr) {
+    return chunks[adr >>> WORD_BITS].getInt((adr & WORD_MASK) << 2);
+  }
+
+  @Override
+  public void put(int adr, int val) {
+    chunks[adr >>> WORD_BITS].putInt((adr & WORD_MASK) << 2, val);
+  }
+
+  @Override
+  public byte getByte(int adr, int idx) {
+    long pos = ((long) adr << 2) + idx;
+    return chunks[(int) (pos >>> CHUNK_BITS)].get((int) pos & CHUNK_MASK);
+  }
+
+  @Override
+  public void putByte(int adr, int idx, byte b) {
+    long pos = ((long) adr << 2) + idx;
+    chunks[(int) (pos >>> CHUNK_BITS)].put((int) pos & CHUNK_MASK, b);
+  }
+
+  @Override
+  public void clear() {
+    for (ByteBuffer chunk : chunks) {
+      for (int pos = 0; pos < chunk.capacity(); pos += ZEROS.capacity()) {
+        int n = Math.min(ZEROS.capacity(), chunk.capacity() - pos);
+        chunk.put(pos, ZEROS, 0, n);
+      }
+    }
+  }
+
+  @Override
+  public void copyTo(int adr, ByteBuffer dst) {
+    long pos = (long) adr << 2;
+    int len = dst.remaining() & ~3;
+    while (len > 0) {
+      ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+      int off = (int) pos & CHUNK_MASK;
+      int n = Math.min(len, chunk.capacity() - off);
+      dst.put(chunk.slice(off, n));
+      pos += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void copyFrom(int adr, ByteBuffer src) {
+    long pos = (long) adr << 2;
+    int len = src.remaining() & ~3;
+    while (len > 0) {
+      ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+      int off = (int) pos & CHUNK_MASK;
+      int n = Math.min(len, chunk.capacity() - off);
+      chunk.put(off, src, src.position(), n);
+      src.position(src.position() + n);
+      pos += n;
+      len -= n;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package ssw.mj.vm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency of the programs run by a {@link ProgramExecutor}.
+ * All methods may be called concurrently. Latencies are counted in a
+ * histogram with 16 linear sub-buckets per power of two, so percentiles are
+ * exact to 1/16 of their value.
+ */
+public final class ExecutionMetrics {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_COUNT);
+  private final long startNanos = System.nanoTime();
+
+  void submitted() {
+    submitted.increment();
+  }
+
+  /**
+   * Records a finished program that ran for nanos nanoseconds.
+   */
+  void finished(long nanos, boolean ok) {
+    (ok ? completed : failed).increment();
+    buckets.incrementAndGet(bucket(Math.max(0, nanos)));
+  }
+
+  private static int bucket(long v) {
+    if (v < SUB_COUNT) {
+      return (int) v;
+    }
+    int e = 63 - Long.numberOfLeadingZeros(v);
+    int sub = (int) (v >>> (e - SUB_BITS)) & (SUB_COUNT - 1);
+    return (e - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  private static long lowerBound(int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    int e = bucket / SUB_COUNT + SUB_BITS - 1;
+    return (long) (SUB_COUNT + bucket % SUB_COUNT) << (e - SUB_BITS);
+  }
+
+  public long submittedCount() {
+    return submitted.sum();
+  }
+
+  public long completedCount() {
+    return completed.sum();
+  }
+
+  public long failedCount() {
+    return failed.sum();
+  }
+
+  /**
+   * Programs submitted but not finished yet.
+   */
+  public long inFlight() {
+    return submitted.sum() - completed.sum() - failed.sum();
+  }
+
+  /**
+   * Finished programs per second since the metrics were created.
+   */
+  public double throughput() {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return (completed.sum() + failed.sum()) / seconds;
+  }
+
+  /**
+   * Latency in nanoseconds that p percent of the finished programs did not
+   * exceed, or 0 if no program finished yet.
+   */
+  public long percentile(double p) {
+    long total = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      total += buckets.get(i);
+    }
+    long rank = (long) Math.ceil(p / 100 * total);
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) {
+        return lowerBound(i);
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d completed, %d failed, %d in flight, %.0f programs/s, latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms",
+            completedCount(), failedCount(), inFlight(), throughput(),
+            percentile(50) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6);
+  }
+}
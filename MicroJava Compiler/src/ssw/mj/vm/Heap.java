@@ -0,0 +1,113 @@
+package ssw.mj.vm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storage of the dynamic heap of the MicroJava VM. Addresses are word
+ * addresses. Byte arrays (char[]) are stored four elements per word, element
+ * 0 in the most significant byte of the first word.
+ */
+public interface Heap {
+
+  /**
+   * Maximum number of bytes mapped at once when saving or loading a heap.
+   */
+  int MAP_CHUNK = 1 << 28;
+
+  /**
+   * Size of the heap in words.
+   */
+  int size();
+
+  /**
+   * Returns the word at adr.
+   */
+  int get(int adr);
+
+  /**
+   * Replaces the word at adr by val.
+   */
+  void put(int adr, int val);
+
+  /**
+   * Returns byte idx of the block starting at word adr.
+   */
+  byte getByte(int adr, int idx);
+
+  /**
+   * Replaces byte idx of the block starting at word adr by b.
+   */
+  void putByte(int adr, int idx, byte b);
+
+  /**
+   * Sets all words to 0.
+   */
+  void clear();
+
+  /**
+   * Copies the words starting at adr into dst (big-endian), until dst is full.
+   */
+  void copyTo(int adr, ByteBuffer dst);
+
+  /**
+   * Copies all remaining words of src (big-endian) into the heap, starting at adr.
+   */
+  void copyFrom(int adr, ByteBuffer src);
+
+  /**
+   * Writes the first words of the heap to the file channel, starting at
+   * position pos. The data is transferred through memory mapped buffers.
+   */
+  default void save(FileChannel ch, long pos, int words) throws IOException {
+    long len = (long) words << 2;
+    for (long done = 0; done < len; done += MAP_CHUNK) {
+      int n = (int) Math.min(MAP_CHUNK, len - done);
+      copyTo((int) (done >> 2), ch.map(FileChannel.MapMode.READ_WRITE, pos + done, n));
+    }
+  }
+
+  /**
+   * Reads words from the file channel into the heap, starting at heap
+   * address 0 and file position pos. The data is transferred through memory
+   * mapped buffers.
+   */
+  default void load(FileChannel ch, long pos, int words) throws IOException {
+    if (words > size()) {
+      throw new IllegalArgumentException("heap too small for " + words + " words");
+    }
+    long len = (long) words << 2;
+    for (long done = 0; done < len; done += MAP_CHUNK) {
+      int n = (int) Math.min(MAP_CHUNK, len - done);
+      copyFrom((int) (done >> 2), ch.map(FileChannel.MapMode.READ_ONLY, pos + done, n));
+    }
+  }
+
+  /**
+   * Saves the first words of the heap to file.
+   */
+  default void save(Path file, int words) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      save(ch, 0, words);
+    }
+  }
+
+  /**
+   * Loads a heap saved with {@link #save(Path, int)}. Returns the number of
+   * words read.
+   */
+  default int load(Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      long words = ch.size() >> 2;
+      if (words > size()) {
+        throw new IllegalArgumentException("heap too small for " + file);
+      }
+      load(ch, 0, (int) words);
+      return (int) words;
+    }
+  }
+}
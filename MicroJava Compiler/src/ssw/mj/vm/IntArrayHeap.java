@@ -0,0 +1,78 @@
+package ssw.mj.vm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Default heap, one int per word. Bytes are packed into words by shifting
+ * and masking.
+ */
+public final class IntArrayHeap implements Heap {
+
+  private final int[] words;
+
+  public IntArrayHeap(int size) {
+    words = new int[size];
+  }
+
+  @Override
+  public int size() {
+    return words.length;
+  }
+
+  @Override
+  public int get(int adr) {
+    return words[adr];
+  }
+
+  @Override
+  public void put(int adr, int val) {
+    words[adr] = val;
+  }
+
+  @Override
+  public byte getByte(int adr, int idx) {
+    return byteOf(words[adr + idx / 4], idx % 4);
+  }
+
+  @Override
+  public void putByte(int adr, int idx, byte b) {
+    words[adr + idx / 4] = withByte(words[adr + idx / 4], idx % 4, b);
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(words, 0);
+  }
+
+  @Override
+  public void copyTo(int adr, ByteBuffer dst) {
+    int n = dst.remaining() >> 2;
+    dst.asIntBuffer().put(words, adr, n);
+    dst.position(dst.position() + (n << 2));
+  }
+
+  @Override
+  public void copyFrom(int adr, ByteBuffer src) {
+    int n = src.remaining() >> 2;
+    src.asIntBuffer().get(words, adr, n);
+    src.position(src.position() + (n << 2));
+  }
+
+  /**
+   * Retrieve byte n from val. Byte 0 is MSB
+   */
+  private static byte byteOf(int val, int n) {
+    return (byte) (val << (8 * n) >>> 24);
+  }
+
+  /**
+   * Replace byte n in val by b
+   */
+  private static int withByte(int val, int n, byte b) {
+    int delta = (3 - n) * 8;
+    int mask = ~(255 << delta); // mask all 1 except on chosen byte
+    int by = (b & 255) << delta;
+    return (val & mask) ^ by;
+  }
+}
@@ -0,0 +1,108 @@
+package ssw.mj.vm;
+
+import ssw.mj.Interpreter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many MicroJava programs concurrently, each one on its own virtual
+ * thread, so that programs blocked in read or bread only park their thread.
+ * Virtual threads are looked up at run time. On JVMs without them, a fixed
+ * pool of platform threads is used instead.
+ */
+public final class ProgramExecutor implements AutoCloseable {
+
+  private final ExecutorService executor;
+  private final boolean virtual;
+  private final int heapSize;
+  private final ExecutionMetrics metrics = new ExecutionMetrics();
+
+  /**
+   * Creates an executor whose programs get a heap of heapSize words each.
+   * The platform threads are only used without virtual thread support.
+   */
+  public ProgramExecutor(int heapSize, int platformThreads) {
+    this.heapSize = heapSize;
+    ExecutorService ex = newVirtualThreadExecutor();
+    virtual = ex != null;
+    executor = virtual ? ex : Executors.newFixedThreadPool(platformThreads);
+  }
+
+  public ProgramExecutor(int heapSize) {
+    this(heapSize, 4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null; // before Java 21, or preview features disabled
+    }
+  }
+
+  /**
+   * True if the programs run on virtual threads.
+   */
+  public boolean virtual() {
+    return virtual;
+  }
+
+  public ExecutionMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Starts the program. The returned future completes when it returns from
+   * main, or exceptionally with the runtime error of the VM. A StreamIO is
+   * flushed at the end, but not closed. The latency recorded in the metrics
+   * starts with this call, so it includes the time waiting for a thread.
+   */
+  public CompletableFuture<Void> submit(byte[] code, int startPC, int dataSize, Interpreter.IO io) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    long start = System.nanoTime();
+    metrics.submitted();
+    try {
+      executor.execute(() -> {
+        Throwable error = null;
+        try {
+          new Interpreter(code, startPC, dataSize, io, false, new IntArrayHeap(heapSize)).run();
+          if (io instanceof StreamIO) {
+            ((StreamIO) io).flush();
+          }
+        } catch (Throwable t) {
+          error = t;
+        }
+        metrics.finished(System.nanoTime() - start, error == null);
+        if (error == null) {
+          result.complete(null);
+        } else {
+          result.completeExceptionally(error);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      metrics.finished(System.nanoTime() - start, false);
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Stops accepting programs and waits until all submitted ones finished.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        // keep waiting, programs may block on input for a long time
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package ssw.mj.vm;
+
+import ssw.mj.Interpreter;
+
+import java.util.Arrays;
+
+import static ssw.mj.vm.RegisterTranslator.*;
+
+/**
+ * Alternative execution engine for MicroJava programs. The stack bytecode
+ * is translated into register code (see {@link RegisterTranslator}) which
+ * is then interpreted. An operation like
+ * "load a; load b; add; store c" becomes a single instruction.
+ * <p>
+ * The frames of all active methods lie in one register file. A call
+ * places the frame of the callee at the registers holding the arguments,
+ * so parameters are passed without copying and the result is returned in
+ * the first register of the callee frame. Programs produce the same
+ * output and run time errors as on the {@link Interpreter}, but the
+ * register file bounds the recursion depth differently.
+ */
+public final class RegisterMachine {
+
+  private static final int REGISTERS = 4000, // size of the register file in words
+          MAX_CALLS = 2000; // maximum number of active calls
+
+  private final RegisterTranslator program;
+  private final int[] data;
+  private final Heap heap;
+  private final Interpreter.IO io;
+  private final int[] r = new int[REGISTERS]; // register file
+  private final int[] retPc = new int[MAX_CALLS], retFp = new int[MAX_CALLS]; // return addresses and frames
+  private int free = 1; // next free heap address, no block starts at 0
+
+  public RegisterMachine(byte[] code, int startPC, int dataSize, Interpreter.IO io) {
+    this(code, startPC, dataSize, io, new IntArrayHeap(Interpreter.heapSize));
+  }
+
+  /**
+   * Translates the code. Throws an IllegalArgumentException if the code
+   * cannot be verified.
+   */
+  public RegisterMachine(byte[] code, int startPC, int dataSize, Interpreter.IO io, Heap heap) {
+    program = new RegisterTranslator(code, startPC, dataSize);
+    data = new int[dataSize];
+    this.heap = heap;
+    this.io = io;
+  }
+
+  /**
+   * Creates a machine that shares the global data and the heap with
+   * another engine, for running single methods with {@link #invoke}.
+   * Methods are translated when they are first invoked or called.
+   */
+  public RegisterMachine(byte[] code, int startPC, Verifier verified, int[] data, Heap heap, Interpreter.IO io) {
+    program = new RegisterTranslator(code, startPC, verified);
+    this.data = data;
+    this.heap = heap;
+    this.io = io;
+  }
+
+  /**
+   * Number of register instructions the bytecode was translated into.
+   */
+  public int instructions() {
+    return program.size() / WIDTH;
+  }
+
+  /**
+   * Next free heap address.
+   */
+  public int free() {
+    return free;
+  }
+
+  public void setFree(int free) {
+    this.free = free;
+  }
+
+  public void run() throws IllegalStateException {
+    Arrays.fill(r, 0, program.nLocals[program.main], 0);
+    execute(program.entry(program.main));
+  }
+
+  /**
+   * Runs the method starting at adr with the arguments args[from..from + nPars)
+   * and returns its result, or 0 for void methods.
+   */
+  public int invoke(int adr, int[] args, int from) throws IllegalStateException {
+    int id = program.method(adr);
+    System.arraycopy(args, from, r, 0, program.nPars[id]);
+    Arrays.fill(r, program.nPars[id], program.nLocals[id], 0);
+    return execute(program.entry(id));
+  }
+
+  /**
+   * Continues a method in the middle of its execution (on-stack
+   * replacement) and returns its result, or 0 for void methods. The method
+   * starts at adr, its locals are locals[fp..] and its expression stack
+   * ends before stack[to]. Execution continues at the jump target pc.
+   */
+  public int resume(int adr, int pc, int[] locals, int fp, int[] stack, int to) throws IllegalStateException {
+    int id = program.method(adr);
+    int start = program.entry(id, pc);
+    int nLocals = program.nLocals[id];
+    int depth = program.stackDepth(pc);
+    System.arraycopy(locals, fp, r, 0, nLocals);
+    System.arraycopy(stack, to - depth, r, nLocals, depth);
+    return execute(start);
+  }
+
+  /**
+   * Executes the method whose frame starts at register 0 from the
+   * instruction at index pc.
+   */
+  private int execute(int pc) {
+    int[] code = program.code;
+    int[] k = program.consts;
+    int csp = 0;
+    int fp = 0;
+    int adr, idx, val;
+
+    for (; ; ) {
+      int a = code[pc + 1];
+      int b = code[pc + 2];
+      int c = code[pc + 3];
+      switch (code[pc]) {
+        case MOV -> r[fp + a] = b >= 0 ? r[fp + b] : k[~b];
+        case ADD -> r[fp + a] = (b >= 0 ? r[fp + b] : k[~b]) + (c >= 0 ? r[fp + c] : k[~c]);
+        case SUB -> r[fp + a] = (b >= 0 ? r[fp + b] : k[~b]) - (c >= 0 ? r[fp + c] : k[~c]);
+        case MUL -> r[fp + a] = (b >= 0 ? r[fp + b] : k[~b]) * (c >= 0 ? r[fp + c] : k[~c]);
+        case DIV, REM -> {
+          val = c >= 0 ? r[fp + c] : k[~c];
+          if (val == 0) {
+            throw new IllegalStateException("division by zero");
+          }
+          int x = b >= 0 ? r[fp + b] : k[~b];
+          r[fp + a] = code[pc] == DIV ? x / val : x % val;
+        }
+        case SHL -> r[fp + a] = (b >= 0 ? r[fp + b] : k[~b]) << (c >= 0 ? r[fp + c] : k[~c]);
+        case SHR -> r[fp + a] = (b >= 0 ? r[fp + b] : k[~b]) >> (c >= 0 ? r[fp + c] : k[~c]);
+        case NEG -> r[fp + a] = -(b >= 0 ? r[fp + b] : k[~b]);
+        case INC -> r[fp + a] += b;
+        case GETSTATIC -> r[fp + a] = data[b];
+        case PUTSTATIC -> data[a] = b >= 0 ? r[fp + b] : k[~b];
+        case INCSTATIC -> data[a] += b;
+        case GETFIELD -> r[fp + a] = heap.get(object(b >= 0 ? r[fp + b] : k[~b]) + c);
+        case PUTFIELD -> heap.put(object(a >= 0 ? r[fp + a] : k[~a]) + b, c >= 0 ? r[fp + c] : k[~c]);
+        case INCFIELD -> {
+          adr = object(a >= 0 ? r[fp + a] : k[~a]) + b;
+          heap.put(adr, heap.get(adr) + c);
+        }
+        case NEW -> r[fp + a] = alloc(b * 4);
+        case NEWARRAY -> {
+          int len = b >= 0 ? r[fp + b] : k[~b];
+          adr = alloc(c == 0 ? len + 4 : len * 4 + 4);
+          heap.put(adr, len);
+          r[fp + a] = adr + 1; // skip length field of array
+        }
+        case ALOAD -> {
+          adr = object(b >= 0 ? r[fp + b] : k[~b]);
+          r[fp + a] = heap.get(adr + index(adr, c >= 0 ? r[fp + c] : k[~c]));
+        }
+        case BALOAD -> {
+          adr = object(b >= 0 ? r[fp + b] : k[~b]);
+          r[fp + a] = heap.getByte(adr, index(adr, c >= 0 ? r[fp + c] : k[~c]));
+        }
+        case ASTORE -> {
+          adr = object(a >= 0 ? r[fp + a] : k[~a]);
+          idx = index(adr, b >= 0 ? r[fp + b] : k[~b]);
+          heap.put(adr + idx, c >= 0 ? r[fp + c] : k[~c]);
+        }
+        case BASTORE -> {
+          adr = object(a >= 0 ? r[fp + a] : k[~a]);
+          idx = index(adr, b >= 0 ? r[fp + b] : k[~b]);
+          heap.putByte(adr, idx, (byte) (c >= 0 ? r[fp + c] : k[~c]));
+        }
+        case ARRAYLENGTH -> r[fp + a] = heap.get(object(b >= 0 ? r[fp + b] : k[~b]) - 1);
+        case JMP -> {
+          pc = c;
+          continue;
+        }
+        case JEQ, JNE, JLT, JLE, JGT, JGE -> {
+          int x = a >= 0 ? r[fp + a] : k[~a];
+          int y = b >= 0 ? r[fp + b] : k[~b];
+          boolean cond = switch (code[pc]) {
+            case JEQ -> x == y;
+            case JNE -> x != y;
+            case JLT -> x < y;
+            case JLE -> x <= y;
+            case JGT -> x > y;
+            default -> x >= y;
+          };
+          if (cond) {
+            pc = c;
+            continue;
+          }
+        }
+        case CALL -> {
+          int callee = fp + a;
+          if (csp == MAX_CALLS || callee + program.frameSize[b] > REGISTERS) {
+            throw new IllegalStateException("method stack overflow");
+          }
+          Arrays.fill(r, callee + program.nPars[b], callee + program.nLocals[b], 0);
+          retPc[csp] = pc + WIDTH;
+          retFp[csp++] = fp;
+          fp = callee;
+          pc = program.entry[b];
+          if (pc < 0) {
+            pc = program.entry(b);
+            code = program.code;
+            k = program.consts;
+          }
+          continue;
+        }
+        case RET, RETV -> {
+          if (code[pc] == RET) {
+            r[fp] = a >= 0 ? r[fp + a] : k[~a];
+          }
+          if (csp == 0) {
+            return code[pc] == RET ? r[0] : 0;
+          }
+          pc = retPc[--csp];
+          fp = retFp[csp];
+          continue;
+        }
+        case READ -> r[fp + a] = readInt();
+        case BREAD -> r[fp + a] = io.read();
+        case PRINT -> {
+          String s = String.valueOf(a >= 0 ? r[fp + a] : k[~a]);
+          write(s, (b >= 0 ? r[fp + b] : k[~b]) - s.length());
+        }
+        case BPRINT -> write(Character.toString((char) (a >= 0 ? r[fp + a] : k[~a])),
+                (b >= 0 ? r[fp + b] : k[~b]) - 1);
+        case TRAP -> throw new IllegalStateException("trap(" + a + ")");
+        default -> throw new IllegalStateException("wrong operation " + code[pc]);
+      }
+      pc += WIDTH;
+    }
+  }
+
+  private static int object(int adr) {
+    if (adr == 0) {
+      throw new IllegalStateException("null reference used");
+    }
+    return adr;
+  }
+
+  private int index(int adr, int idx) {
+    if (idx < 0 || idx >= heap.get(adr - 1)) {
+      throw new IllegalStateException("index out of bounds");
+    }
+    return idx;
+  }
+
+  private int alloc(int size) {
+    int adr = free;
+    free += ((size + 3) >> 2);
+    if (free > heap.size() || free < 0) {
+      throw new IllegalStateException("heap overflow");
+    }
+    return adr;
+  }
+
+  private int readInt() {
+    int val = 0;
+    int prev = ' ';
+    int b = io.read();
+    while (b < '0' || b > '9') {
+      prev = b;
+      b = io.read();
+    }
+    while (b >= '0' && b <= '9') {
+      val = 10 * val + b - '0';
+      b = io.read();
+    }
+    if (prev == '-') {
+      val = -val;
+    }
+    return val;
+  }
+
+  private void write(String s, int len) {
+    for (int i = 0; i < len; i++) {
+      io.write(' ');
+    }
+    for (int i = 0; i < s.length(); i++) {
+      io.write(s.charAt(i));
+    }
+  }
+}
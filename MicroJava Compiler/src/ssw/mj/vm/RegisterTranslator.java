@@ -0,0 +1,424 @@
+package ssw.mj.vm;
+
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates verified stack bytecode into three-address code for the
+ * {@link RegisterMachine}.
+ * <p>
+ * The registers of a method are its locals followed by one register per
+ * expression stack slot: the value at depth d lives in register nLocals + d.
+ * During the translation of a basic block the stack is only simulated.
+ * Loads of locals and constants push the local or constant itself, so an
+ * operation reads them directly, and a store right after an operation
+ * makes the operation write the local. Values are moved to their stack
+ * registers only where control flow joins or where an argument is passed.
+ * <p>
+ * Every instruction has {@link #WIDTH} ints: the operation and up to three
+ * operands. A source operand x is register x of the frame if x &gt;= 0 and
+ * constant ~x of the constant pool otherwise.
+ */
+final class RegisterTranslator {
+
+  static final int WIDTH = 4;
+
+  // operations, the destination register comes first
+  static final int MOV = 0, ADD = 1, SUB = 2, MUL = 3, DIV = 4, REM = 5, SHL = 6, SHR = 7, NEG = 8,
+          GETSTATIC = 9, PUTSTATIC = 10, INCSTATIC = 11, GETFIELD = 12, PUTFIELD = 13, INCFIELD = 14,
+          NEW = 15, NEWARRAY = 16, ALOAD = 17, ASTORE = 18, BALOAD = 19, BASTORE = 20, ARRAYLENGTH = 21,
+          INC = 22, JMP = 23, JEQ = 24, JNE = 25, JLT = 26, JLE = 27, JGT = 28, JGE = 29,
+          CALL = 30, RET = 31, RETV = 32, READ = 33, BREAD = 34, PRINT = 35, BPRINT = 36, TRAP = 37;
+
+  private final byte[] bytecode;
+  private final Verifier verifier;
+
+  /**
+   * Translated code, grows with the translated methods.
+   */
+  int[] code = new int[256];
+  private int n; // number of ints in code
+
+  /**
+   * Constant pool, grows with the translated methods.
+   */
+  int[] consts = new int[16];
+  private final Map<Integer, Integer> constIndex = new HashMap<>();
+
+  /**
+   * Per method, indexed by method number: index of the first instruction
+   * in code, parameters, locals and registers.
+   */
+  final int[] entry, nPars, nLocals, frameSize;
+
+  /**
+   * Number of the main method.
+   */
+  final int main;
+
+  private final Map<Integer, Integer> methodNumbers = new HashMap<>();
+  private final int[] adrs; // method number -> address of enter
+  private final int[] index; // bytecode pc -> index in code
+  private final List<Integer> jumps = new ArrayList<>(); // indices of jumps, the target holds a bytecode pc
+
+  // simulated expression stack of the current block
+  private int[] stack;
+  private int depth;
+  private int locals; // registers below the stack registers
+  private int lastDst = -1; // index of the last instruction if it wrote the top stack register
+
+  /**
+   * Translates the whole program. Throws an IllegalArgumentException if
+   * the verifier rejects it.
+   */
+  RegisterTranslator(byte[] bytecode, int startPC, int dataSize) {
+    this(bytecode, startPC, verify(bytecode, startPC, dataSize));
+    for (int id = 0; id < entry.length; id++) {
+      entry(id);
+    }
+  }
+
+  /**
+   * Prepares the translation of a program that passed the verifier. The
+   * methods are translated on demand by {@link #entry}.
+   */
+  RegisterTranslator(byte[] bytecode, int startPC, Verifier verifier) {
+    this.bytecode = bytecode;
+    this.verifier = verifier;
+    int count = verifier.methods().size();
+    entry = new int[count];
+    nPars = new int[count];
+    nLocals = new int[count];
+    frameSize = new int[count];
+    adrs = new int[count];
+    index = new int[bytecode.length];
+    for (Verifier.Method m : verifier.methods()) {
+      int id = methodNumbers.size();
+      methodNumbers.put(m.adr, id);
+      adrs[id] = m.adr;
+      entry[id] = -1;
+      nPars[id] = m.nPars;
+      nLocals[id] = m.nLocals;
+      frameSize[id] = m.nLocals + m.maxDepth;
+    }
+    main = methodNumbers.get(startPC);
+  }
+
+  private static Verifier verify(byte[] bytecode, int startPC, int dataSize) {
+    Verifier verifier = new Verifier(bytecode, startPC, dataSize);
+    if (!verifier.verify()) {
+      throw new IllegalArgumentException("code not verifiable: " + verifier.error());
+    }
+    return verifier;
+  }
+
+  /**
+   * Number of the method starting at adr.
+   */
+  int method(int adr) {
+    return methodNumbers.get(adr);
+  }
+
+  /**
+   * Index of the first instruction of the method in code. Translates the
+   * method first if necessary, which may replace code.
+   */
+  int entry(int id) {
+    if (entry[id] < 0) {
+      jumps.clear();
+      translate(verifier.methodAt(adrs[id]));
+      for (int j : jumps) {
+        code[j + 3] = index[code[j + 3]];
+      }
+    }
+    return entry[id];
+  }
+
+  /**
+   * Index of the instruction translated from the jump target pc in the
+   * method. On entry there, the expression stack of depth d must be in
+   * the registers nLocals .. nLocals + d - 1.
+   */
+  int entry(int id, int pc) {
+    entry(id);
+    return index[pc];
+  }
+
+  /**
+   * Expression stack depth at pc, see {@link Verifier#stackDepth}.
+   */
+  int stackDepth(int pc) {
+    return verifier.stackDepth(pc);
+  }
+
+  /**
+   * Number of ints of translated code.
+   */
+  int size() {
+    return n;
+  }
+
+  private void translate(Verifier.Method m) {
+    entry[methodNumbers.get(m.adr)] = n;
+    locals = m.nLocals;
+    stack = new int[m.maxDepth + 2];
+
+    int end = m.adr + OpCode.enter.size();
+    Set<Integer> targets = new HashSet<>();
+    while (end < bytecode.length && bytecode[end] != OpCode.enter.code()) {
+      OpCode op = OpCode.get(bytecode[end]);
+      if (op == null) {
+        break; // unused rest of the code buffer
+      }
+      if (isJump(op) && verifier.stackDepth(end) >= 0) {
+        targets.add(target(end));
+      }
+      end += op.size();
+    }
+
+    boolean reachable = false;
+    for (int pc = m.adr + OpCode.enter.size(); pc < end; pc += OpCode.get(bytecode[pc]).size()) {
+      int d = verifier.stackDepth(pc);
+      if (d < 0) {
+        reachable = false;
+        continue;
+      }
+      if (!reachable || targets.contains(pc)) {
+        if (reachable) {
+          spillAll();
+        }
+        depth = d;
+        for (int i = 0; i < d; i++) {
+          stack[i] = locals + i;
+        }
+        lastDst = -1;
+        reachable = true;
+      }
+      index[pc] = n;
+      reachable = translate(OpCode.get(bytecode[pc]), pc);
+    }
+  }
+
+  /**
+   * Translates the instruction at pc, returns false if control does not
+   * continue with the next instruction.
+   */
+  private boolean translate(OpCode op, int pc) {
+    switch (op) {
+      case load -> push(bytecode[pc + 1]);
+      case load_0, load_1, load_2, load_3 -> push(op.code() - OpCode.load_0.code());
+      case load_4, load_5, load_6, load_7 -> push(op.code() - OpCode.load_4.code() + 4);
+      case store -> store(bytecode[pc + 1]);
+      case store_0, store_1, store_2, store_3 -> store(op.code() - OpCode.store_0.code());
+      case store_4, store_5, store_6, store_7 -> store(op.code() - OpCode.store_4.code() + 4);
+      case inc -> {
+        spillLocal(bytecode[pc + 1]);
+        emit(INC, bytecode[pc + 1], bytecode[pc + 2], 0);
+      }
+      case getstatic -> result(GETSTATIC, get2(pc + 1), 0);
+      case putstatic -> emit(PUTSTATIC, get2(pc + 1), pop(), 0);
+      case incstatic -> emit(INCSTATIC, get2(pc + 1), get2(pc + 3), 0);
+      case getfield -> {
+        int obj = pop();
+        result(GETFIELD, obj, get2(pc + 1));
+      }
+      case putfield -> {
+        int val = pop();
+        emit(PUTFIELD, pop(), get2(pc + 1), val);
+      }
+      case incfield -> emit(INCFIELD, pop(), get2(pc + 1), get2(pc + 3));
+      case const_0, const_1, const_2, const_3, const_4, const_5 -> pushConst(op.code() - OpCode.const_0.code());
+      case const_m1 -> pushConst(-1);
+      case const_ -> pushConst((get2(pc + 1) << 16) | (get2(pc + 3) & 0xffff));
+      case bipush -> pushConst(bytecode[pc + 1]);
+      case sipush -> pushConst(get2(pc + 1));
+      case add -> binary(ADD);
+      case sub -> binary(SUB);
+      case mul -> binary(MUL);
+      case div -> binary(DIV);
+      case rem -> binary(REM);
+      case shl -> binary(SHL);
+      case shr -> binary(SHR);
+      case neg -> result(NEG, pop(), 0);
+      case new_ -> result(NEW, get2(pc + 1), 0);
+      case newarray -> result(NEWARRAY, pop(), bytecode[pc + 1] & 0xff);
+      case aload -> binary(ALOAD);
+      case baload -> binary(BALOAD);
+      case astore, bastore -> {
+        int val = pop();
+        int idx = pop();
+        emit(op == OpCode.astore ? ASTORE : BASTORE, pop(), idx, val);
+      }
+      case arraylength -> result(ARRAYLENGTH, pop(), 0);
+      case pop -> pop();
+      case dup -> push(stack[depth - 1]);
+      case dup2 -> {
+        int x = stack[depth - 2];
+        int y = stack[depth - 1];
+        push(x);
+        push(y);
+      }
+      case jmp -> {
+        spillAll();
+        jump(JMP, 0, 0, target(pc));
+        return false;
+      }
+      case jeq, jne, jlt, jle, jgt, jge -> {
+        int y = pop();
+        int x = pop();
+        spillAll();
+        jump(JEQ + op.code() - OpCode.jeq.code(), x, y, target(pc));
+      }
+      case call -> {
+        Verifier.Method callee = verifier.methodAt(target(pc));
+        for (int i = depth - callee.nPars; i < depth; i++) {
+          spill(i);
+        }
+        depth -= callee.nPars;
+        emit(CALL, locals + depth, methodNumbers.get(callee.adr), 0);
+        for (int i = 0; i < callee.resultSize; i++) {
+          stack[depth] = locals + depth;
+          depth++;
+        }
+      }
+      case exit, nop -> {
+      }
+      case return_ -> {
+        if (depth > 0) {
+          emit(RET, pop(), 0, 0);
+        } else {
+          emit(RETV, 0, 0, 0);
+        }
+        return false;
+      }
+      case read -> result(READ, 0, 0);
+      case bread -> result(BREAD, 0, 0);
+      case print, bprint -> {
+        int width = pop();
+        emit(op == OpCode.print ? PRINT : BPRINT, pop(), width, 0);
+      }
+      case trap -> {
+        emit(TRAP, bytecode[pc + 1], 0, 0);
+        return false;
+      }
+      default -> throw new IllegalArgumentException("cannot translate " + op + " at " + pc);
+    }
+    return true;
+  }
+
+  // ----- simulated stack
+
+  private void push(int operand) {
+    stack[depth++] = operand;
+  }
+
+  private void pushConst(int val) {
+    Integer i = constIndex.get(val);
+    if (i == null) {
+      i = constIndex.size();
+      if (i == consts.length) {
+        consts = Arrays.copyOf(consts, 2 * i);
+      }
+      consts[i] = val;
+      constIndex.put(val, i);
+    }
+    push(~i);
+  }
+
+  private int pop() {
+    return stack[--depth];
+  }
+
+  private void binary(int op) {
+    int y = pop();
+    int x = pop();
+    result(op, x, y);
+  }
+
+  /**
+   * Emits an operation whose result is pushed into its stack register.
+   */
+  private void result(int op, int b, int c) {
+    int dst = locals + depth;
+    emit(op, dst, b, c);
+    push(dst);
+    lastDst = n - WIDTH;
+  }
+
+  private void store(int local) {
+    int val = pop();
+    spillLocal(local);
+    if (lastDst >= 0 && val == locals + depth && code[lastDst + 1] == val) {
+      code[lastDst + 1] = local; // the operation writes the local directly
+      lastDst = -1;
+    } else {
+      emit(MOV, local, val, 0);
+    }
+  }
+
+  /**
+   * Moves stack values that still refer to the local into their registers
+   * before the local is changed.
+   */
+  private void spillLocal(int local) {
+    for (int i = 0; i < depth; i++) {
+      if (stack[i] == local) {
+        spill(i);
+      }
+    }
+  }
+
+  private void spillAll() {
+    for (int i = 0; i < depth; i++) {
+      spill(i);
+    }
+  }
+
+  private void spill(int i) {
+    if (stack[i] != locals + i) {
+      emit(MOV, locals + i, stack[i], 0);
+      stack[i] = locals + i;
+    }
+  }
+
+  // ----- code emission
+
+  private void emit(int op, int a, int b, int c) {
+    if (n + WIDTH > code.length) {
+      code = Arrays.copyOf(code, code.length * 2);
+    }
+    code[n] = op;
+    code[n + 1] = a;
+    code[n + 2] = b;
+    code[n + 3] = c;
+    n += WIDTH;
+    lastDst = -1;
+  }
+
+  private void jump(int op, int x, int y, int target) {
+    jumps.add(n);
+    emit(op, x, y, target);
+  }
+
+  private static boolean isJump(OpCode op) {
+    return switch (op) {
+      case jmp, jeq, jne, jlt, jle, jgt, jge -> true;
+      default -> false;
+    };
+  }
+
+  private int target(int pc) {
+    return pc + get2(pc + 1);
+  }
+
+  private int get2(int pos) {
+    return (short) (((bytecode[pos] & 0xff) << 8) | (bytecode[pos + 1] & 0xff));
+  }
+}
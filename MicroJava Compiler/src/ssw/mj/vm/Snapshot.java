@@ -0,0 +1,89 @@
+package ssw.mj.vm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Complete state of a MicroJava VM: code, static data, both stacks, the
+ * registers and the used part of the heap. A snapshot file starts with a
+ * header of int values, followed by the code (padded to whole words), the
+ * static data, the expression stack, the method stack and the heap words
+ * 0..free-1. The whole file is read and written through memory mapped buffers.
+ */
+public final class Snapshot {
+
+  private static final int MAGIC = 0x4D4A5301; // "MJS" version 1
+  private static final int HEADER_WORDS = 9;
+
+  public byte[] code;
+  public int startPC;
+  public int pc;
+  public int fp, sp; // frame pointer, stack pointer on method stack
+  public int esp; // expression stack pointer
+  public int free; // next free heap address
+  public int[] data; // global data
+  public int[] stack; // expression stack, esp words used
+  public int[] local; // method stack, sp words used
+
+  /**
+   * Writes the snapshot together with the words 0..free-1 of heap to file.
+   */
+  public void save(Path file, Heap heap) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      int codeWords = (code.length + 3) >> 2;
+      long len = (long) (HEADER_WORDS + codeWords + data.length + esp + sp) << 2;
+      ByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, len);
+      buf.putInt(MAGIC).putInt(code.length).putInt(data.length).putInt(startPC).putInt(pc)
+              .putInt(fp).putInt(sp).putInt(esp).putInt(free);
+      buf.put(code).position((HEADER_WORDS + codeWords) << 2);
+      IntBuffer ints = buf.asIntBuffer();
+      ints.put(data).put(stack, 0, esp).put(local, 0, sp);
+      heap.save(ch, len, free);
+    }
+  }
+
+  /**
+   * Reads a snapshot from file. The saved heap words are copied into heap,
+   * which must be large enough and should be empty. The stacks are allocated
+   * with the given sizes.
+   */
+  public static Snapshot load(Path file, Heap heap, int eStackSize, int mStackSize) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_WORDS << 2);
+      if (buf.getInt() != MAGIC) {
+        throw new IOException("no snapshot file: " + file);
+      }
+      Snapshot s = new Snapshot();
+      s.code = new byte[buf.getInt()];
+      s.data = new int[buf.getInt()];
+      s.startPC = buf.getInt();
+      s.pc = buf.getInt();
+      s.fp = buf.getInt();
+      s.sp = buf.getInt();
+      s.esp = buf.getInt();
+      s.free = buf.getInt();
+      if (s.esp > eStackSize || s.sp > mStackSize) {
+        throw new IOException("stacks of snapshot too large: " + file);
+      }
+      if (s.free > heap.size()) {
+        throw new IOException("heap too small for snapshot: " + file);
+      }
+      s.stack = new int[eStackSize];
+      s.local = new int[mStackSize];
+
+      int codeWords = (s.code.length + 3) >> 2;
+      long len = (long) (codeWords + s.data.length + s.esp + s.sp) << 2;
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_WORDS << 2, len);
+      buf.get(s.code).position(codeWords << 2);
+      IntBuffer ints = buf.asIntBuffer();
+      ints.get(s.data).get(s.stack, 0, s.esp).get(s.local, 0, s.sp);
+      heap.load(ch, (HEADER_WORDS << 2) + len, s.free);
+      return s;
+    }
+  }
+}
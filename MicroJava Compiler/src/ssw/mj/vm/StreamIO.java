@@ -0,0 +1,94 @@
+package ssw.mj.vm;
+
+import ssw.mj.Interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Buffered VM I/O on byte streams, used by one interpreter at a time. It
+ * takes no locks, so a blocking read parks the calling thread without
+ * pinning it to a carrier thread. Output goes to a fixed size buffer which
+ * is written to the sink when it is full, before the VM blocks on input and
+ * on close. A slow sink therefore blocks the writing program (backpressure)
+ * instead of letting the buffer grow.
+ */
+public final class StreamIO implements Interpreter.IO, AutoCloseable {
+
+  private final InputStream in;
+  private final OutputStream out;
+  private final byte[] inBuf;
+  private final byte[] outBuf;
+  private int inPos, inLen; // unread input is inBuf[inPos..inLen-1]
+  private int outLen;
+
+  public StreamIO(InputStream in, OutputStream out) {
+    this(in, out, 512);
+  }
+
+  public StreamIO(InputStream in, OutputStream out, int bufferSize) {
+    this.in = in;
+    this.out = out;
+    inBuf = new byte[bufferSize];
+    outBuf = new byte[bufferSize];
+  }
+
+  @Override
+  public char read() {
+    if (inPos == inLen) {
+      try {
+        flush(); // the program may wait for an answer to its output
+        inLen = in.read(inBuf, 0, inBuf.length);
+      } catch (IOException e) {
+        inLen = -1;
+      }
+      inPos = 0;
+      if (inLen <= 0) {
+        inLen = 0;
+        return 0;
+      }
+    }
+    return (char) (inBuf[inPos++] & 0xff);
+  }
+
+  @Override
+  public void write(char c) {
+    if (outLen == outBuf.length) {
+      flush();
+    }
+    outBuf[outLen++] = (byte) c;
+  }
+
+  /**
+   * Writes the buffered output to the sink.
+   */
+  public void flush() {
+    if (outLen > 0) {
+      try {
+        out.write(outBuf, 0, outLen);
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      outLen = 0;
+    }
+  }
+
+  /**
+   * Flushes the output and closes both streams.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      try {
+        in.close();
+      } finally {
+        out.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,483 @@
+package ssw.mj.vm;
+
+import ssw.mj.impl.Code.OpCode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Load-time bytecode verifier. Does an abstract interpretation over every
+ * method reachable from the main method and proves that
+ * <ul>
+ * <li>the expression stack depth is the same on all paths to a pc and never
+ * drops below zero,</li>
+ * <li>all jumps and calls target the start of an instruction inside the code,</li>
+ * <li>every <code>enter</code> is followed by exactly one <code>exit</code>
+ * before <code>return</code>,</li>
+ * <li>local variable indices are within the lsize of the <code>enter</code>.</li>
+ * </ul>
+ * Additionally, an upper bound of the expression stack over all call chains is
+ * computed. If it fits into the expression stack of the VM, the interpreter
+ * can skip its overflow and underflow checks.
+ */
+public final class Verifier {
+
+  /**
+   * Verification results for a single method.
+   */
+  public static final class Method {
+    /**
+     * Address of the <code>enter</code> instruction.
+     */
+    public final int adr;
+    /**
+     * Number of parameters (psize of <code>enter</code>).
+     */
+    public final int nPars;
+    /**
+     * Number of local variables (lsize of <code>enter</code>).
+     */
+    public final int nLocals;
+    /**
+     * Number of words the method leaves on the expression stack (0 for void
+     * methods, 1 otherwise).
+     */
+    public int resultSize;
+    /**
+     * Maximum expression stack depth inside this method, relative to its entry.
+     */
+    public int maxDepth;
+
+    Method(int adr, int nPars, int nLocals) {
+      this.adr = adr;
+      this.nPars = nPars;
+      this.nLocals = nLocals;
+    }
+  }
+
+  private static final class Rejected extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Rejected(String msg) {
+      super(msg, null, false, false);
+    }
+  }
+
+  /**
+   * Upper bound for the number of fix point iterations for method result sizes.
+   */
+  private static final int MAX_ROUNDS = 8;
+
+  private static final int UNVISITED = -1;
+  private static final byte START = 1, INTERIOR = 2;
+
+  private final byte[] code;
+  private final int startPC;
+  private final int dataSize;
+
+  /**
+   * Abstract state per pc: (depth &lt;&lt; 1) | framed, or UNVISITED.
+   */
+  private final int[] state;
+  /**
+   * Address of the method a pc belongs to.
+   */
+  private final int[] owner;
+  /**
+   * Marks instruction starts and operand bytes.
+   */
+  private final byte[] marks;
+
+  private final Map<Integer, Method> methods = new LinkedHashMap<>();
+  /**
+   * Call edges as triples (caller, callee, stack words of the caller below
+   * the arguments).
+   */
+  private final List<int[]> calls = new ArrayList<>();
+  private final Deque<Method> pending = new ArrayDeque<>();
+  private final Set<Method> queued = new HashSet<>();
+
+  /**
+   * First rejection of the current round. Wrong guesses for the result size of
+   * (recursive) callees may cause rejections that vanish in later rounds.
+   */
+  private String failure;
+  /**
+   * Result size observed for the method under analysis, -1 if none yet.
+   */
+  private int resultSize;
+  private String error;
+  private int maxStack;
+
+  public Verifier(byte[] code, int startPC, int dataSize) {
+    this.code = code;
+    this.startPC = startPC;
+    this.dataSize = dataSize;
+    state = new int[code.length];
+    owner = new int[code.length];
+    marks = new byte[code.length];
+  }
+
+  /**
+   * Runs the verification. Returns true if all properties could be proven.
+   */
+  public boolean verify() {
+    try {
+      for (int round = 0; ; round++) {
+        if (round == MAX_ROUNDS) {
+          throw new Rejected("method result sizes do not converge");
+        }
+        failure = null;
+        boolean changed = false;
+        Arrays.fill(state, UNVISITED);
+        Arrays.fill(marks, (byte) 0);
+        calls.clear();
+        pending.clear();
+        queued.clear();
+        List<Method> analyzed = new ArrayList<>();
+        Method main = method(startPC);
+        if (main.nPars != 0) {
+          throw new Rejected("main method must not have parameters");
+        }
+        pending.add(main);
+        queued.add(main);
+        while (!pending.isEmpty()) {
+          Method m = pending.poll();
+          analyzed.add(m);
+          int resultSize = analyze(m);
+          if (resultSize >= 0 && resultSize != m.resultSize) {
+            m.resultSize = resultSize;
+            changed = true;
+          }
+        }
+        if (!changed) {
+          if (failure != null) {
+            throw new Rejected(failure);
+          }
+          methods.values().retainAll(analyzed);
+          break;
+        }
+      }
+      maxStack = computeStackBound();
+      return true;
+    } catch (Rejected r) {
+      error = r.getMessage();
+      return false;
+    }
+  }
+
+  /**
+   * Reason why the verification failed, or null.
+   */
+  public String error() {
+    return error;
+  }
+
+  /**
+   * Upper bound of the expression stack for the whole program, or
+   * Integer.MAX_VALUE if recursion makes it unbounded.
+   */
+  public int maxStackDepth() {
+    return maxStack;
+  }
+
+  /**
+   * Expression stack depth before the instruction at pc, relative to the
+   * entry of its method, or -1 if pc is not reachable.
+   */
+  public int stackDepth(int pc) {
+    return state[pc] == UNVISITED ? -1 : state[pc] >> 1;
+  }
+
+  /**
+   * Address of the method the instruction at pc belongs to, or -1 if pc is
+   * not reachable.
+   */
+  public int methodOf(int pc) {
+    return state[pc] == UNVISITED ? -1 : owner[pc];
+  }
+
+  /**
+   * All methods reachable from the main method.
+   */
+  public Collection<Method> methods() {
+    return methods.values();
+  }
+
+  /**
+   * The method starting at adr, or null if there is none.
+   */
+  public Method methodAt(int adr) {
+    return methods.get(adr);
+  }
+
+  // ----- abstract interpretation
+
+  private Method method(int adr) {
+    Method m = methods.get(adr);
+    if (m == null) {
+      if (adr < 0 || adr + OpCode.enter.size() > code.length || code[adr] != OpCode.enter.code()) {
+        throw new Rejected("no method at " + adr);
+      }
+      int nPars = code[adr + 1];
+      int nLocals = code[adr + 2];
+      if (nPars < 0 || nLocals < nPars) {
+        throw new Rejected("invalid frame size at " + adr);
+      }
+      m = new Method(adr, nPars, nLocals);
+      methods.put(adr, m);
+    }
+    return m;
+  }
+
+  /**
+   * Analyzes all paths of method m. Returns the observed result size or -1
+   * if no return instruction is reachable.
+   */
+  private int analyze(Method m) {
+    resultSize = -1;
+    m.maxDepth = 0;
+    Deque<Integer> work = new ArrayDeque<>();
+    decode(m.adr);
+    flow(m, work, m.adr + OpCode.enter.size(), 0, true);
+    while (!work.isEmpty()) {
+      int pc = work.pop();
+      try {
+        interpret(m, work, pc);
+      } catch (Rejected r) {
+        // continue with the other paths, they may reveal the result size
+        if (failure == null) {
+          failure = r.getMessage();
+        }
+      }
+    }
+    return resultSize;
+  }
+
+  /**
+   * Interprets the instruction at pc and propagates the state to its
+   * successors.
+   */
+  private void interpret(Method m, Deque<Integer> work, int pc) {
+    int depth = state[pc] >> 1;
+    boolean framed = (state[pc] & 1) != 0;
+    OpCode op = decode(pc);
+    int next = pc + op.size();
+    int pops = 0, pushes = 0;
+    switch (op) {
+      case load -> {
+        checkLocal(m, framed, code[pc + 1], pc);
+        pushes = 1;
+      }
+      case load_0, load_1, load_2, load_3 -> {
+        checkLocal(m, framed, op.code() - OpCode.load_0.code(), pc);
+        pushes = 1;
+      }
+      case load_4, load_5, load_6, load_7 -> {
+        checkLocal(m, framed, op.code() - OpCode.load_4.code() + 4, pc);
+        pushes = 1;
+      }
+      case store -> {
+        checkLocal(m, framed, code[pc + 1], pc);
+        pops = 1;
+      }
+      case store_0, store_1, store_2, store_3 -> {
+        checkLocal(m, framed, op.code() - OpCode.store_0.code(), pc);
+        pops = 1;
+      }
+      case store_4, store_5, store_6, store_7 -> {
+        checkLocal(m, framed, op.code() - OpCode.store_4.code() + 4, pc);
+        pops = 1;
+      }
+      case inc -> checkLocal(m, framed, code[pc + 1], pc);
+      case getstatic -> {
+        checkStatic(pc);
+        pushes = 1;
+      }
+      case putstatic -> {
+        checkStatic(pc);
+        pops = 1;
+      }
+      case incstatic -> checkStatic(pc);
+      case incfield -> pops = 1;
+      case getfield, neg, newarray, arraylength -> {
+        pops = 1;
+        pushes = 1;
+      }
+      case putfield, print, bprint -> pops = 2;
+      case const_0, const_1, const_2, const_3, const_4, const_5, const_m1, const_, bipush, sipush, new_, read,
+              bread -> pushes = 1;
+      case add, sub, mul, div, rem, shl, shr, aload, baload -> {
+        pops = 2;
+        pushes = 1;
+      }
+      case astore, bastore -> pops = 3;
+      case pop -> pops = 1;
+      case dup -> {
+        pops = 1;
+        pushes = 2;
+      }
+      case dup2 -> {
+        pops = 2;
+        pushes = 4;
+      }
+      case jmp -> {
+        flow(m, work, target(pc), depth, framed);
+        return;
+      }
+      case jeq, jne, jlt, jle, jgt, jge -> {
+        if (depth < 2) {
+          throw new Rejected("expression stack underflow at " + pc);
+        }
+        flow(m, work, target(pc), depth - 2, framed);
+        flow(m, work, next, depth - 2, framed);
+        return;
+      }
+      case call -> {
+        Method callee = method(target(pc));
+        if (queued.add(callee)) {
+          pending.add(callee);
+        }
+        if (depth < callee.nPars) {
+          throw new Rejected("expression stack underflow at " + pc);
+        }
+        int residual = depth - callee.nPars;
+        calls.add(new int[]{m.adr, callee.adr, residual});
+        m.maxDepth = Math.max(m.maxDepth, residual + callee.resultSize);
+        flow(m, work, next, residual + callee.resultSize, framed);
+        return;
+      }
+      case exit -> {
+        if (!framed) {
+          throw new Rejected("exit without enter at " + pc);
+        }
+        flow(m, work, next, depth, false);
+        return;
+      }
+      case return_ -> {
+        if (framed) {
+          throw new Rejected("return without exit at " + pc);
+        }
+        int observed = resultSize;
+        // smaller sizes stem from wrong guesses for callees, keep the larger one
+        resultSize = Math.max(resultSize, depth);
+        if (observed >= 0 && observed != depth) {
+          throw new Rejected("inconsistent result size at " + pc);
+        }
+        return;
+      }
+      case trap -> {
+        return;
+      }
+      case enter -> throw new Rejected("enter inside method at " + pc);
+      case nop -> {
+      }
+      default -> throw new Rejected("unknown opcode at " + pc);
+    }
+    if (depth < pops) {
+      throw new Rejected("expression stack underflow at " + pc);
+    }
+    flow(m, work, next, depth - pops + pushes, framed);
+  }
+
+  /**
+   * Propagates the abstract state to pc and schedules it if not yet visited.
+   */
+  private void flow(Method m, Deque<Integer> work, int pc, int depth, boolean framed) {
+    if (pc < 0 || pc >= code.length) {
+      throw new Rejected("control flow leaves code at " + pc);
+    }
+    int s = (depth << 1) | (framed ? 1 : 0);
+    if (state[pc] == UNVISITED) {
+      state[pc] = s;
+      owner[pc] = m.adr;
+      m.maxDepth = Math.max(m.maxDepth, depth);
+      work.push(pc);
+    } else if (owner[pc] != m.adr) {
+      throw new Rejected("code at " + pc + " shared between methods");
+    } else if (state[pc] != s) {
+      throw new Rejected("inconsistent stack state at " + pc);
+    }
+  }
+
+  /**
+   * Decodes the opcode at pc and checks that it is a proper instruction start.
+   */
+  private OpCode decode(int pc) {
+    OpCode op = OpCode.get(code[pc]);
+    if (op == null) {
+      throw new Rejected("unknown opcode at " + pc);
+    }
+    int end = pc + op.size();
+    if (end > code.length) {
+      throw new Rejected("truncated instruction at " + pc);
+    }
+    if (marks[pc] == INTERIOR) {
+      throw new Rejected("jump into instruction at " + pc);
+    }
+    marks[pc] = START;
+    for (int i = pc + 1; i < end; i++) {
+      if (marks[i] == START) {
+        throw new Rejected("jump into instruction at " + i);
+      }
+      marks[i] = INTERIOR;
+    }
+    return op;
+  }
+
+  private int target(int pc) {
+    return pc + (short) ((code[pc + 1] << 8) | (code[pc + 2] & 0xff));
+  }
+
+  private void checkLocal(Method m, boolean framed, int idx, int pc) {
+    if (!framed) {
+      throw new Rejected("local variable access outside of frame at " + pc);
+    }
+    if (idx < 0 || idx >= m.nLocals) {
+      throw new Rejected("local variable index out of frame at " + pc);
+    }
+  }
+
+  private void checkStatic(int pc) {
+    int adr = (short) ((code[pc + 1] << 8) | (code[pc + 2] & 0xff));
+    if (adr < 0 || adr >= dataSize) {
+      throw new Rejected("global variable address out of range at " + pc);
+    }
+  }
+
+  // ----- stack bound over call chains
+
+  /**
+   * Longest path over the call graph, weighted with the stack words that stay
+   * below the arguments of each call. Recursion is only bounded if every
+   * recursive call happens on an otherwise empty stack.
+   */
+  private int computeStackBound() {
+    Map<Integer, Integer> bound = new LinkedHashMap<>();
+    for (Method m : methods.values()) {
+      bound.put(m.adr, m.maxDepth);
+    }
+    for (int round = 0; round <= methods.size(); round++) {
+      boolean changed = false;
+      for (int[] call : calls) {
+        int val = call[2] + bound.get(call[1]);
+        if (val > bound.get(call[0])) {
+          bound.put(call[0], val);
+          changed = true;
+        }
+      }
+      if (!changed) {
+        return bound.get(startPC);
+      }
+    }
+    return Integer.MAX_VALUE;
+  }
+}
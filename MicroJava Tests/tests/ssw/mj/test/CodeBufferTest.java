@@ -0,0 +1,83 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.codegen.CodeBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the paged code buffer.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class CodeBufferTest {
+
+  private static final int SIZE = 3 * CodeBuffer.PAGE_SIZE + 17;
+
+  private static byte[] bytes() {
+    byte[] bytes = new byte[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      bytes[i] = (byte) (i * 31 + i / 7);
+    }
+    return bytes;
+  }
+
+  @Test
+  public void acrossPages() {
+    byte[] bytes = bytes();
+    CodeBuffer buf = new CodeBuffer();
+    for (int i = 0; i < SIZE; i++) {
+      buf.set(i, bytes[i]);
+    }
+    assertArrayEquals(bytes, buf.copy(0, SIZE));
+    int from = CodeBuffer.PAGE_SIZE - 3, to = 2 * CodeBuffer.PAGE_SIZE + 5;
+    assertArrayEquals(Arrays.copyOfRange(bytes, from, to), buf.copy(from, to));
+    assertEquals(0, buf.get(10 * CodeBuffer.PAGE_SIZE));
+  }
+
+  @Test
+  public void bulkAndBackpatch() {
+    byte[] bytes = bytes();
+    CodeBuffer buf = new CodeBuffer();
+    buf.set(0, bytes, 0, SIZE);
+    int pos = CodeBuffer.PAGE_SIZE - 1; // a 2 byte value crossing a page boundary
+    buf.set(pos, 0x12);
+    buf.set(pos + 1, 0x34);
+    bytes[pos] = 0x12;
+    bytes[pos + 1] = 0x34;
+    assertArrayEquals(bytes, buf.copy(0, SIZE));
+  }
+
+  @Test
+  public void write() throws IOException {
+    byte[] bytes = bytes();
+    CodeBuffer buf = new CodeBuffer();
+    buf.set(0, bytes, 0, SIZE);
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    buf.write(os, SIZE - 1);
+    assertArrayEquals(Arrays.copyOf(bytes, SIZE - 1), os.toByteArray());
+
+    Path file = Files.createTempFile("code", ".obj");
+    try {
+      try (FileChannel ch = FileChannel.open(file, WRITE)) {
+        buf.write(ch, ByteBuffer.wrap(new byte[]{'M', 'J'}), SIZE);
+      }
+      byte[] written = Files.readAllBytes(file);
+      assertEquals(SIZE + 2, written.length);
+      assertEquals('M', written[0]);
+      assertArrayEquals(bytes, Arrays.copyOfRange(written, 2, written.length));
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -96,9 +96,17 @@ public abstract class CompilerTestCaseSupport {
     }
   }
 
+  /**
+   * Creates the scanner for the source. Subclasses override it to run the
+   * tests with another scanner.
+   */
+  protected Scanner newScanner(Reader r) {
+    return new Scanner(r);
+  }
+
   protected void initScanner(String s) {
     source = s;
-    scanner = new Scanner(new StringReader(s));
+    scanner = newScanner(new StringReader(s));
   }
 
   protected void init(String s) {
@@ -114,7 +122,7 @@ public abstract class CompilerTestCaseSupport {
         throw new RuntimeException("resource %s not found".formatted(filename));
       }
       File file = new File(resource.getFile());
-      scanner = new Scanner(new FileReader(file));
+      scanner = newScanner(new FileReader(file));
     } catch (FileNotFoundException e) {
       throw new RuntimeException(e.getMessage());
     }
@@ -251,7 +259,7 @@ public abstract class CompilerTestCaseSupport {
     for (int i = 0; i < runInputs.size(); i++) {
       Interpreter.BufferIO io = new Interpreter.BufferIO(runInputs.get(i));
       Interpreter inter = new Interpreter(
-              parser.code.buf,
+              parser.code.toByteArray(),
               parser.code.mainpc,
               parser.code.dataSize,
               io,
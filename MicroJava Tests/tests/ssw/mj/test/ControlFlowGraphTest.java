@@ -0,0 +1,132 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.cfg.BasicBlock;
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.cfg.Loop;
+import ssw.mj.impl.Code.OpCode;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the control flow graph of compiled methods.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class ControlFlowGraphTest extends CompilerTestCaseSupport {
+
+  private ControlFlowGraph build(int adr) {
+    return ControlFlowGraph.build(parser.code.toByteArray(), parser.code.pc, adr);
+  }
+
+  private static void assertConsistent(ControlFlowGraph cfg) {
+    for (BasicBlock b : cfg.blocks()) {
+      for (BasicBlock s : b.succs) {
+        assertTrue(s.preds.contains(b), b + " -> " + s);
+      }
+      if (b.reachable()) {
+        assertTrue(cfg.entry().dominates(b));
+        assertTrue(b.idom == null || b.idom.dominates(b));
+      }
+    }
+  }
+
+  @Test
+  public void nestedLoops() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int f(int n) int i, j, s; {" + LF + //
+            "    while (n > i) {" + LF + //
+            "      j = 0;" + LF + //
+            "      while (i > j) { s += j; j++; }" + LF + //
+            "      if (s > 100) return s;" + LF + //
+            "      i++;" + LF + //
+            "    }" + LF + //
+            "    return s;" + LF + //
+            "  }" + LF + //
+            "  void main () {" + LF + //
+            "    print(f(20));" + LF + //
+            "  }" + LF + //
+            "}");
+    addExpectedRun("120");
+    parseAndVerify();
+
+    ControlFlowGraph cfg = build(0);
+    assertEquals(parser.code.mainpc, cfg.end);
+    assertConsistent(cfg);
+    assertEquals(2, cfg.loops().size());
+    Loop outer = cfg.loops().get(0);
+    Loop inner = cfg.loops().get(1);
+    assertEquals(1, outer.depth);
+    assertEquals(2, inner.depth);
+    assertSame(outer, inner.parent);
+    assertEquals(1, outer.children.size());
+    for (BasicBlock b : outer.blocks) {
+      assertTrue(outer.header.dominates(b));
+    }
+    assertTrue(outer.contains(inner.header));
+    assertFalse(inner.contains(outer.header));
+
+    // s += j is in the inner loop, return s inside the outer one
+    BasicBlock body = cfg.blockAt(inner.header.end);
+    assertSame(inner, body.loop);
+    assertEquals(2, body.loopDepth());
+    int returns = 0;
+    for (BasicBlock b : cfg.blocks()) {
+      if (b.lastOp == OpCode.return_ && b.reachable()) {
+        returns++;
+        assertTrue(b.loopDepth() <= 1);
+      }
+    }
+    assertEquals(2, returns);
+
+    ControlFlowGraph main = build(parser.code.mainpc);
+    assertEquals(1, main.blocks().size());
+    assertTrue(main.loops().isEmpty());
+  }
+
+  @Test
+  public void unreachableBlock() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int f(int n) {" + LF + //
+            "    return n; n++;" + LF + //
+            "  }" + LF + //
+            "  void main () { print(f(1)); }" + LF + //
+            "}");
+    parseAndVerify();
+
+    ControlFlowGraph cfg = build(0);
+    assertConsistent(cfg);
+    // return n | n++ + trap for the missing return
+    assertEquals(2, cfg.blocks().size());
+    assertFalse(cfg.blocks().get(1).reachable());
+    assertEquals(1, cfg.reversePostorder().size());
+  }
+
+  @Test
+  public void largeMethod() {
+    // enter; 4000 times "if (x == 1) x++"; loop back while x != 0; exit; return
+    // (the back jump spans 32000 bytes, close to the 16 bit offset limit)
+    int reps = 4000;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(new byte[]{(byte) OpCode.enter.code(), 0, 1});
+    for (int i = 0; i < reps; i++) {
+      out.writeBytes(new byte[]{(byte) OpCode.load_0.code(), (byte) OpCode.const_1.code(),
+              (byte) OpCode.jne.code(), 0, 6, (byte) OpCode.inc.code(), 0, 1});
+    }
+    int back = 3 - out.size() - 2;
+    out.writeBytes(new byte[]{(byte) OpCode.load_0.code(), (byte) OpCode.const_0.code(),
+            (byte) OpCode.jne.code(), (byte) (back >> 8), (byte) back,
+            (byte) OpCode.exit.code(), (byte) OpCode.return_.code()});
+    byte[] code = out.toByteArray();
+
+    ControlFlowGraph cfg = ControlFlowGraph.build(code, code.length, 0);
+    assertEquals(2 * reps + 3, cfg.blocks().size());
+    assertEquals(1, cfg.loops().size());
+    assertEquals(2 * reps + 1, cfg.loops().get(0).blocks.size());
+    assertConsistent(cfg);
+  }
+}
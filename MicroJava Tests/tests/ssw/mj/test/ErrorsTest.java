@@ -0,0 +1,66 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.Errors;
+import ssw.mj.Errors.Message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the error records and their limit.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class ErrorsTest {
+
+  @Test
+  public void structured() {
+    Errors errors = new Errors();
+    errors.error(3, 7, Message.INVALID_CHAR, '$');
+    errors.error(4, 1, Message.EOF_IN_COMMENT);
+    assertEquals(2, errors.numErrors());
+    assertEquals(2, errors.numKept());
+    assertEquals(3, errors.line(0));
+    assertEquals(7, errors.col(0));
+    assertEquals(Message.INVALID_CHAR, errors.message(0));
+    assertArrayEquals(new Object[]{'$'}, errors.params(0));
+    assertEquals(Message.EOF_IN_COMMENT, errors.message(1));
+    assertArrayEquals(new Object[0], errors.params(1));
+    assertEquals("-- line 3 col 7: invalid character $\n"
+            + "-- line 4 col 1: unexpected end of file in comment\n", errors.dump());
+    assertThrows(IndexOutOfBoundsException.class, () -> errors.line(2));
+  }
+
+  @Test
+  public void wrongParameters() {
+    Errors errors = new Errors();
+    assertThrows(Error.class, () -> errors.error(1, 1, Message.INVALID_CHAR));
+    assertThrows(Error.class, () -> errors.error(1, 1, Message.NO_VAL, "x"));
+    assertEquals(0, errors.numErrors());
+  }
+
+  @Test
+  public void limit() {
+    Errors errors = new Errors();
+    errors.limit = 2;
+    for (int i = 1; i <= 5; i++) {
+      errors.error(i, 1, Message.NOT_FOUND, "x" + i);
+    }
+    assertEquals(5, errors.numErrors());
+    assertEquals(2, errors.numKept());
+    assertEquals("-- line 1 col 1: x1 not found\n"
+            + "-- line 2 col 1: x2 not found\n"
+            + "-- 3 more errors\n", errors.dump());
+  }
+
+  @Test
+  public void manyErrors() {
+    Errors errors = new Errors();
+    for (int i = 0; i < 1_000_000; i++) {
+      errors.error(i, 1, Message.INVALID_CHAR, '#');
+    }
+    assertEquals(1_000_000, errors.numErrors());
+    assertEquals(Errors.DEFAULT_LIMIT, errors.numKept());
+    assertEquals(Errors.DEFAULT_LIMIT - 1, errors.line(Errors.DEFAULT_LIMIT - 1));
+  }
+}
@@ -0,0 +1,105 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.vm.ExecutionMetrics;
+import ssw.mj.vm.ProgramExecutor;
+import ssw.mj.vm.StreamIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for running many programs concurrently.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class ExecutorTest extends CompilerTestCaseSupport {
+
+  private static final String SUM = "program A" + LF + //
+          "{" + LF + //
+          "  void main ()" + LF + //
+          "    int x, s;" + LF + //
+          "  {" + LF + //
+          "    print('?');" + LF + //
+          "    read(x);" + LF + //
+          "    while (x != 0) { s += 100 / (x - 1); read(x); }" + LF + //
+          "    print(s);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  private static InputStream input(String s) {
+    return new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void manyPrograms() {
+    init(SUM);
+    addExpectedRun("5 21 0", "?30");
+    parseAndVerify();
+
+    int n = 500;
+    ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[n];
+    CompletableFuture<?>[] results = new CompletableFuture<?>[n];
+    ExecutionMetrics metrics;
+    try (ProgramExecutor executor = new ProgramExecutor(100, 8)) {
+      for (int i = 0; i < n; i++) {
+        outputs[i] = new ByteArrayOutputStream();
+        // every 10th program divides by zero
+        String in = i % 10 == 0 ? "1 0" : (i + 2) + " 0";
+        results[i] = executor.submit(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize,
+                new StreamIO(input(in), outputs[i], 16));
+      }
+      metrics = executor.metrics();
+    }
+    for (int i = 0; i < n; i++) {
+      if (i % 10 == 0) {
+        CompletionException ex = assertThrows(CompletionException.class, results[i]::join);
+        assertEquals("division by zero", ex.getCause().getMessage());
+      } else {
+        results[i].join();
+        assertEquals("?" + 100 / (i + 1), outputs[i].toString(StandardCharsets.US_ASCII));
+      }
+    }
+    assertEquals(450, metrics.completedCount());
+    assertEquals(50, metrics.failedCount());
+    assertEquals(0, metrics.inFlight());
+    assertTrue(metrics.percentile(50) > 0);
+    assertTrue(metrics.percentile(50) <= metrics.percentile(99));
+  }
+
+  @Test
+  public void outputFlushedBeforeRead() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StringBuilder seen = new StringBuilder();
+    InputStream in = new InputStream() {
+      @Override
+      public int read() {
+        seen.append(out.toString(StandardCharsets.US_ASCII));
+        return -1;
+      }
+    };
+    StreamIO io = new StreamIO(in, out, 16);
+    io.write('?');
+    assertEquals(0, out.size());
+    assertEquals(0, io.read());
+    assertEquals("?", seen.toString());
+  }
+
+  @Test
+  public void fullBufferWritten() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamIO io = new StreamIO(input(""), out, 4);
+    for (char c : "abcdef".toCharArray()) {
+      io.write(c);
+    }
+    assertEquals("abcd", out.toString(StandardCharsets.US_ASCII));
+    io.flush();
+    assertEquals("abcdef", out.toString(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,111 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ssw.mj.Interpreter;
+import ssw.mj.vm.ByteArrayHeap;
+import ssw.mj.vm.DirectHeap;
+import ssw.mj.vm.Heap;
+import ssw.mj.vm.IntArrayHeap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the heap implementations of the VM.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class HeapTest extends CompilerTestCaseSupport {
+
+  private static final String STRINGS = "program A" + LF + //
+          "  char[] s;" + LF + //
+          "{" + LF + //
+          "  void main ()" + LF + //
+          "    int i; char c;" + LF + //
+          "  {" + LF + //
+          "    s = new char[7];" + LF + //
+          "    while (i < 7) { read(c); s[i] = c; i++; }" + LF + //
+          "    i = 6;" + LF + //
+          "    while (i >= 0) { print(s[i]); i--; }" + LF + //
+          "    print(len(s));" + LF + //
+          "    print(s[7]);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  private String run(Heap heap, String input) {
+    Interpreter.BufferIO io = new Interpreter.BufferIO(input);
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false, heap);
+    IllegalStateException ex = assertThrows(IllegalStateException.class, interpreter::run);
+    assertEquals("index out of bounds", ex.getMessage());
+    return io.getOutput();
+  }
+
+  @Test
+  public void byteArrays() {
+    init(STRINGS);
+    parseAndVerify();
+    assertEquals("gfedcba7", run(new IntArrayHeap(Interpreter.heapSize), "abcdefg"));
+    assertEquals("gfedcba7", run(new ByteArrayHeap(Interpreter.heapSize), "abcdefg"));
+    assertEquals("gfedcba7", run(new DirectHeap(Interpreter.heapSize), "abcdefg"));
+  }
+
+  @Test
+  public void sameLayout() {
+    Heap ints = new IntArrayHeap(4);
+    Heap bytes = new ByteArrayHeap(4);
+    Heap direct = new DirectHeap(4);
+    for (Heap heap : new Heap[]{ints, bytes, direct}) {
+      heap.put(0, 0x01020304);
+      heap.putByte(1, 0, (byte) 0xAB);
+      heap.putByte(1, 6, (byte) 0xCD);
+      heap.put(3, -1);
+    }
+    for (int adr = 0; adr < 4; adr++) {
+      assertEquals(ints.get(adr), bytes.get(adr));
+      for (int idx = 0; idx < 4; idx++) {
+        assertEquals(ints.getByte(adr, idx), bytes.getByte(adr, idx));
+        assertEquals(ints.getByte(adr, idx), direct.getByte(adr, idx));
+      }
+      assertEquals(ints.get(adr), direct.get(adr));
+    }
+    assertEquals(0xAB000000, bytes.get(1));
+    assertEquals(0x0000CD00, bytes.get(2));
+    assertEquals((byte) 0x03, bytes.getByte(0, 2));
+  }
+
+  @Test
+  public void clear() {
+    for (Heap heap : new Heap[]{new IntArrayHeap(3), new ByteArrayHeap(3), new DirectHeap(3)}) {
+      heap.put(0, 7);
+      heap.putByte(1, 5, (byte) 1);
+      heap.clear();
+      for (int adr = 0; adr < 3; adr++) {
+        assertEquals(0, heap.get(adr));
+      }
+    }
+  }
+
+  @Test
+  public void saveAndLoad(@TempDir Path dir) throws IOException {
+    Heap[] heaps = {new IntArrayHeap(100), new ByteArrayHeap(100), new DirectHeap(100)};
+    for (Heap from : heaps) {
+      for (int adr = 0; adr < 100; adr++) {
+        from.put(adr, adr * 0x01010101);
+      }
+      Path file = dir.resolve("heap");
+      from.save(file, 50);
+      assertEquals(200, Files.size(file));
+      for (Heap to : new Heap[]{new IntArrayHeap(60), new ByteArrayHeap(60), new DirectHeap(60)}) {
+        assertEquals(50, to.load(file));
+        for (int adr = 0; adr < 50; adr++) {
+          assertEquals(adr * 0x01010101, to.get(adr));
+        }
+        assertEquals(0, to.get(50));
+      }
+    }
+  }
+}
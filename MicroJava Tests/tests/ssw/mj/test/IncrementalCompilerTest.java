@@ -0,0 +1,144 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.IncrementalCompiler;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+import ssw.mj.opt.Inliner;
+import ssw.mj.opt.Optimizer;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the incremental compiler, which must generate the same
+ * code as the parser for the whole program.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class IncrementalCompilerTest extends CompilerTestCaseSupport {
+
+  private static final String PROGRAM = "program A" + LF + //
+          "  final int N = 10;" + LF + //
+          "  class Node { int val; Node next; }" + LF + //
+          "  int count;" + LF + //
+          "  Node list;" + LF + //
+          "{" + LF + //
+          "  int square(int x) { return x * x; }" + LF + //
+          "  void add(int v) Node p; { p = new Node; p.val = v; p.next = list; list = p; count++; }" + LF + //
+          "  int sum() Node p; int s; { p = list; while (p != null) { s += p.val; p = p.next; } return s; }" + LF + //
+          "  void main () int i; {" + LF + //
+          "    while (i < N) { add(square(i)); i++; }" + LF + //
+          "    print(sum()); print(count);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  private final IncrementalCompiler compiler = new IncrementalCompiler(EnumSet.noneOf(Optimizer.Pass.class), 0,
+          false);
+
+  private static String full(String source, EnumSet<Optimizer.Pass> optimizations, int inlineLimit, boolean compact) {
+    Scanner scanner = new Scanner(new StringReader(source));
+    Parser parser = new Parser(scanner);
+    parser.optimizations.addAll(optimizations);
+    parser.code.inlineLimit = inlineLimit;
+    parser.code.compact = compact;
+    parser.parse();
+    return dump(parser.code) + scanner.errors.dump();
+  }
+
+  private static String dump(Code code) {
+    return Arrays.toString(code.toByteArray()) + " main " + code.mainpc + " data " + code.dataSize;
+  }
+
+  private void assertSameAsFull(String source) {
+    Code code = compiler.compile(source);
+    assertEquals(full(source, EnumSet.noneOf(Optimizer.Pass.class), 0, false), dump(code) + compiler.errors().dump());
+  }
+
+  @Test
+  public void firstVersion() {
+    assertSameAsFull(PROGRAM);
+    assertEquals(4, compiler.parsedMethods());
+    assertSameAsFull(PROGRAM);
+    assertEquals(0, compiler.parsedMethods());
+  }
+
+  @Test
+  public void changedMethodOnly() {
+    assertSameAsFull(PROGRAM);
+    // a longer square moves the code of the methods after it
+    assertSameAsFull(PROGRAM.replace("return x * x;", "return x * x + 1;"));
+    assertEquals(1, compiler.parsedMethods());
+    assertSameAsFull(PROGRAM.replace("return x * x;", "return x * x + 1;").replace("i++;", "i += 2;"));
+    assertEquals(1, compiler.parsedMethods());
+    // square changes back, comments and white space in main do not count
+    assertSameAsFull(PROGRAM.replace("i++;", "i += 2; /* faster */").replace("  void main", LF + "  void main"));
+    assertEquals(1, compiler.parsedMethods());
+  }
+
+  @Test
+  public void changedSignature() {
+    assertSameAsFull(PROGRAM);
+    assertSameAsFull(PROGRAM.replace("int square(int x) { return x * x; }", "int square(char x) { return 1; }")
+            .replace("add(square(i))", "add(square(chr(i)))"));
+    // square and its caller main
+    assertEquals(2, compiler.parsedMethods());
+  }
+
+  @Test
+  public void changedGlobals() {
+    assertSameAsFull(PROGRAM);
+    // count and list move, add, sum and main use them
+    assertSameAsFull(PROGRAM.replace("  int count;", "  int first;" + LF + "  int count;"));
+    assertEquals(3, compiler.parsedMethods());
+    // a new field changes Node, add and sum use it
+    assertSameAsFull(PROGRAM);
+    assertSameAsFull(PROGRAM.replace("Node next; }", "Node next; int extra; }"));
+    assertEquals(2, compiler.parsedMethods());
+    assertSameAsFull(PROGRAM);
+    assertSameAsFull(PROGRAM.replace("final int N = 10;", "final int N = 20;"));
+    assertEquals(1, compiler.parsedMethods());
+  }
+
+  @Test
+  public void addedAndRemovedMethods() {
+    assertSameAsFull(PROGRAM);
+    String added = PROGRAM.replace("  void main", "  int cube(int x) { return x * square(x); }" + LF + "  void main")
+            .replace("print(count);", "print(count); print(cube(3));");
+    assertSameAsFull(added);
+    assertEquals(2, compiler.parsedMethods());
+    assertSameAsFull(PROGRAM);
+    assertEquals(1, compiler.parsedMethods());
+  }
+
+  @Test
+  public void errors() {
+    assertSameAsFull(PROGRAM);
+    String wrong = PROGRAM.replace("s += p.val;", "s += p.value;");
+    assertSameAsFull(wrong);
+    assertEquals(1, compiler.errors().numErrors());
+    assertSameAsFull(PROGRAM.replace("int square(int x)", "int square(int x"));
+    assertSameAsFull(PROGRAM.replace("print(count);", "print(count); print(cube(1));"));
+    assertSameAsFull(PROGRAM);
+    assertEquals(0, compiler.errors().numErrors());
+  }
+
+  @Test
+  public void optimized() {
+    EnumSet<Optimizer.Pass> all = EnumSet.allOf(Optimizer.Pass.class);
+    IncrementalCompiler optimizing = new IncrementalCompiler(all, Inliner.DEFAULT_LIMIT, true);
+    String[] versions = {PROGRAM, PROGRAM.replace("return x * x;", "return x * x * x;"),
+            PROGRAM.replace("count++;", "count += 2;"), PROGRAM};
+    for (String version : versions) {
+      Code code = optimizing.compile(version);
+      assertEquals(full(version, all, Inliner.DEFAULT_LIMIT, true), dump(code) + optimizing.errors().dump());
+    }
+    // square is inlined into main, which has to be parsed again
+    optimizing.compile(versions[1]);
+    assertEquals(2, optimizing.parsedMethods());
+  }
+}
@@ -0,0 +1,332 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ssw.mj.Interpreter;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Linker;
+import ssw.mj.impl.ObjectModule;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+import ssw.mj.opt.Inliner;
+import ssw.mj.opt.Optimizer;
+import ssw.mj.symtab.Obj;
+import ssw.mj.vm.Verifier;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for modules and the linker, which must link programs that
+ * run like the same program compiled from one source.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class LinkerTest extends CompilerTestCaseSupport {
+
+  private static final String PRIMS = "program Prims" + LF + //
+          "  int found;" + LF + //
+          "{" + LF + //
+          "  void print_prims(int n) int[] numbers; int i, j; {" + LF + //
+          "    numbers = new int[n];" + LF + //
+          "    while (i < n) {" + LF + //
+          "      if (1 < i && numbers[i] == 0) {" + LF + //
+          "        print(i); print(' '); found++;" + LF + //
+          "        j = i;" + LF + //
+          "        while (j < n) { numbers[j]++; j += i; }" + LF + //
+          "      }" + LF + //
+          "      i++;" + LF + //
+          "    }" + LF + //
+          "  }" + LF + //
+          "  int unused(int x) { return x * x; }" + LF + //
+          "  void main() { print_prims(1000); }" + LF + //
+          "}";
+
+  private static final String LIST = "program List" + LF + //
+          "  final int EMPTY = 9;" + LF + //
+          "  class Node { int val; Node next; }" + LF + //
+          "  Node head;" + LF + //
+          "  int size;" + LF + //
+          "{" + LF + //
+          "  void add(int v) Node n; { n = new Node; n.val = v; n.next = head; head = n; size++; }" + LF + //
+          "  int sum(Node n) int s; { while (n != null) { s += n.val; n = n.next; } return s; }" + LF + //
+          "  int first() { if (head == null) return EMPTY; return head.val; }" + LF + //
+          "}";
+
+  private static Parser parser(String source, boolean module, int inlineLimit, boolean compact,
+                               ObjectModule... imports) {
+    Scanner scanner = new Scanner(new StringReader(source));
+    Parser parser = new Parser(scanner);
+    for (ObjectModule m : imports) {
+      m.declare(parser.tab);
+    }
+    parser.module = module;
+    parser.code.inlineLimit = inlineLimit;
+    parser.code.compact = compact;
+    parser.parse();
+    return parser;
+  }
+
+  private static ObjectModule module(String source, ObjectModule... imports) {
+    Parser parser = parser(source, true, 0, false, imports);
+    assertEquals("", parser.scanner.errors.dump());
+    return ObjectModule.of(parser);
+  }
+
+  private static Linker linker(ObjectModule... modules) {
+    return new Linker(Arrays.asList(modules));
+  }
+
+  private static String run(Code code) {
+    Verifier verifier = new Verifier(code.toByteArray(), code.mainpc, code.dataSize);
+    assertTrue(verifier.verify(), verifier.error());
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    new Interpreter(code.toByteArray(), code.mainpc, code.dataSize, io, false).run();
+    return io.getOutput();
+  }
+
+  private static String link(ObjectModule... modules) {
+    try {
+      return run(linker(modules).link());
+    } catch (Linker.LinkException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Size of the code of the method name in m.
+   */
+  private static int size(ObjectModule m, String name) {
+    int adr = -1;
+    int end = m.code.length;
+    for (ObjectModule.Symbol s : m.symbols) {
+      if (s.kind() == Obj.Kind.Meth && s.name().equals(name)) {
+        adr = s.value();
+      }
+    }
+    for (ObjectModule.Symbol s : m.symbols) {
+      if (s.kind() == Obj.Kind.Meth && s.value() > adr) {
+        end = Math.min(end, s.value());
+      }
+    }
+    return end - adr;
+  }
+
+  private static String linkError(ObjectModule... modules) {
+    return assertThrows(Linker.LinkException.class, () -> linker(modules).link()).getMessage();
+  }
+
+  @Test
+  public void callsAndGlobals() {
+    ObjectModule prims = module(PRIMS);
+    ObjectModule prog = module("program P" + LF + //
+            "  int calls;" + LF + //
+            "{" + LF + //
+            "  void twice(int n) { print_prims(n); calls++; print_prims(n / 2); calls++; }" + LF + //
+            "  void main() { twice(20); print(calls); print(found); found = 0; print(found); }" + LF + //
+            "}", prims);
+    // numbered in the order Prims declares them
+    assertEquals(List.of(new ObjectModule.Symbol(Obj.Kind.Var, "found", "I", 0),
+            new ObjectModule.Symbol(Obj.Kind.Meth, "print_prims", "(I)V", 1)), prog.imports);
+    assertEquals("2 3 5 7 11 13 17 19 2 3 5 7 2120", link(prog, prims));
+    // the modules come after the program, main is not imported
+    assertEquals("2 3 5 7 11 13 17 19 2 3 5 7 2120", link(prog, module(LIST), prims));
+  }
+
+  @Test
+  public void sameAsOneSource() {
+    String body = "  void main() { add(3); add(4); print(sum(head)); print(first()); print(size); }";
+    String expected = run(parser(LIST.substring(0, LIST.length() - 1) + body + LF + "}", false, 0, false).code);
+    assertEquals("742", expected);
+    assertEquals(expected, link(module("program P {" + LF + body + LF + "}", module(LIST)), module(LIST)));
+  }
+
+  @Test
+  public void classesAndConstants() {
+    ObjectModule list = module(LIST);
+    ObjectModule prog = module("program P" + LF + //
+            "  Node mine;" + LF + //
+            "{" + LF + //
+            "  void main() {" + LF + //
+            "    print(first()); add(1); add(2);" + LF + //
+            "    mine = new Node; mine.val = 10; mine.next = head;" + LF + //
+            "    print(sum(mine)); print(EMPTY);" + LF + //
+            "  }" + LF + //
+            "}", list);
+    assertTrue(prog.imports.contains(new ObjectModule.Symbol(Obj.Kind.Type, "Node", "{val:I next:LNode;}", 0)));
+    assertEquals("9139", link(prog, list));
+  }
+
+  @Test
+  public void classLayouts() {
+    ObjectModule prog = module("program P {" + LF + //
+            "  void main() Node n; { n = new Node; n.val = 3; n.next = n; print(n.next.val); }" + LF + //
+            "}", module(LIST));
+    assertEquals(List.of(new ObjectModule.Symbol(Obj.Kind.Type, "Node", "{val:I next:LNode;}", 0)), prog.imports);
+    assertEquals("3", link(prog, module(LIST)));
+    // List compiled again with the fields swapped
+    assertEquals("Node in List is Type {next:LNode; val:I}, P imports Type {val:I next:LNode;}",
+            linkError(prog, module(LIST.replace("int val; Node next;", "Node next; int val;"))));
+  }
+
+  @Test
+  public void ownDeclarationsHideImports() {
+    ObjectModule prims = module(PRIMS);
+    ObjectModule prog = module("program P" + LF + //
+            "  int found;" + LF + //
+            "{" + LF + //
+            "  void print_prims(int n) { found = n; }" + LF + //
+            "  void main() { print_prims(5); print(found); }" + LF + //
+            "}", prims);
+    assertEquals(List.of(), prog.imports);
+    assertEquals("5", link(prog, prims));
+  }
+
+  @Test
+  public void sameNamesInSeveralModules() {
+    ObjectModule list = module(LIST);
+    // first hides the one of List
+    ObjectModule stats = module("program Stats" + LF + //
+            "  int calls;" + LF + //
+            "{" + LF + //
+            "  void fill() { add(2); add(8); add(5); }" + LF + //
+            "  int first() { return sum(head) / size; }" + LF + //
+            "  int mean() { calls++; return first(); }" + LF + //
+            "}", list);
+    ObjectModule prog = module("program P {" + LF + //
+            "  void main() { fill(); print(mean()); print(calls); }" + LF + //
+            "}", stats);
+    assertEquals("51", link(prog, stats, list));
+    assertEquals("51", link(prog, list, stats));
+  }
+
+  @Test
+  public void libraryUsingLibrary() {
+    ObjectModule list = module(LIST);
+    ObjectModule stats = module("program Stats" + LF + //
+            "  int calls;" + LF + //
+            "{" + LF + //
+            "  int mean() { calls++; return sum(head) / size; }" + LF + //
+            "}", list);
+    ObjectModule prog = module("program P {" + LF + //
+            "  void main() { add(2); add(8); add(5); print(mean()); print(calls); print(size); }" + LF + //
+            "}", list, stats);
+    assertEquals("513", link(prog, stats, list));
+    assertEquals("513", link(prog, list, stats));
+  }
+
+  @Test
+  public void stripUnreachableMethods() throws Linker.LinkException {
+    ObjectModule prims = module(PRIMS);
+    ObjectModule prog = module("program P {" + LF + //
+            "  void never() { print_prims(10); }" + LF + //
+            "  void main() { print_prims(10); }" + LF + //
+            "}", prims);
+    Linker linker = linker(prog, prims);
+    Code all = linker.link();
+    linker.strip = true;
+    Code stripped = linker.link();
+    assertEquals("2 3 5 7 ", run(all));
+    assertEquals("2 3 5 7 ", run(stripped));
+    assertEquals(prog.code.length + prims.code.length, all.pc);
+    // P.never, Prims.unused and Prims.main are left out
+    assertEquals(size(prog, "main") + size(prims, "print_prims"), stripped.pc);
+  }
+
+  @Test
+  public void inlinedImportedCalls() {
+    ObjectModule prims = module(PRIMS);
+    String source = "program P" + LF + //
+            "  int n;" + LF + //
+            "{" + LF + //
+            "  void more() { n++; found++; print_prims(n); }" + LF + //
+            "  void main() { n = 4; more(); more(); print(n); print(found); }" + LF + //
+            "}";
+    String expected = link(module(source, prims), prims);
+    assertEquals("2 3 2 3 5 67", expected);
+    Parser parser = parser(source, true, Inliner.DEFAULT_LIMIT, true, prims);
+    ObjectModule inlined = ObjectModule.of(parser);
+    assertNotEquals(Arrays.toString(module(source, prims).code), Arrays.toString(inlined.code));
+    assertEquals(expected, link(inlined, prims));
+  }
+
+  @Test
+  public void optimizedWhenLinked() throws Linker.LinkException {
+    ObjectModule prims = module(PRIMS);
+    ObjectModule prog = module("program P {" + LF + //
+            "  int f(int x) { if (x > 0) return f(x - 1); return 0; }" + LF + //
+            "  void main() int i; { while (i < 3) { print_prims(5 + i); i++; } print(f(100)); }" + LF + //
+            "}", prims);
+    Linker linker = linker(prog, prims);
+    linker.strip = true;
+    String expected = run(linker.link());
+    linker.optimizations.addAll(EnumSet.allOf(Optimizer.Pass.class));
+    assertEquals(expected, run(linker.link()));
+  }
+
+  @Test
+  public void parserLeavesOptimizationsToLinker() throws Linker.LinkException {
+    ObjectModule prims = module(PRIMS);
+    Parser parser = new Parser(new Scanner(new StringReader("program P {" + LF + //
+            "  void main() { print_prims(3); return; }" + LF + //
+            "}")));
+    prims.declare(parser.tab);
+    parser.optimizations.addAll(EnumSet.allOf(Optimizer.Pass.class));
+    parser.parse();
+    assertEquals("", parser.scanner.errors.dump());
+    Linker linker = linker(ObjectModule.of(parser), prims);
+    linker.optimizations.addAll(parser.optimizations);
+    assertEquals("2 ", run(linker.link()));
+  }
+
+  @Test
+  public void linkErrors() {
+    ObjectModule prims = module(PRIMS);
+    ObjectModule prog = module("program P {" + LF + "  void main() { print_prims(3); found++; }" + LF + "}", prims);
+    assertEquals("found imported by P not found", linkError(prog));
+    // Prims compiled again after changes
+    assertEquals("print_prims in Prims is Meth (C)V, P imports Meth (I)V",
+            linkError(prog, module("program Prims int found; {" + LF + "  void print_prims(char n) { } }")));
+    assertEquals("found in Prims is Var C, P imports Var I",
+            linkError(prog, module("program Prims char found; {" + LF + "  void print_prims(int n) { } }")));
+    assertEquals("print_prims imported by P not found",
+            linkError(prog, module("program Prims int found; {" + LF + "}")));
+    assertEquals("main not found in List", linkError(module(LIST), prog, prims));
+    assertEquals("found imported by P is declared in Prims and Prims", linkError(prog, prims, prims));
+    assertEquals("no modules", linkError());
+  }
+
+  @Test
+  public void moduleNeedsNoMain() {
+    Parser parser = parser(LIST, false, 0, false);
+    assertTrue(parser.scanner.errors.dump().contains("method main not found"));
+    assertEquals("", parser(LIST, true, 0, false).scanner.errors.dump());
+  }
+
+  @Test
+  public void moduleFile(@TempDir Path dir) throws IOException {
+    ObjectModule list = module(LIST);
+    ObjectModule prog = module("program P {" + LF + "  void main() { add(1); print(first() + EMPTY); }" + LF + "}",
+            list);
+    List<ObjectModule> read = new ArrayList<>();
+    for (ObjectModule m : List.of(prog, list)) {
+      Path file = dir.resolve(m.name + ".mjo");
+      m.write(file);
+      ObjectModule r = ObjectModule.read(file);
+      assertEquals(m.name, r.name);
+      assertArrayEquals(m.code, r.code);
+      assertEquals(m.dataSize, r.dataSize);
+      assertEquals(m.symbols, r.symbols);
+      assertEquals(m.imports, r.imports);
+      read.add(r);
+    }
+    assertEquals("10", link(read.toArray(new ObjectModule[0])));
+  }
+}
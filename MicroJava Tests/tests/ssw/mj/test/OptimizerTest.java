@@ -0,0 +1,264 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.Interpreter;
+import ssw.mj.cfg.ControlFlowGraph;
+import ssw.mj.codegen.Decoder;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+import ssw.mj.opt.Inliner;
+import ssw.mj.opt.Optimizer;
+
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the optimization passes.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class OptimizerTest extends CompilerTestCaseSupport {
+
+  private static int unoptimizedSize(String source) {
+    Parser p = new Parser(new Scanner(new StringReader(source)));
+    p.parse();
+    return p.code.pc;
+  }
+
+  /**
+   * Fails if a jump of the code goes to a jmp or to the next instruction.
+   */
+  private static void assertThreaded(Code code) {
+    byte[] buf = code.toByteArray();
+    for (int pc = 0; pc < code.pc; pc += OpCode.get(buf[pc]).size()) {
+      if (ControlFlowGraph.isJump(OpCode.get(buf[pc]))) {
+        int target = ControlFlowGraph.jumpTarget(buf, pc);
+        assertNotEquals(OpCode.jmp.code(), buf[target], "jump chain at " + pc);
+        assertNotEquals(pc + 3, target, "jump to next instruction at " + pc);
+      }
+    }
+  }
+
+  @Test
+  public void deadCode() {
+    String source = "program A" + LF + //
+            "  final int DEBUG = 0;" + LF + //
+            "{" + LF + //
+            "  int abs(int x) {" + LF + //
+            "    if (x >= 0) return x; else return -x;" + LF + //
+            "  }" + LF + //
+            "  int count() int i; {" + LF + //
+            "    while (1 > 0) { i++; if (i >= 10) break; }" + LF + //
+            "    return i; i = 0;" + LF + //
+            "  }" + LF + //
+            "  void main () {" + LF + //
+            "    if (DEBUG == 1) { print(99); }" + LF + //
+            "    print(abs(-3)); print(abs(4)); print(count());" + LF + //
+            "  }" + LF + //
+            "}";
+    init(source);
+    parser.optimizations.add(Optimizer.Pass.DeadCode);
+    addExpectedRun("3410");
+    parseAndVerify();
+
+    String code = new Decoder().decode(parser.code);
+    assertFalse(code.contains("trap"), code);
+    assertFalse(code.contains("const 99"), code);
+    assertTrue(parser.code.pc < unoptimizedSize(source));
+  }
+
+  @Test
+  public void jumpThreading() {
+    String source = "program A" + LF + //
+            "{" + LF + //
+            "  void main () int i, s; {" + LF + //
+            "    while (i < 100) {" + LF + //
+            "      if (i % 3 == 0) {" + LF + //
+            "        if (i % 2 == 0) { s += i; } else { s -= 1; }" + LF + //
+            "      } else {" + LF + //
+            "        if (i % 5 == 0) { s += 2; } else { s += 1; }" + LF + //
+            "      }" + LF + //
+            "      i++;" + LF + //
+            "      if (s > 1000) break;" + LF + //
+            "    }" + LF + //
+            "    print(s);" + LF + //
+            "  }" + LF + //
+            "}";
+    init(source);
+    parser.optimizations.add(Optimizer.Pass.JumpThreading);
+    addExpectedRun("878");
+    parseAndVerify();
+
+    assertThreaded(parser.code);
+    // "jle L; jmp end; L: jmp begin; end:" at the end of the loop became "jle begin"
+    assertEquals(unoptimizedSize(source) - 6, parser.code.pc);
+  }
+
+  @Test
+  public void loopInvariants() {
+    String source = "program A" + LF + //
+            "  int[] arr; int n;" + LF + //
+            "{" + LF + //
+            "  void main () int i, s, j; char[] str; {" + LF + //
+            "    arr = new int[10]; n = 7; str = new char[5];" + LF + //
+            "    while (len(arr) > i) {" + LF + //
+            "      arr[i] = i * (n * 4 + 1);" + LF + //
+            "      j = 0;" + LF + //
+            "      while (len(str) > j) { s += n * 3 + j; j++; }" + LF + //
+            "      i++;" + LF + //
+            "    }" + LF + //
+            "    i = 0;" + LF + //
+            "    while (len(arr) > i) { s += arr[i]; i++; }" + LF + //
+            "    print(s);" + LF + //
+            "  }" + LF + //
+            "}";
+    init(source);
+    parser.optimizations.add(Optimizer.Pass.LoopInvariants);
+    addExpectedRun("2455");
+    parseAndVerify();
+
+    // len(arr) twice, n * 4 + 1, len(str) and n * 3 are kept in new locals
+    assertEquals(9, parser.code.get(2));
+  }
+
+  @Test
+  public void loopInvariantsKeepTraps() {
+    init("program A" + LF + //
+            "  int n; int[] a;" + LF + //
+            "{" + LF + //
+            "  void main () int i, s; {" + LF + //
+            "    i = 10;" + LF + //
+            "    while (5 > i) { s += 100 / n; i++; }" + LF + //
+            "    print(s);" + LF + //
+            "    while (len(a) > i) { i++; }" + LF + //
+            "  }" + LF + //
+            "}");
+    parser.optimizations.add(Optimizer.Pass.LoopInvariants);
+    parseAndVerify();
+
+    // the division is not executed, the null array is found in the loop condition
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false);
+    IllegalStateException ex = assertThrows(IllegalStateException.class, interpreter::run);
+    assertEquals("null reference used", ex.getMessage());
+    assertEquals("0", io.getOutput());
+  }
+
+  private static int calls(Code code) {
+    int n = 0;
+    for (int pc = 0; pc < code.pc; pc += OpCode.get(code.get(pc)).size()) {
+      if (code.get(pc) == OpCode.call.code()) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Test
+  public void inlining() {
+    init("program A" + LF + //
+            "  class P { int x; }" + LF + //
+            "  int g;" + LF + //
+            "{" + LF + //
+            "  int getX(P p) { return p.x; }" + LF + //
+            "  int max(int a, int b) int m; { if (a > b) m = a; else m = b; return m; }" + LF + //
+            "  void show(int v) { print(v); print(' '); }" + LF + //
+            "  void bump() { g++; }" + LF + //
+            "  void main () P p; int i; {" + LF + //
+            "    p = new P; p.x = 4;" + LF + //
+            "    while (i < 6) { show(max(getX(p), i)); bump(); i++; }" + LF + //
+            "    show(g);" + LF + //
+            "  }" + LF + //
+            "}");
+    parser.code.inlineLimit = Inliner.DEFAULT_LIMIT;
+    addExpectedRun("4 4 4 4 4 5 6 ");
+    parseAndVerify();
+
+    assertEquals(0, calls(parser.code));
+    // p and i, then a, b and m of max as the largest inlined method
+    int main = parser.code.mainpc;
+    assertEquals(5, parser.code.get(main + 2));
+  }
+
+  @Test
+  public void inliningLimit() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); }" + LF + //
+            "  int sum(int n) int s, i; { i = 1; while (i <= n) { s += i; i++; } return s; }" + LF + //
+            "  int twice(int n) { return 2 * n; }" + LF + //
+            "  void main () {" + LF + //
+            "    print(fact(5)); print(sum(10)); print(twice(3));" + LF + //
+            "  }" + LF + //
+            "}");
+    parser.code.inlineLimit = 8;
+    addExpectedRun("120556");
+    parseAndVerify();
+
+    // the recursive call and the calls of fact and sum remain
+    assertEquals(3, calls(parser.code));
+  }
+
+  @Test
+  public void tailCalls() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int count(int n, int acc) int t; { t++; if (n == 0) return acc; return count(n - 1, acc + t); }" + LF + //
+            "  int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); }" + LF + //
+            "  void main () {" + LF + //
+            "    print(count(1000000, 0)); print(' '); print(fact(6));" + LF + //
+            "  }" + LF + //
+            "}");
+    parser.optimizations.add(Optimizer.Pass.TailCalls);
+    parseAndVerify();
+
+    // only the call of fact in fact is no tail call
+    assertEquals(3, calls(parser.code));
+    Interpreter.BufferIO io = new Interpreter.BufferIO("");
+    new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false).run();
+    assertEquals("1000000 720", io.getOutput());
+  }
+
+  @Test
+  public void tailCallsNeeded() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int count(int n) { if (n == 0) return 0; return count(n - 1); }" + LF + //
+            "  void main () { print(count(1000000)); }" + LF + //
+            "}");
+    parseAndVerify();
+
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize,
+            new Interpreter.BufferIO(""), false);
+    IllegalStateException ex = assertThrows(IllegalStateException.class, interpreter::run);
+    assertEquals("method stack overflow", ex.getMessage());
+  }
+
+  @Test
+  public void compactInstructions() {
+    String source = "program A" + LF + //
+            "  class C { int n; }" + LF + //
+            "  int g;" + LF + //
+            "{" + LF + //
+            "  void main () int a, b, c, d, e, f; C o; {" + LF + //
+            "    o = new C; e = 100; f = -30000;" + LF + //
+            "    while (a < 200) { g++; o.n--; a++; }" + LF + //
+            "    print(e + f + 70000); print(' '); print(g); print(' '); print(o.n);" + LF + //
+            "  }" + LF + //
+            "}";
+    init(source);
+    parser.code.compact = true;
+    addExpectedRun("40100 200 -200");
+    parseAndVerify();
+
+    String code = new Decoder().decode(parser.code);
+    for (String insn : new String[]{"bipush 100", "sipush -30000", "sipush 200", "const 70000", "store_4",
+            "load_5", "incstatic 0, 1", "incfield 0, -1"}) {
+      assertTrue(code.contains(insn), insn + " missing in" + LF + code);
+    }
+    assertTrue(parser.code.pc < unoptimizedSize(source));
+  }
+}
@@ -0,0 +1,120 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.impl.Code;
+import ssw.mj.impl.ParallelScanner;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+import ssw.mj.scanner.Token;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ssw.mj.scanner.Token.Kind.*;
+
+/**
+ * Test cases for the parallel scanner, which must deliver the same tokens
+ * and errors as the scanner for the whole source.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class ParallelScannerTest extends CompilerTestCaseSupport {
+
+  private static String tokens(Scanner scanner, String source) {
+    StringBuilder sb = new StringBuilder();
+    Token t;
+    do {
+      t = scanner.next();
+      sb.append(t).append(" [").append(t.val).append(' ').append(t.numVal).append("]\n");
+    } while (t.kind != eof);
+    // the end of file stays where it is
+    sb.append(scanner.next()).append('\n');
+    return sb + scanner.errors.dump();
+  }
+
+  /**
+   * Compares the tokens with the scanner's for every chunk size up to the
+   * length of the source.
+   */
+  private static void assertSameTokens(String source) {
+    String expected = tokens(new Scanner(new StringReader(source)), source);
+    for (int size = 1; size <= source.length() + 1; size++) {
+      ParallelScanner scanner = new ParallelScanner(source, size);
+      assertEquals(expected, tokens(scanner, source), "chunk size " + size);
+      for (int i = 0; i < scanner.tokens.size() - 1; i++) {
+        Token.Kind kind = scanner.tokens.kind(i);
+        int offset = scanner.tokens.offset(i);
+        if (kind.ordinal() >= plus.ordinal()) {
+          assertTrue(source.startsWith(kind.label(), offset), "token " + i + " at " + offset);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void simple() {
+    assertSameTokens("program A" + LF + "  int x;" + LF + "{" + LF + "  void main() { x = 3 + 4; print(x); }" + LF + "}" + LF);
+  }
+
+  @Test
+  public void emptySource() {
+    assertSameTokens("");
+    assertSameTokens(LF);
+    assertSameTokens("x");
+  }
+
+  @Test
+  public void commentsAcrossLines() {
+    assertSameTokens("a /* b" + LF + "c */ d" + LF + "e /* f /* g" + LF + "h */" + LF + "i */ j" + LF + "k");
+    // looks like tokens inside a comment
+    assertSameTokens("/*" + LF + "x = 1;" + LF + "/* y */" + LF + "z = 2;" + LF + "*/ w" + LF);
+  }
+
+  @Test
+  public void commentToEndOfFile() {
+    assertSameTokens("a /* b" + LF + "c" + LF + "/* d */" + LF + "e");
+  }
+
+  @Test
+  public void charConstants() {
+    assertSameTokens("c = 'a';" + LF + "d = '" + LF + "'; e = '\\n' '/*' x" + LF + "*/ y" + LF + "'");
+    assertSameTokens("'" + LF + "/*" + LF + "x" + LF + "*/" + LF);
+  }
+
+  @Test
+  public void errors() {
+    assertSameTokens("a $ b" + LF + "12345678901234 !x & y | z" + LF + "'\\q' '' 'ab'" + LF + "# /* $" + LF + "*/ $");
+  }
+
+  @Test
+  public void largeSource() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append("x").append(i).append(" += '").append((char) ('a' + i % 26)).append("'; /* ").append(i);
+      sb.append(i % 7 == 0 ? LF + " /* ** */" + LF : " ").append("*/ y[").append(i).append("]--;").append(LF);
+    }
+    String source = sb.toString();
+    String expected = tokens(new Scanner(new StringReader(source)), source);
+    for (int size : new int[]{7, 100, 1000, 4096, ParallelScanner.CHUNK_SIZE}) {
+      assertEquals(expected, tokens(new ParallelScanner(source, size), source), "chunk size " + size);
+    }
+  }
+
+  @Test
+  public void parserErrorsInOrder() {
+    // scanner and parser errors interleave
+    String source = "program A" + LF + "  int x $;" + LF + "{" + LF + "  void main() { x = y; x = #; z(); }" + LF + "}"
+            + LF;
+    for (int size = 1; size <= source.length(); size++) {
+      assertEquals(compile(new Scanner(new StringReader(source))), compile(new ParallelScanner(source, size)));
+    }
+  }
+
+  private static String compile(Scanner scanner) {
+    Parser parser = new Parser(scanner);
+    parser.parse();
+    Code code = parser.code;
+    return Arrays.toString(code.toByteArray()) + LF + scanner.errors.dump();
+  }
+}
@@ -0,0 +1,125 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.Interpreter;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.opt.Inliner;
+import ssw.mj.opt.Optimizer;
+import ssw.mj.vm.RegisterMachine;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the register machine, which must behave like the stack
+ * interpreter.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class RegisterMachineTest extends CompilerTestCaseSupport {
+
+  private static final String PROGRAM = "program A" + LF + //
+          "  final int N = 10;" + LF + //
+          "  class Node { int val; Node next; }" + LF + //
+          "  int[] a; Node list; int calls;" + LF + //
+          "{" + LF + //
+          "  int fib(int n) { calls++; if (n < 2) return n; return fib(n - 1) + fib(n - 2); }" + LF + //
+          "  int sum(int[] x) int i, s; { while (len(x) > i) { s += x[i]; i++; } return s; }" + LF + //
+          "  void main () int i, k; char[] s; Node p; {" + LF + //
+          "    read(k);" + LF + //
+          "    a = new int[N];" + LF + //
+          "    while (i < N) { a[i] = i * k - 100000; a[i] += i; i++; }" + LF + //
+          "    print(sum(a), 8); print(' '); print(fib(k)); print(' '); print(calls);" + LF + //
+          "    i = 0;" + LF + //
+          "    while (i < 3) { p = new Node; p.val = i * 7 % 5; p.next = list; list = p; i++; }" + LF + //
+          "    p = list;" + LF + //
+          "    while (p != null) { p.val--; print(p.val); p = p.next; }" + LF + //
+          "    s = new char[3]; s[0] = 'x'; s[1] = chr(ord(s[0]) + 1); s[2] = s[1];" + LF + //
+          "    i = 0; while (len(s) > i) { print(s[i], 2); i++; }" + LF + //
+          "    k = -k; print(k / 3); print(k % 3);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  private String runStack(String input) {
+    Interpreter.BufferIO io = new Interpreter.BufferIO(input);
+    new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false).run();
+    return io.getOutput();
+  }
+
+  private String runRegister(String input) {
+    Interpreter.BufferIO io = new Interpreter.BufferIO(input);
+    new RegisterMachine(code(), parser.code.mainpc, parser.code.dataSize, io).run();
+    return io.getOutput();
+  }
+
+  private byte[] code() {
+    return parser.code.toByteArray();
+  }
+
+  @Test
+  public void sameOutput() {
+    init(PROGRAM);
+    parseAndVerify();
+    assertEquals(runStack("12"), runRegister("12"));
+    assertEquals(" -999415 144 46531-1 x y y-40", runRegister("12"));
+  }
+
+  @Test
+  public void sameOutputOptimized() {
+    init(PROGRAM);
+    parser.optimizations.addAll(EnumSet.allOf(Optimizer.Pass.class));
+    parser.code.inlineLimit = Inliner.DEFAULT_LIMIT;
+    parser.code.compact = true;
+    parseAndVerify();
+    assertEquals(runStack("9"), runRegister("9"));
+  }
+
+  @Test
+  public void runtimeErrors() {
+    String[] bodies = {"Node p; { print(p.val); }", "int[] a; { a = new int[2]; a[2] = 1; }",
+            "int i; { print(1 / i); }", "{ print(noReturn(0)); }"};
+    String[] messages = {"null reference used", "index out of bounds", "division by zero", "trap(1)"};
+    for (int i = 0; i < bodies.length; i++) {
+      init("program A" + LF + //
+              "  class Node { int val; }" + LF + //
+              "{" + LF + //
+              "  int noReturn(int x) { if (x > 0) return x; }" + LF + //
+              "  void main () " + bodies[i] + LF + //
+              "}");
+      parseAndVerify();
+      RegisterMachine m = new RegisterMachine(code(), parser.code.mainpc, parser.code.dataSize,
+              new Interpreter.BufferIO(""));
+      IllegalStateException ex = assertThrows(IllegalStateException.class, m::run);
+      assertEquals(messages[i], ex.getMessage());
+    }
+  }
+
+  @Test
+  public void fewerInstructions() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  void main () int i, x, y; {" + LF + //
+            "    while (i < 100) { x = x + i * 3; y = x - y; i++; }" + LF + //
+            "    print(x); print(y);" + LF + //
+            "  }" + LF + //
+            "}");
+    parseAndVerify();
+    int stackInstructions = 0;
+    for (int pc = 0; pc < parser.code.pc; pc += OpCode.get(parser.code.get(pc)).size()) {
+      stackInstructions++;
+    }
+    RegisterMachine m = new RegisterMachine(code(), parser.code.mainpc, parser.code.dataSize,
+            new Interpreter.BufferIO(""));
+    // "x = x + i * 3" becomes a mul and an add, "y = x - y" a sub
+    assertTrue(m.instructions() * 2 < stackInstructions, m.instructions() + " vs " + stackInstructions);
+    assertEquals(runStack(""), runRegister(""));
+  }
+
+  @Test
+  public void unverifiableCode() {
+    byte[] code = {(byte) OpCode.enter.code(), 0, 0, (byte) OpCode.add.code(), (byte) OpCode.exit.code(),
+            (byte) OpCode.return_.code()};
+    assertThrows(IllegalArgumentException.class, () -> new RegisterMachine(code, 0, 0, new Interpreter.BufferIO("")));
+  }
+}
@@ -577,6 +577,65 @@ public class ScannerTest extends CompilerTestCaseSupport {
     scanAndVerify();
   }
 
+  @Test
+  public void unicodeCharacters() {
+    initScanner("a\u2003b\u00a0c\u00e4");
+
+    expectToken(ident, 1, 1, "a");
+    expectToken(ident, 1, 3, "b");
+    expectToken(none, 1, 4);
+    expectError(1, 4, INVALID_CHAR, '\u00a0');
+    expectToken(ident, 1, 5, "c");
+    expectToken(none, 1, 6);
+    expectError(1, 6, INVALID_CHAR, '\u00e4');
+    expectToken(eof, 1, 7);
+
+    scanAndVerify();
+  }
+
+  @Test
+  public void allKeywords() {
+    initScanner("break class else final if new print program read return void while");
+
+    expectToken(break_, 1, 1);
+    expectToken(class_, 1, 7);
+    expectToken(else_, 1, 13);
+    expectToken(final_, 1, 18);
+    expectToken(if_, 1, 24);
+    expectToken(new_, 1, 27);
+    expectToken(print, 1, 31);
+    expectToken(program, 1, 37);
+    expectToken(read, 1, 45);
+    expectToken(return_, 1, 50);
+    expectToken(void_, 1, 57);
+    expectToken(while_, 1, 62);
+    expectToken(eof, 1, 67);
+
+    scanAndVerify();
+  }
+
+  @Test
+  public void almostKeywords() {
+    initScanner("in nee elsa reed voig brake clash finel prins whale retur progra Print");
+
+    expectToken(ident, 1, 1, "in");
+    expectToken(ident, 1, 4, "nee");
+    expectToken(ident, 1, 8, "elsa");
+    expectToken(ident, 1, 13, "reed");
+    expectToken(ident, 1, 18, "voig");
+    expectToken(ident, 1, 23, "brake");
+    expectToken(ident, 1, 29, "clash");
+    expectToken(ident, 1, 35, "finel");
+    expectToken(ident, 1, 41, "prins");
+    expectToken(ident, 1, 47, "whale");
+    expectToken(ident, 1, 53, "retur");
+    expectToken(ident, 1, 59, "progra");
+    expectToken(ident, 1, 66, "Print");
+    expectToken(eof, 1, 71);
+
+    scanAndVerify();
+  }
+
   @Test
   public void caseSensitive1() {
     initScanner(" {Foo} ");
@@ -866,4 +925,18 @@ public class ScannerTest extends CompilerTestCaseSupport {
     expectToken(exp, 1, 13);
     scanAndVerify();
   }
+
+  @Test
+  public void tokensAcrossInputBlocks() {
+    // the scanner reads 8192 characters at a time: abcdef spans offset 8192,
+    // the comment starts with '/' at 16383 and '*' at 16384
+    initScanner("a" + " ".repeat(8188) + "abcdef" + LF + " ".repeat(8187) + "/* x" + LF + " */ b");
+
+    expectToken(ident, 1, 1, "a");
+    expectToken(ident, 1, 8190, "abcdef");
+    expectToken(ident, 3, 5, "b");
+    expectToken(eof, 3, 6);
+
+    scanAndVerify();
+  }
 }
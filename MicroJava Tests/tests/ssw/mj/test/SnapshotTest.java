@@ -0,0 +1,77 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ssw.mj.Interpreter;
+import ssw.mj.vm.ByteArrayHeap;
+import ssw.mj.vm.DirectHeap;
+import ssw.mj.vm.Heap;
+import ssw.mj.vm.IntArrayHeap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for saving and restoring the state of the VM.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class SnapshotTest extends CompilerTestCaseSupport {
+
+  private static final String TABLES = "program A" + LF + //
+          "  class Node { int val; Node next; }" + LF + //
+          "  int[] sq; Node list; int n;" + LF + //
+          "{" + LF + //
+          "  void main ()" + LF + //
+          "    int i, x; Node p;" + LF + //
+          "  {" + LF + //
+          "    sq = new int[100];" + LF + //
+          "    while (i < 100) { sq[i] = i * i; i++; }" + LF + //
+          "    i = 0;" + LF + //
+          "    while (i < 3) { p = new Node; p.val = i; p.next = list; list = p; i++; }" + LF + //
+          "    n = 42;" + LF + //
+          "    read(x);" + LF + //
+          "    print(sq[x]); print(' ');" + LF + //
+          "    p = list;" + LF + //
+          "    while (p != null) { print(p.val); p = p.next; }" + LF + //
+          "    print(n);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  @Test
+  public void restoreAtFirstRead(@TempDir Path dir) throws IOException {
+    init(TABLES);
+    addExpectedRun("7", "49 21042");
+    parseAndVerify();
+
+    Path file = dir.resolve("tables.mjs");
+    Interpreter.BufferIO io = new Interpreter.BufferIO("7");
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false);
+    interpreter.setSnapshot(file);
+    interpreter.run();
+    assertEquals("49 21042", io.getOutput());
+    assertTrue(Files.exists(file));
+
+    for (Heap heap : new Heap[]{new IntArrayHeap(1000), new ByteArrayHeap(1000), new DirectHeap(1000)}) {
+      io = new Interpreter.BufferIO("9");
+      Interpreter.restore(file, io, false, heap).run();
+      assertEquals("81 21042", io.getOutput());
+    }
+  }
+
+  @Test
+  public void heapTooSmall(@TempDir Path dir) throws IOException {
+    init(TABLES);
+    parseAndVerify();
+
+    Path file = dir.resolve("tables.mjs");
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize,
+            new Interpreter.BufferIO("0"), false);
+    interpreter.setSnapshot(file);
+    interpreter.run();
+    assertThrows(IOException.class, () -> Interpreter.restore(file, new Interpreter.BufferIO("0"), false, new IntArrayHeap(10)));
+  }
+}
@@ -0,0 +1,18 @@
+package ssw.mj.test;
+
+import ssw.mj.impl.Scanner;
+import ssw.mj.impl.StreamScanner;
+import ssw.mj.impl.TokenStream;
+
+import java.io.Reader;
+
+/**
+ * The error recovery test cases with the tokens read from a <code>TokenStream</code>.
+ */
+public class StreamRecoverTest extends RecoverTest {
+
+  @Override
+  protected Scanner newScanner(Reader r) {
+    return new StreamScanner(TokenStream.of(new Scanner(r)));
+  }
+}
@@ -0,0 +1,147 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ssw.mj.Interpreter;
+import ssw.mj.vm.IntArrayHeap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for tiered execution, where hot methods are moved from the
+ * interpreter to the register machine.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class TieredTest extends CompilerTestCaseSupport {
+
+  private static final String PROGRAM = "program A" + LF + //
+          "  class Node { int val; Node next; }" + LF + //
+          "  Node list; int total;" + LF + //
+          "{" + LF + //
+          "  int square(int x) { return x * x; }" + LF + //
+          "  void add(int v) Node p; { p = new Node; p.val = v; p.next = list; list = p; }" + LF + //
+          "  int loop(int n) int i, s; { while (n > i) { s += square(i) % 7; i++; } return s; }" + LF + //
+          "  void main () int i, n; Node p; {" + LF + //
+          "    read(n);" + LF + //
+          "    while (i < n) { total += square(i) % 10; add(i); i++; }" + LF + //
+          "    print(total); print(' '); print(loop(n * 10)); print(' '); print(loop(5));" + LF + //
+          "    p = list; i = 0; while (p != null) { i += p.val; p = p.next; }" + LF + //
+          "    print(' '); print(i);" + LF + //
+          "  }" + LF + //
+          "}";
+
+  private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+  private String run(String input, boolean tiered) {
+    Interpreter.BufferIO io = new Interpreter.BufferIO(input);
+    Interpreter interpreter = new Interpreter(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize, io, false);
+    if (tiered) {
+      interpreter.setTiering(10, 100, new PrintStream(log, true));
+    }
+    interpreter.run();
+    return io.getOutput();
+  }
+
+  @Test
+  public void sameOutput() {
+    init(PROGRAM);
+    parseAndVerify();
+    String expected = run("50", false);
+    assertEquals(expected, run("50", true));
+    assertEquals("225 999 9 1225", expected);
+  }
+
+  @Test
+  public void transitionsLogged() {
+    init(PROGRAM);
+    parseAndVerify();
+    run("50", true);
+    String[] lines = log.toString().trim().split("\\R");
+    // square and add by calls, then loop and main by their loops
+    assertEquals(6, lines.length, log.toString());
+    assertTrue(lines[0].matches("-- tier up: method at \\d+ after 10 calls"), lines[0]);
+    assertTrue(lines[1].matches("-- tier up: method at \\d+ after 10 calls"), lines[1]);
+    assertTrue(lines[2].matches("-- tier up: method at \\d+ after 100 back edges"), lines[2]);
+    assertTrue(lines[3].matches("-- on-stack replacement: method at \\d+ at loop \\d+"), lines[3]);
+    assertTrue(lines[4].matches("-- tier up: method at " + parser.code.mainpc + " after 100 back edges"), lines[4]);
+    assertTrue(lines[5].matches("-- on-stack replacement: method at " + parser.code.mainpc + " at loop \\d+"),
+            lines[5]);
+  }
+
+  @Test
+  public void onStackReplacement() {
+    init("program A" + LF + //
+            "  int[] a;" + LF + //
+            "{" + LF + //
+            "  int count(int n) int i, c; { while (n > i) { if (a[i % 10] > 4) c++; i++; } return c; }" + LF + //
+            "  void main () int i, x; {" + LF + //
+            "    a = new int[10]; a[3] = 5; a[8] = 9;" + LF + //
+            "    x = 3 * (1 + count(500));" + LF + //
+            "    while (i < 1000) { a[i % 10] = i * 7 % 10; x = x + i % 3; i++; }" + LF + //
+            "    print(x); print(' '); print(count(20));" + LF + //
+            "  }" + LF + //
+            "}");
+    parseAndVerify();
+    String expected = run("", false);
+    assertEquals(expected, run("", true));
+    // count moves during its first call, main in its loop
+    assertEquals(2, log.toString().split("on-stack replacement").length - 1, log.toString());
+  }
+
+  @Test
+  public void coldProgram() {
+    init(PROGRAM);
+    parseAndVerify();
+    assertEquals(run("0", false), run("0", true));
+    assertEquals("", log.toString());
+  }
+
+  @Test
+  public void runtimeErrorInHotMethod() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int inv(int x) { return 100 / x; }" + LF + //
+            "  void main () int i; { i = 20; while (i >= 0) { print(inv(i)); i--; } }" + LF + //
+            "}");
+    parseAndVerify();
+    IllegalStateException ex = assertThrows(IllegalStateException.class, () -> run("", true));
+    assertEquals("division by zero", ex.getMessage());
+    assertTrue(log.toString().startsWith("-- tier up:"));
+  }
+
+  @Test
+  public void snapshotAfterPromotion(@TempDir Path dir) throws IOException {
+    init("program A" + LF + //
+            "  int total;" + LF + //
+            "{" + LF + //
+            "  void work(int n, int r) int i, x; {" + LF + //
+            "    while (i < n) { total += i; i++; }" + LF + //
+            "    if (r > 0) { read(x); print(x); }" + LF + //
+            "  }" + LF + //
+            "  void main () { work(100, 0); work(100, 1); print('y'); }" + LF + //
+            "}");
+    parseAndVerify();
+    byte[] code = parser.code.toByteArray();
+    for (boolean tiered : new boolean[]{false, true}) {
+      Path file = dir.resolve("work" + tiered + ".mjs");
+      Interpreter interpreter = new Interpreter(code, parser.code.mainpc, parser.code.dataSize,
+              new Interpreter.BufferIO("3"), false);
+      interpreter.setSnapshot(file);
+      if (tiered) {
+        // work is promoted by its loop in the first call, before the read
+        interpreter.setTiering(1000, 5, new PrintStream(log, true));
+      }
+      interpreter.run();
+      Interpreter.BufferIO io = new Interpreter.BufferIO("4");
+      Interpreter.restore(file, io, false, new IntArrayHeap(1000)).run();
+      assertEquals("4y", io.getOutput());
+    }
+    assertTrue(log.toString().startsWith("-- tier up: method at 0 after 5 back edges"), log.toString());
+  }
+}
@@ -0,0 +1,82 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.impl.Parser;
+import ssw.mj.impl.Scanner;
+import ssw.mj.impl.StreamScanner;
+import ssw.mj.impl.TokenStream;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ssw.mj.scanner.Token.Kind.*;
+
+/**
+ * Test cases for the token arrays of a <code>TokenStream</code>.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class TokenStreamTest extends CompilerTestCaseSupport {
+
+  private static TokenStream scan(String source) {
+    return TokenStream.of(new Scanner(new StringReader(source)));
+  }
+
+  @Test
+  public void attributes() {
+    TokenStream tokens = scan("x = 12;" + LF + "  y = 'a' + x;");
+    assertEquals(11, tokens.size());
+    assertEquals(ident, tokens.kind(0));
+    assertEquals("x", tokens.val(0));
+    assertEquals(number, tokens.kind(2));
+    assertEquals(12, tokens.numVal(2));
+    assertEquals(4, tokens.offset(2));
+    assertEquals(2, tokens.line(5));
+    assertEquals(7, tokens.col(6));
+    assertEquals(charConst, tokens.kind(6));
+    assertEquals('a', tokens.numVal(6));
+    assertEquals(eof, tokens.kind(10));
+    assertThrows(IndexOutOfBoundsException.class, () -> tokens.kind(11));
+  }
+
+  @Test
+  public void internedSpellings() {
+    TokenStream tokens = scan("abc x abc; 7 x");
+    assertEquals(tokens.valId(0), tokens.valId(2));
+    assertEquals(tokens.valId(1), tokens.valId(5));
+    assertNotEquals(tokens.valId(0), tokens.valId(1));
+    assertEquals(-1, tokens.valId(3));
+    assertNull(tokens.val(3));
+    assertEquals("7", tokens.val(4));
+  }
+
+  @Test
+  public void errorsWithTheirToken() {
+    StreamScanner scanner = new StreamScanner(scan("a $ b" + LF + "# c"));
+    assertEquals(0, scanner.errors.numErrors());
+    assertEquals(ident, scanner.next().kind);
+    assertEquals(none, scanner.next().kind);
+    assertEquals("-- line 1 col 3: invalid character $\n", scanner.errors.dump());
+    scanner.next();
+    scanner.next();
+    assertEquals(2, scanner.errors.numErrors());
+    assertEquals(ident, scanner.next().kind);
+    assertEquals(eof, scanner.next().kind);
+    assertEquals(eof, scanner.next().kind);
+    assertEquals(2, scanner.errors.numErrors());
+  }
+
+  @Test
+  public void parserBeforeFirstToken() {
+    // the parser uses the attributes of the pseudo token before the first one
+    String source = "{" + LF + "  void main() { }" + LF + "}";
+    assertEquals(compile(new Scanner(new StringReader(source))), compile(new StreamScanner(scan(source))));
+  }
+
+  private static String compile(Scanner scanner) {
+    Parser parser = new Parser(scanner);
+    parser.parse();
+    return Arrays.toString(parser.code.toByteArray()) + LF + scanner.errors.dump();
+  }
+}
@@ -0,0 +1,137 @@
+package ssw.mj.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ssw.mj.impl.Code.OpCode;
+import ssw.mj.vm.Verifier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the load-time bytecode verifier.
+ */
+@Timeout(value = Configuration.TIMEOUT)
+public class VerifierTest extends CompilerTestCaseSupport {
+
+  private Verifier verifyParsed() {
+    return new Verifier(parser.code.toByteArray(), parser.code.mainpc, parser.code.dataSize);
+  }
+
+  @Test
+  public void methodCalls() {
+    init("program A" + LF + //
+            "  int[] arr;" + LF + //
+            "{" + LF + //
+            "  int sum(int[] a) int i, s; {" + LF + //
+            "    while (len(a) > i) { s += a[i]; i++; }" + LF + //
+            "    return s;" + LF + //
+            "  }" + LF + //
+            "  void main () {" + LF + //
+            "    arr = new int[3]; arr[0] = 1; arr[1] = 2; arr[2] = 3;" + LF + //
+            "    print(1 + sum(arr) * 2);" + LF + //
+            "  }" + LF + //
+            "}");
+    addExpectedRun("13");
+    parseAndVerify();
+
+    Verifier verifier = verifyParsed();
+    assertTrue(verifier.verify(), verifier.error());
+    assertEquals(2, verifier.methods().size());
+    Verifier.Method sum = verifier.methodAt(0);
+    assertEquals(1, sum.nPars);
+    assertEquals(3, sum.nLocals);
+    assertEquals(1, sum.resultSize);
+    assertEquals(0, verifier.methodAt(parser.code.mainpc).resultSize);
+    // 1 stays on the stack below the 3 words needed for s += a[i] in sum
+    assertEquals(4, verifier.maxStackDepth());
+  }
+
+  @Test
+  public void recursionWithPendingOperands() {
+    init("program A" + LF + //
+            "{" + LF + //
+            "  int fib(int n) {" + LF + //
+            "     if (n <= 1) return 1; " + LF + //
+            "     return fib(n-1) + fib(n-2); " + LF + //
+            "  }" + LF + //
+            "  void main () {" + LF + //
+            "    print(fib(10)); " + LF + //
+            "  }" + LF + //
+            "}");
+    addExpectedRun("89");
+    parseAndVerify();
+
+    Verifier verifier = verifyParsed();
+    assertTrue(verifier.verify(), verifier.error());
+    assertEquals(1, verifier.methodAt(0).resultSize);
+    assertEquals(Integer.MAX_VALUE, verifier.maxStackDepth());
+  }
+
+  @Test
+  public void stackUnderflow() {
+    byte[] code = {
+            (byte) OpCode.enter.code(), 0, 0,
+            (byte) OpCode.const_1.code(),
+            (byte) OpCode.add.code(),
+            (byte) OpCode.exit.code(),
+            (byte) OpCode.return_.code()
+    };
+    Verifier verifier = new Verifier(code, 0, 0);
+    assertFalse(verifier.verify());
+    assertEquals("expression stack underflow at 4", verifier.error());
+  }
+
+  @Test
+  public void jumpIntoInstruction() {
+    byte[] code = {
+            (byte) OpCode.enter.code(), 0, 0,
+            (byte) OpCode.jmp.code(), 0, 4,
+            (byte) OpCode.const_.code(), 0, 0, 0, 0,
+            (byte) OpCode.exit.code(),
+            (byte) OpCode.return_.code()
+    };
+    Verifier verifier = new Verifier(code, 0, 0);
+    assertFalse(verifier.verify());
+  }
+
+  @Test
+  public void inconsistentStack() {
+    byte[] code = {
+            (byte) OpCode.enter.code(), 0, 0,
+            (byte) OpCode.read.code(),
+            (byte) OpCode.const_0.code(),
+            (byte) OpCode.jeq.code(), 0, 4,
+            (byte) OpCode.const_1.code(),
+            (byte) OpCode.exit.code(),
+            (byte) OpCode.return_.code()
+    };
+    Verifier verifier = new Verifier(code, 0, 0);
+    assertFalse(verifier.verify());
+    assertEquals("inconsistent stack state at 9", verifier.error());
+  }
+
+  @Test
+  public void localOutOfFrame() {
+    byte[] code = {
+            (byte) OpCode.enter.code(), 0, 2,
+            (byte) OpCode.load.code(), 2,
+            (byte) OpCode.pop.code(),
+            (byte) OpCode.exit.code(),
+            (byte) OpCode.return_.code()
+    };
+    Verifier verifier = new Verifier(code, 0, 0);
+    assertFalse(verifier.verify());
+    assertEquals("local variable index out of frame at 3", verifier.error());
+  }
+
+  @Test
+  public void missingExit() {
+    byte[] code = {
+            (byte) OpCode.enter.code(), 0, 0,
+            (byte) OpCode.return_.code()
+    };
+    Verifier verifier = new Verifier(code, 0, 0);
+    assertFalse(verifier.verify());
+    assertEquals("return without exit at 3", verifier.error());
+  }
+}